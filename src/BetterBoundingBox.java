@@ -2,78 +2,102 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
 
+/**
+ * BetterBoundingBox: Computes the exact bounds of a Shape.  Path2D.getBounds2D() includes the control points of
+ * curves, which can lie well outside the curve, so its bounds are often too large to place, or align shapes.
+ * Instead, the extremes of each curve are found by solving its derivative for where it's zero in x, or y.
+ */
+
 class BetterBoundingBox {
 
+  /**
+   * Get the exact bounds of the points on the outline of a Shape
+   * @param shape Shape to measure
+   * @return bounding rectangle, or null if shape has no segments
+   */
   static Rectangle2D getBounds (Shape shape) {
-    Rectangle2D bounds = null;    // Note: must be null
     PathIterator pi = shape.getPathIterator(null);
+    double[] crds = new double[6];
+    double[] box = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
     double xLoc = 0, yLoc = 0;
-    double mX = 0, mY = 0;
-    while (!pi.isDone()) {
-      double[] crds = new double[6];
-      int type = pi.currentSegment(crds);
-      switch (type) {
-        case PathIterator.SEG_CLOSE:
-          bounds = bounds.createUnion((new Line2D.Double(xLoc, yLoc, mX, mY)).getBounds2D());
-          break;
+    boolean empty = true;
+    for (; !pi.isDone(); pi.next()) {
+      switch (pi.currentSegment(crds)) {
         case PathIterator.SEG_MOVETO:
-          mX = xLoc = crds[0];
-          mY = yLoc = crds[1];
-          if (bounds == null) {
-            bounds = new Rectangle2D.Double(xLoc, yLoc, 0, 0);
-          } else {
-            bounds = bounds.createUnion(new Rectangle2D.Double(xLoc, yLoc, 0, 0));
-          }
-          break;
         case PathIterator.SEG_LINETO:
-          bounds = bounds.createUnion((new Line2D.Double(xLoc, yLoc, xLoc = crds[0], yLoc = crds[1])).getBounds2D());
-          break;
-        case PathIterator.SEG_CUBICTO:
-          // Decompose 4 point, cubic bezier curve into line segments
-          Point2D.Double[] tmp = new Point2D.Double[4];
-          Point2D.Double[] cControl = {
-              new Point2D.Double(xLoc, yLoc),
-              new Point2D.Double(crds[0], crds[1]),
-              new Point2D.Double(crds[2], crds[3]),
-              new Point2D.Double(crds[4], crds[5])};
-          int segments = 6;
-          for (int ii = 0; ii < segments; ii++) {
-            double t = ((double) ii) / (segments - 1);
-            for (int jj = 0; jj < cControl.length; jj++)
-              tmp[jj] = new Point2D.Double(cControl[jj].x, cControl[jj].y);
-            for (int qq = 0; qq < cControl.length - 1; qq++) {
-              for (int jj = 0; jj < cControl.length - 1; jj++) {
-                // Subdivide points
-                tmp[jj].x -= (tmp[jj].x - tmp[jj + 1].x) * t;
-                tmp[jj].y -= (tmp[jj].y - tmp[jj + 1].y) * t;
-              }
-            }
-            bounds = bounds.createUnion((new Line2D.Double(xLoc, yLoc, xLoc = tmp[0].x, yLoc = tmp[0].y)).getBounds2D());
-          }
+          addPoint(box, 0, xLoc = crds[0]);
+          addPoint(box, 1, yLoc = crds[1]);
+          empty = false;
           break;
         case PathIterator.SEG_QUADTO:
-          // Decompose 3 point, quadratic bezier curve into line segments
-          segments = 5;
-          Point2D.Double start = new Point2D.Double(xLoc, yLoc);
-          Point2D.Double control = new Point2D.Double(crds[0], crds[1]);
-          Point2D.Double end = new Point2D.Double(crds[2], crds[3]);
-          double xLast = start.x;
-          double yLast = start.y;
-          for (int ii = 1; ii < segments; ii++) {
-            // Use step as a ratio to subdivide lines
-            double step = (double) ii / segments;
-            double x = (1 - step) * (1 - step) * start.x + 2 * (1 - step) * step * control.x + step * step * end.x;
-            double y = (1 - step) * (1 - step) * start.y + 2 * (1 - step) * step * control.y + step * step * end.y;
-            bounds = bounds.createUnion((new Line2D.Double(xLast, yLast, x, y)).getBounds2D());
-            xLast = x;
-            yLast = y;
-          }
-          bounds = bounds.createUnion((new Line2D.Double(xLast, yLast, xLoc = end.x, yLoc = end.y)).getBounds2D());
+          addQuad(box, 0, xLoc, crds[0], xLoc = crds[2]);
+          addQuad(box, 1, yLoc, crds[1], yLoc = crds[3]);
           break;
+        case PathIterator.SEG_CUBICTO:
+          addCubic(box, 0, xLoc, crds[0], crds[2], xLoc = crds[4]);
+          addCubic(box, 1, yLoc, crds[1], crds[3], yLoc = crds[5]);
+          break;
+      }
+    }
+    return empty ? null : new Rectangle2D.Double(box[0], box[1], box[2] - box[0], box[3] - box[1]);
+  }
+
+  // Expand the range of axis (0 for x, 1 for y) in box to include value
+  private static void addPoint (double[] box, int axis, double value) {
+    box[axis] = Math.min(box[axis], value);
+    box[axis + 2] = Math.max(box[axis + 2], value);
+  }
+
+  /*
+   * Expand box to include a quadratic curve from p0 (already included) to p2 along one axis.  The curve can only
+   * go past its ends if the control point does, and then its extreme is where its derivative,
+   * 2(1 - t)(c - p0) + 2t(p2 - c), is zero.
+   */
+  private static void addQuad (double[] box, int axis, double p0, double c, double p2) {
+    addPoint(box, axis, p2);
+    if (c < Math.min(p0, p2) || c > Math.max(p0, p2)) {
+      double t = (p0 - c) / (p0 - 2 * c + p2);
+      double u = 1 - t;
+      addPoint(box, axis, u * u * p0 + 2 * u * t * c + t * t * p2);
+    }
+  }
+
+  /*
+   * Expand box to include a cubic curve from p0 (already included) to p3 along one axis.  The curve can only go
+   * past its ends if a control point does, and then its extremes are where its derivative, which is the quadratic
+   * 3(a t^2 + b t + c) with the coefficients below, is zero for t between 0 and 1.
+   */
+  private static void addCubic (double[] box, int axis, double p0, double c1, double c2, double p3) {
+    addPoint(box, axis, p3);
+    double min = Math.min(p0, p3), max = Math.max(p0, p3);
+    if (c1 >= min && c1 <= max && c2 >= min && c2 <= max) {
+      return;
+    }
+    double a = 3 * (c1 - c2) + p3 - p0, b = 2 * (p0 - 2 * c1 + c2), c = c1 - p0;
+    if (Math.abs(a) < 1e-12 * (Math.abs(b) + Math.abs(c))) {
+      if (b != 0) {
+        addCubicAt(box, axis, p0, c1, c2, p3, -c / b);
       }
-      pi.next();
+      return;
+    }
+    double disc = b * b - 4 * a * c;
+    if (disc >= 0) {
+      double root = Math.sqrt(disc);
+      // Avoids cancellation in -b +/- root when b is large compared to 4ac
+      double q = -.5 * (b + (b < 0 ? -root : root));
+      addCubicAt(box, axis, p0, c1, c2, p3, q / a);
+      if (q != 0) {
+        addCubicAt(box, axis, p0, c1, c2, p3, c / q);
+      }
+    }
+  }
+
+  // Expand box to include the point at t on a cubic curve along one axis, if t is between 0 and 1
+  private static void addCubicAt (double[] box, int axis, double p0, double c1, double c2, double p3, double t) {
+    if (t > 0 && t < 1) {
+      double u = 1 - t;
+      addPoint(box, axis, u * u * u * p0 + 3 * u * u * t * c1 + 3 * u * t * t * c2 + t * t * t * p3);
     }
-    return bounds;
   }
 
   static class BetterBoundingTest extends JFrame {
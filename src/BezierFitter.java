@@ -0,0 +1,394 @@
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * BezierFitter: Fits a minimal set of cubic Bezier curves to a dense polyline, such as the outline traced
+ * from a raster image, or a curve that was flattened into line segments before import, so that no point
+ * of the polyline is further than a given tolerance from the fitted path.  Sharp corners are detected
+ * first and kept as breaks between curves, then each run between corners is fitted by least squares and
+ * split at the point of maximum error until the fit is within tolerance.  Nearly straight curves are
+ * emitted as lines.
+ *
+ * Ref: Philip J. Schneider, "An Algorithm for Automatically Fitting Digitized Curves", Graphics Gems, 1990
+ */
+
+public class BezierFitter {
+  private static final int      MAX_ITERATIONS = 4;
+  private static final double   CORNER_ANGLE = Math.toRadians(55);
+
+  /**
+   * Fit cubic Bezier curves to a polyline and append them to a path
+   * @param xy interleaved x, y coordinates of the polyline's points
+   * @param count number of points in xy
+   * @param closed true if polyline is a closed contour (last point connects back to first)
+   * @param tolerance maximum allowed distance of any point from the fitted curves
+   * @param span distance over which the direction of the polyline is measured when looking for corners
+   *             (use about the size of the noise in the points, such as a pixel for traced outlines)
+   * @param path Path2D.Double to which the fitted contour is appended (starting with a moveTo())
+   */
+  static void fitPolyline (double[] xy, int count, boolean closed, double tolerance, double span, Path2D.Double path) {
+    // Copy points, removing duplicates (which would give zero length tangents)
+    double[] px = new double[count + 1];
+    double[] py = new double[count + 1];
+    int nn = 0;
+    for (int ii = 0; ii < count; ii++) {
+      double x = xy[ii * 2];
+      double y = xy[ii * 2 + 1];
+      if (nn == 0 || x != px[nn - 1] || y != py[nn - 1]) {
+        px[nn] = x;
+        py[nn] = y;
+        nn++;
+      }
+    }
+    if (closed && nn > 1 && px[0] == px[nn - 1] && py[0] == py[nn - 1]) {
+      nn--;
+    }
+    if (nn < 2) {
+      return;
+    }
+    closed &= nn > 2;
+    boolean[] corner = findCorners(px, py, nn, closed, span);
+    double tol2 = tolerance * tolerance;
+    if (closed) {
+      int first = -1;
+      for (int ii = 0; ii < nn && first < 0; ii++) {
+        first = corner[ii] ? ii : -1;
+      }
+      path.moveTo(px[Math.max(first, 0)], py[Math.max(first, 0)]);
+      if (first < 0) {
+        // Smooth closed contour, so fit it as one run from point 0 back to point 0 with a shared tangent
+        double[] qx = new double[nn + 1];
+        double[] qy = new double[nn + 1];
+        System.arraycopy(px, 0, qx, 0, nn);
+        System.arraycopy(py, 0, qy, 0, nn);
+        qx[nn] = px[0];
+        qy[nn] = py[0];
+        double[] tan = normalize(px[1] - px[nn - 1], py[1] - py[nn - 1]);
+        fitCubic(qx, qy, 0, nn, tan[0], tan[1], -tan[0], -tan[1], tolerance, tol2, path);
+      } else {
+        // Fit each run between corners, starting and ending at the first corner
+        int start = first;
+        do {
+          int end = (start + 1) % nn;
+          while (!corner[end]) {
+            end = (end + 1) % nn;
+          }
+          int len = (end - start + nn - 1) % nn + 2;
+          double[] qx = new double[len];
+          double[] qy = new double[len];
+          for (int ii = 0; ii < len; ii++) {
+            qx[ii] = px[(start + ii) % nn];
+            qy[ii] = py[(start + ii) % nn];
+          }
+          fitRun(qx, qy, len, span, tolerance, tol2, path);
+          start = end;
+        } while (start != first);
+      }
+      path.closePath();
+    } else {
+      path.moveTo(px[0], py[0]);
+      int start = 0;
+      for (int end = 1; end < nn; end++) {
+        if (corner[end] || end == nn - 1) {
+          int len = end - start + 1;
+          double[] qx = new double[len];
+          double[] qy = new double[len];
+          System.arraycopy(px, start, qx, 0, len);
+          System.arraycopy(py, start, qy, 0, len);
+          fitRun(qx, qy, len, span, tolerance, tol2, path);
+          start = end;
+        }
+      }
+    }
+  }
+
+  /**
+   * Copy a Shape, replacing each subpath made only of line segments (such as a curve flattened by a DXF, or
+   * Gerber import, or a generated CNC path) with fitted Bezier curves.  Subpaths that already contain curves,
+   * or have fewer than minPoints points, are copied unchanged.
+   * @param shape Shape to refit
+   * @param tolerance maximum allowed distance of any point from the fitted curves
+   * @param span distance over which direction is measured when looking for corners (see fitPolyline())
+   * @param minPoints minimum number of points in a subpath for it to be refitted
+   * @return refitted Shape
+   */
+  static Path2D.Double refitPolylines (Shape shape, double tolerance, double span, int minPoints) {
+    Path2D.Double path = new Path2D.Double(shape instanceof Path2D ? ((Path2D) shape).getWindingRule() : Path2D.WIND_NON_ZERO);
+    Path2D.Double sub = new Path2D.Double();        // Unchanged copy of current subpath
+    double[] xy = new double[64];
+    int count = 0;
+    boolean onlyLines = true;
+    double[] coords = new double[6];
+    for (PathIterator pi = shape.getPathIterator(null); !pi.isDone(); pi.next()) {
+      int type = pi.currentSegment(coords);
+      if (type == PathIterator.SEG_MOVETO) {
+        refitSubpath(path, sub, xy, count, false, onlyLines, tolerance, span, minPoints);
+        sub.reset();
+        count = 0;
+        onlyLines = true;
+      }
+      switch (type) {
+        case PathIterator.SEG_MOVETO:
+          sub.moveTo(coords[0], coords[1]);
+          break;
+        case PathIterator.SEG_LINETO:
+          sub.lineTo(coords[0], coords[1]);
+          break;
+        case PathIterator.SEG_QUADTO:
+          sub.quadTo(coords[0], coords[1], coords[2], coords[3]);
+          onlyLines = false;
+          break;
+        case PathIterator.SEG_CUBICTO:
+          sub.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+          onlyLines = false;
+          break;
+        case PathIterator.SEG_CLOSE:
+          sub.closePath();
+          refitSubpath(path, sub, xy, count, true, onlyLines, tolerance, span, minPoints);
+          sub.reset();
+          count = 0;
+          onlyLines = true;
+          continue;
+      }
+      if (count * 2 + 2 > xy.length) {
+        xy = Arrays.copyOf(xy, xy.length * 2);
+      }
+      xy[count * 2] = coords[0];
+      xy[count * 2 + 1] = coords[1];
+      count++;
+    }
+    refitSubpath(path, sub, xy, count, false, onlyLines, tolerance, span, minPoints);
+    return path;
+  }
+
+  private static void refitSubpath (Path2D.Double path, Path2D.Double sub, double[] xy, int count, boolean closed,
+                                    boolean onlyLines, double tolerance, double span, int minPoints) {
+    if (count == 0) {
+      return;
+    }
+    if (onlyLines && count >= minPoints) {
+      // An open polyline that ends where it starts is also treated as closed
+      closed |= xy[0] == xy[count * 2 - 2] && xy[1] == xy[count * 2 - 1];
+      fitPolyline(xy, count, closed, tolerance, span, path);
+    } else {
+      path.append(sub, false);
+    }
+  }
+
+  /**
+   * Mark points where the polyline's direction changes sharply.  Direction is measured using the first
+   * points at least span away on either side, and only the sharpest point in a cluster is marked.
+   */
+  private static boolean[] findCorners (double[] px, double[] py, int nn, boolean closed, double span) {
+    double[] angle = new double[nn];
+    double span2 = span * span;
+    for (int ii = 0; ii < nn; ii++) {
+      if (!closed && (ii == 0 || ii == nn - 1)) {
+        continue;
+      }
+      int jj = ii, kk = ii;
+      for (int step = 0; step < nn / 2; step++) {
+        jj = closed ? (jj + nn - 1) % nn : Math.max(jj - 1, 0);
+        if (jj == 0 || dist2(px, py, ii, jj) >= span2) {
+          break;
+        }
+      }
+      for (int step = 0; step < nn / 2; step++) {
+        kk = closed ? (kk + 1) % nn : Math.min(kk + 1, nn - 1);
+        if (kk == nn - 1 || dist2(px, py, ii, kk) >= span2) {
+          break;
+        }
+      }
+      double[] t1 = normalize(px[ii] - px[jj], py[ii] - py[jj]);
+      double[] t2 = normalize(px[kk] - px[ii], py[kk] - py[ii]);
+      angle[ii] = Math.acos(Math.max(-1, Math.min(1, t1[0] * t2[0] + t1[1] * t2[1])));
+    }
+    boolean[] corner = new boolean[nn];
+    for (int ii = 0; ii < nn; ii++) {
+      if (angle[ii] > CORNER_ANGLE) {
+        // Only keep the sharpest point within span on either side (ties go to the earlier point)
+        boolean max = true;
+        for (int dir = -1; dir <= 1 && max; dir += 2) {
+          for (int jj = ii + dir, step = 0; step < nn / 2 && max; jj += dir, step++) {
+            int kk = closed ? (jj + nn) % nn : jj;
+            if (kk < 0 || kk >= nn || dist2(px, py, ii, kk) > span2) {
+              break;
+            }
+            max = dir < 0 ? angle[kk] < angle[ii] : angle[kk] <= angle[ii];
+          }
+        }
+        corner[ii] = max;
+      }
+    }
+    if (!closed) {
+      corner[0] = corner[nn - 1] = true;
+    }
+    return corner;
+  }
+
+  // Fit a run of points between two corners using end tangents measured over span
+  private static void fitRun (double[] qx, double[] qy, int len, double span, double tolerance, double tol2, Path2D.Double path) {
+    double span2 = span * span;
+    int kk = 1;
+    while (kk < len - 1 && dist2(qx, qy, 0, kk) < span2) {
+      kk++;
+    }
+    double[] t1 = normalize(qx[kk] - qx[0], qy[kk] - qy[0]);
+    kk = len - 2;
+    while (kk > 0 && dist2(qx, qy, len - 1, kk) < span2) {
+      kk--;
+    }
+    double[] t2 = normalize(qx[kk] - qx[len - 1], qy[kk] - qy[len - 1]);
+    fitCubic(qx, qy, 0, len - 1, t1[0], t1[1], t2[0], t2[1], tolerance, tol2, path);
+  }
+
+  /**
+   * Recursively fit cubic curves to points first through last.  Note: tangent (t1x, t1y) points forward from
+   * the first point and tangent (t2x, t2y) points backward from the last point.
+   */
+  private static void fitCubic (double[] px, double[] py, int first, int last, double t1x, double t1y, double t2x, double t2y,
+                                double tolerance, double tol2, Path2D.Double path) {
+    if (last - first == 1) {
+      path.lineTo(px[last], py[last]);
+      return;
+    }
+    double[] uu = chordLengthParameterize(px, py, first, last);
+    double[] bez = generateBezier(px, py, first, last, uu, t1x, t1y, t2x, t2y);
+    int[] split = new int[1];
+    double maxError = computeMaxError(px, py, first, last, bez, uu, split);
+    if (maxError < tol2) {
+      emit(bez, tolerance, path);
+      return;
+    }
+    if (maxError < tol2 * 4) {
+      // Close, so try improving the parameterization before splitting
+      for (int ii = 0; ii < MAX_ITERATIONS; ii++) {
+        uu = reparameterize(px, py, first, last, uu, bez);
+        bez = generateBezier(px, py, first, last, uu, t1x, t1y, t2x, t2y);
+        maxError = computeMaxError(px, py, first, last, bez, uu, split);
+        if (maxError < tol2) {
+          emit(bez, tolerance, path);
+          return;
+        }
+      }
+    }
+    // Split at point of maximum error and fit each side
+    int center = split[0];
+    double[] tc = normalize(px[center - 1] - px[center + 1], py[center - 1] - py[center + 1]);
+    if (tc[0] == 0 && tc[1] == 0) {
+      tc = normalize(px[center - 1] - px[center], py[center - 1] - py[center]);
+    }
+    fitCubic(px, py, first, center, t1x, t1y, tc[0], tc[1], tolerance, tol2, path);
+    fitCubic(px, py, center, last, -tc[0], -tc[1], t2x, t2y, tolerance, tol2, path);
+  }
+
+  // Append the curve, or a line if the control points are within tolerance of the chord
+  private static void emit (double[] bez, double tolerance, Path2D.Double path) {
+    double dx = bez[6] - bez[0];
+    double dy = bez[7] - bez[1];
+    double len = Math.sqrt(dx * dx + dy * dy);
+    if (len > 0) {
+      double d1 = Math.abs((bez[2] - bez[0]) * dy - (bez[3] - bez[1]) * dx) / len;
+      double d2 = Math.abs((bez[4] - bez[0]) * dy - (bez[5] - bez[1]) * dx) / len;
+      double s1 = ((bez[2] - bez[0]) * dx + (bez[3] - bez[1]) * dy) / (len * len);
+      double s2 = ((bez[4] - bez[0]) * dx + (bez[5] - bez[1]) * dy) / (len * len);
+      if (d1 <= tolerance && d2 <= tolerance && s1 >= 0 && s1 <= 1 && s2 >= 0 && s2 <= 1) {
+        path.lineTo(bez[6], bez[7]);
+        return;
+      }
+    }
+    path.curveTo(bez[2], bez[3], bez[4], bez[5], bez[6], bez[7]);
+  }
+
+  // Least squares fit of the control point distances along the end tangents
+  private static double[] generateBezier (double[] px, double[] py, int first, int last, double[] uu,
+                                          double t1x, double t1y, double t2x, double t2y) {
+    double c00 = 0, c01 = 0, c11 = 0, x0 = 0, x1 = 0;
+    double p0x = px[first], p0y = py[first], p3x = px[last], p3y = py[last];
+    for (int ii = 0; ii < uu.length; ii++) {
+      double u = uu[ii], mu = 1 - u;
+      double b0 = mu * mu * mu, b1 = 3 * u * mu * mu, b2 = 3 * u * u * mu, b3 = u * u * u;
+      double a0x = t1x * b1, a0y = t1y * b1;
+      double a1x = t2x * b2, a1y = t2y * b2;
+      c00 += a0x * a0x + a0y * a0y;
+      c01 += a0x * a1x + a0y * a1y;
+      c11 += a1x * a1x + a1y * a1y;
+      double tx = px[first + ii] - (p0x * (b0 + b1) + p3x * (b2 + b3));
+      double ty = py[first + ii] - (p0y * (b0 + b1) + p3y * (b2 + b3));
+      x0 += a0x * tx + a0y * ty;
+      x1 += a1x * tx + a1y * ty;
+    }
+    double det = c00 * c11 - c01 * c01;
+    double alpha1 = det == 0 ? 0 : (x0 * c11 - x1 * c01) / det;
+    double alpha2 = det == 0 ? 0 : (c00 * x1 - c01 * x0) / det;
+    double segLen = Math.sqrt((p3x - p0x) * (p3x - p0x) + (p3y - p0y) * (p3y - p0y));
+    double epsilon = 1.0e-6 * segLen;
+    if (alpha1 < epsilon || alpha2 < epsilon) {
+      // Fall back on a heuristic that places control points at a third of the chord length
+      alpha1 = alpha2 = segLen / 3;
+    }
+    return new double[] {p0x, p0y, p0x + t1x * alpha1, p0y + t1y * alpha1, p3x + t2x * alpha2, p3y + t2y * alpha2, p3x, p3y};
+  }
+
+  private static double[] chordLengthParameterize (double[] px, double[] py, int first, int last) {
+    double[] uu = new double[last - first + 1];
+    for (int ii = first + 1; ii <= last; ii++) {
+      uu[ii - first] = uu[ii - first - 1] + Math.sqrt(dist2(px, py, ii, ii - 1));
+    }
+    double total = uu[uu.length - 1];
+    for (int ii = 1; ii < uu.length; ii++) {
+      uu[ii] /= total;
+    }
+    return uu;
+  }
+
+  // Use one Newton-Raphson step per point to find a better parameter value for each point
+  private static double[] reparameterize (double[] px, double[] py, int first, int last, double[] uu, double[] bez) {
+    double[] up = new double[uu.length];
+    for (int ii = 0; ii < uu.length; ii++) {
+      double u = uu[ii], mu = 1 - u;
+      double qx = mu * mu * mu * bez[0] + 3 * u * mu * mu * bez[2] + 3 * u * u * mu * bez[4] + u * u * u * bez[6];
+      double qy = mu * mu * mu * bez[1] + 3 * u * mu * mu * bez[3] + 3 * u * u * mu * bez[5] + u * u * u * bez[7];
+      double q1x = 3 * (mu * mu * (bez[2] - bez[0]) + 2 * u * mu * (bez[4] - bez[2]) + u * u * (bez[6] - bez[4]));
+      double q1y = 3 * (mu * mu * (bez[3] - bez[1]) + 2 * u * mu * (bez[5] - bez[3]) + u * u * (bez[7] - bez[5]));
+      double q2x = 6 * (mu * (bez[4] - 2 * bez[2] + bez[0]) + u * (bez[6] - 2 * bez[4] + bez[2]));
+      double q2y = 6 * (mu * (bez[5] - 2 * bez[3] + bez[1]) + u * (bez[7] - 2 * bez[5] + bez[3]));
+      double dx = qx - px[first + ii];
+      double dy = qy - py[first + ii];
+      double num = dx * q1x + dy * q1y;
+      double den = q1x * q1x + q1y * q1y + dx * q2x + dy * q2y;
+      up[ii] = den == 0 ? u : Math.max(0, Math.min(1, u - num / den));
+    }
+    return up;
+  }
+
+  // Return the squared distance of the worst fitting point, and its index in split[0]
+  private static double computeMaxError (double[] px, double[] py, int first, int last, double[] bez, double[] uu, int[] split) {
+    double maxDist = 0;
+    split[0] = (first + last) / 2;
+    for (int ii = first + 1; ii < last; ii++) {
+      double u = uu[ii - first], mu = 1 - u;
+      double qx = mu * mu * mu * bez[0] + 3 * u * mu * mu * bez[2] + 3 * u * u * mu * bez[4] + u * u * u * bez[6];
+      double qy = mu * mu * mu * bez[1] + 3 * u * mu * mu * bez[3] + 3 * u * u * mu * bez[5] + u * u * u * bez[7];
+      double dist = (qx - px[ii]) * (qx - px[ii]) + (qy - py[ii]) * (qy - py[ii]);
+      if (dist >= maxDist) {
+        maxDist = dist;
+        split[0] = ii;
+      }
+    }
+    return maxDist;
+  }
+
+  private static double dist2 (double[] px, double[] py, int ii, int jj) {
+    double dx = px[ii] - px[jj];
+    double dy = py[ii] - py[jj];
+    return dx * dx + dy * dy;
+  }
+
+  private static double[] normalize (double dx, double dy) {
+    double len = Math.sqrt(dx * dx + dy * dy);
+    return len > 0 ? new double[] {dx / len, dy / len} : new double[] {0, 0};
+  }
+}
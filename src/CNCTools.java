@@ -1,180 +1,194 @@
+import java.awt.Shape;
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Collections;
 
-class CNCTools {
+/**
+ * CNCTools: Computes the toolpath for a CNC tool of a given radius that cuts along the outside, or inside of
+ * a shape's outline.  Each contour is offset by the radius edge by edge, with joins added around corners, then
+ * the loops and overlaps this creates at sharp, or concave corners and where offsets of nearby contours run into
+ * each other are removed by filling the result with PolygonClipper's WIND_POSITIVE rule.  As the shape is first
+ * normalized so each contour has its inside on the left, holes and islands are offset the right way.
+ */
 
-  static class PLine {
-    private static double   LARGE = 1.0e12;   // Avoid divide by zero...
-    private double  slope, intercept;
+class CNCTools {
+  static final String[]       JOINS = {"round", "miter", "square"};
+  private static final double MITER_LIMIT = 2;            // Max distance of miter point from corner, in radii
+  private static final double STRAIGHT = .99999;          // Cosine of angle between edges considered straight
+  private static final int    MAX_RUN = 64;               // Max points replaced by a line in reduce()
 
-    /**
-     * PLine class represents a line of infinite length.  This constructor creates a line that passes
-     * through <point) and is parallel to <line>
-     * @param line parallel reference line
-     * @param point point that PLine passes through
-     */
-    private PLine (Line2D.Double line, Point2D.Double point) {
-      double dx = line.x2 - line.x1;
-      slope = dx == 0 ? LARGE : (line.y2 - line.y1) / dx;
-      intercept = point.y - slope * point.x;
+  /**
+   * Compute the outline of a shape offset outward, or inward by a distance, such as the path the center of a
+   * round tool follows when it cuts along the outside, or inside of the shape.
+   * @param shape Shape to offset (in inches)
+   * @param dist offset distance (radius of CNC tool), or negative to offset inward
+   * @param join how corners are offset, "round", "miter" or "square" (null is "round")
+   * @param flatten max distance between curves in shape and the line segments used to offset them
+   * @return Path2D.Double with the offset outline
+   */
+  static Path2D.Double getOffsetShape (Shape shape, double dist, String join, double flatten) {
+    Path2D.Double base = PolygonClipper.union(Collections.singletonList(shape));
+    if (dist == 0) {
+      return base;
     }
-
-    /**
-     * PLine class represents a line of infinite length.  This constructor creates a line that passes through
-     * point dst and, if perpendicular is true, rotates the line 90 degrees so that is perpendicular to the line
-     * that passes from point src to point dst, else like passes through both points
-     * @param src point from here to dst establishes the perpendicular
-     * @param dst point that PLine passes through
-     */
-    private PLine (Point2D.Double src, Point2D.Double dst, boolean perpendicular) {
-      double dx = dst.x - src.x;
-      slope = dx == 0 ? LARGE : (dst.y - src.y) / dx;
-      if (perpendicular) {
-        slope = -1 / (slope == 0 ? LARGE : slope);
+    int type = join != null ? Math.max(0, Arrays.asList(JOINS).indexOf(join)) : 0;
+    PolylineSet lines = PolylineSet.fromShape(base, 1.0, flatten);
+    Path2D.Double path = new Path2D.Double();
+    double[] xs = new double[16], ys = new double[16];
+    for (int pp = 0; pp < lines.size(); pp++) {
+      int start = lines.getStart(pp), end = lines.getEnd(pp);
+      if (xs.length < end - start) {
+        xs = new double[end - start];
+        ys = new double[end - start];
       }
-      intercept = dst.y - slope * dst.x;
-    }
-
-    /**
-     * PLine class represents a line of infinite length.  This constructor creates a line that passes through line
-     * @param line line specifing ininite line
-     */
-    private PLine (Line2D.Double line) {
-      this(new Point2D.Double(line.x1, line.y1), new Point2D.Double(line.x2, line.y2), false);
-    }
-
-    Point2D.Double intersects (PLine l2) {
-      if (slope == l2.slope) {
-        return null;
+      // Copy points, dropping repeats and the point that closes the polyline
+      int count = 0;
+      for (int ii = start; ii < end; ii++) {
+        double x = lines.getX(ii), y = lines.getY(ii);
+        if (count == 0 || x != xs[count - 1] || y != ys[count - 1]) {
+          xs[count] = x;
+          ys[count++] = y;
+        }
+      }
+      while (count > 1 && xs[count - 1] == xs[0] && ys[count - 1] == ys[0]) {
+        count--;
+      }
+      count = reduce(xs, ys, count, flatten);
+      if (count < 3 || isCollapsed(xs, ys, count, dist)) {
+        continue;
       }
-      double div = slope - l2.slope;
-      double x = div == 0 ? LARGE : (l2.intercept - intercept) / div;
-      return new Point2D.Double(x, slope * x + intercept);
+      // Length and unit normal of each edge, which points out of the shape as the inside is on the left
+      double[] nx = new double[count], ny = new double[count], lens = new double[count];
+      for (int ii = 0; ii < count; ii++) {
+        int jj = (ii + 1) % count;
+        double dx = xs[jj] - xs[ii], dy = ys[jj] - ys[ii];
+        double len = lens[ii] = Math.sqrt(dx * dx + dy * dy);
+        nx[ii] = dy / len;
+        ny[ii] = -dx / len;
+      }
+      for (int ii = 0; ii < count; ii++) {
+        int prev = (ii + count - 1) % count;
+        double minLen = Math.min(lens[prev], lens[ii]);
+        addCorner(path, xs[ii], ys[ii], nx[prev], ny[prev], nx[ii], ny[ii], minLen, dist, type, ii == 0);
+      }
+      path.closePath();
     }
+    return PolygonClipper.simplify(path, PolygonClipper.WIND_POSITIVE);
   }
 
-  /**
-   * Takes an array of lines that forms a closed cadShape and computes a parallel path around either the
-   * interior, or exterior of the cadShape depending on the setting of the parameter outside.
-   * @param lines array of lines for a cadShape for which this code will compute a parallel path
-   * @param radius offset distance for parallel path (radius of CNC tool)
-   * @param outside true if parallel path should be around the outside of the cadShape, else inside
-   * @return array of points for the parallel path
+  /*
+   * Add the offset of the corner at x, y between an edge with normal n1 and the next edge with normal n2, where
+   * minLen is the length of the shorter edge.  Where the offset edges overlap, use the point where they cross if
+   * it's within both of them, else connect them through the corner so PolygonClipper removes the overlap.  Where
+   * they don't, bridge the gap between them with a join.
    */
-  static Point2D.Double[] getParallelPath (Line2D.Double[] lines, double radius, boolean outside) {
-    // Prune any between points that are parallel (on the line from prior point to next point)
-    List<Point2D.Double> tmp = new ArrayList<>();
-    for (int ii = 0; ii < lines.length; ii++) {
-      Point2D.Double p1 = (Point2D.Double) lines[ii].getP1();
-      Point2D.Double p2 = (Point2D.Double) lines[(ii + 1) % lines.length].getP1();
-      Point2D.Double p3 = (Point2D.Double) lines[(ii + 2) % lines.length].getP1();
-      PLine l1 = new PLine(p1, p2, false);
-      PLine l2 = new PLine(p2, p3, false);
-      if (l1.slope != l2.slope) {
-        tmp.add(p2);
-      }
-    }
-    Point2D.Double[] points = tmp.toArray(new Point2D.Double[0]);
-    PLine[] pLines = new PLine[points.length];
-    boolean clockwise = isClockwise(points);
-    for (int ii = 0; ii < points.length; ii++) {
-      int jj = (ii + 1) % points.length;
-      double d = points[ii].distance(points[jj]);
-      double t = radius / d;
-      // Compute point "ext" that extends "radius" distance from point cadShape[n] toward point cadShape[n+1]
-      Point2D.Double ext = new Point2D.Double((1 - t) * points[ii].x + t * points[jj].x, (1 - t) * points[ii].y + t * points[jj].y);
-      // Compute the normal to point cadShape[n] by rotating point "ext" +/- 90 degrees around point cadShape[n]
-      Point2D.Double normal;
-      if (clockwise ^ outside) {
-        // Rotate point ext -90 degrees (clockwise) around point cadShape[ii]
-        normal = new Point2D.Double(-(ext.y - points[ii].y) + points[ii].x, (ext.x - points[ii].x) + points[ii].y);
-      } else {
-        // Rotate point ext 90 degrees (counter clockwise) around point cadShape[ii]
-        normal = new Point2D.Double((ext.y - points[ii].y) + points[ii].x, -(ext.x - points[ii].x) + points[ii].y);
-      }
-      pLines[ii] = new PLine(new Line2D.Double(points[ii], points[jj]), normal);
-    }
-    // Check for shortcut paths and compute path intersections
-    List<Point2D.Double> oPoints = new ArrayList<>();
-    for (int ii = 0; ii < points.length; ii++) {
-      int jj = (ii + 1) % points.length;
-      Point2D.Double np1 = pLines[ii].intersects(pLines[(ii + 1) % points.length]);
-      Point2D.Double np2 = pLines[(ii + 1) % points.length].intersects(pLines[(ii + 2) % points.length]);
-      Point2D.Double ref = points[jj];
-      // Compute point "tip" that extends "radius" distance from cadShape's point to the intersection
-      double d = ref.distance(np1);
-      double t = radius / d;
-      Point2D.Double tip = new Point2D.Double((1 - t) * ref.x + t * np1.x, (1 - t) * ref.y + t * np1.y);
-      // Compute line through tip that's perpendicular to the line from cadShape's point to the intersection
-      PLine perp = new PLine(ref, tip, true);
-      // Compute intersection with perpendicular and pLines[ii] and pLines[jj]
-      Point2D.Double p1 = pLines[ii].intersects(perp);
-      Point2D.Double p2 = pLines[jj].intersects(perp);
-      double dist = np1.distance(p2) + p2.distance(np2) - np1.distance(np2);
-      if (dist < .0001) {
-        oPoints.add(p1);
-        oPoints.add(p2);
+  private static void addCorner (Path2D.Double path, double x, double y, double n1x, double n1y, double n2x,
+                                 double n2y, double minLen, double dist, int join, boolean first) {
+    double sin = n1x * n2y - n1y * n2x, cos = n1x * n2x + n1y * n2y;
+    double ax = x + n1x * dist, ay = y + n1y * dist;
+    double bx = x + n2x * dist, by = y + n2y * dist;
+    if (cos > STRAIGHT || sin * dist < 0 && Math.abs(dist * sin) * 2 <= minLen * (1 + cos)) {
+      // Nearly straight, or the offset edges cross less than half way along each edge, so use where they cross
+      double scale = dist / (1 + cos);
+      addPoint(path, x + (n1x + n2x) * scale, y + (n1y + n2y) * scale, first);
+    } else if (sin * dist < 0) {
+      addPoint(path, ax, ay, first);
+      path.lineTo(x, y);
+      path.lineTo(bx, by);
+    } else if (join == 0) {
+      addPoint(path, ax, ay, first);
+      addArc(path, x, y, n1x * dist, n1y * dist, sin == 0 ? Math.PI * Math.signum(dist) : Math.atan2(sin, cos));
+    } else if (join == 1 && 1 + cos >= 2 / (MITER_LIMIT * MITER_LIMIT)) {
+      double scale = dist / (1 + cos);
+      addPoint(path, x + (n1x + n2x) * scale, y + (n1y + n2y) * scale, first);
+    } else {
+      // Square off the corner with a line one radius from it that's square to the line that bisects the corner
+      double rad = Math.abs(dist), sign = Math.signum(dist);
+      double m1x = n1x * sign, m1y = n1y * sign, m2x = n2x * sign, m2y = n2y * sign;
+      double ux = m1x + m2x, uy = m1y + m2y;
+      double len = Math.sqrt(ux * ux + uy * uy);
+      if (len < 1e-9) {
+        // Edges double back on each other, so square off the end of the first one
+        ux = -n1y;
+        uy = n1x;
       } else {
-        oPoints.add(np1);
+        ux /= len;
+        uy /= len;
       }
+      // Edges run along -n1y, n1x and -n2y, n2x
+      double s1 = rad * (1 - (m1x * ux + m1y * uy)) / (-n1y * ux + n1x * uy);
+      double s2 = rad * ((m2x * ux + m2y * uy) - 1) / (-n2y * ux + n2x * uy);
+      addPoint(path, ax - n1y * s1, ay + n1x * s1, first);
+      path.lineTo(bx + n2y * s2, by - n2x * s2);
     }
-    return oPoints.toArray(new Point2D.Double[0]);
   }
 
-  /**
-   * Prunes sections of a closed path that cross back over themselves by scanning for overlapping line segments
-   * Note: extremely inefficient algorithm (approx n^2 / 2 where n is numebr of input points), but it works
-   * Todo: https://www.geeksforgeeks.org/given-a-set-of-line-segments-find-if-any-two-segments-intersect/
-   * @param points set of input points to prune
-   * @return pruned array of points
+  /*
+   * Drop points from a closed polyline that are within tol of the line between the points kept on either side of
+   * them.  Densely sampled outlines, such as imported polylines, otherwise put so many short edges in tight inside
+   * corners that their offsets cross each other thousands of times.
+   * @return number of points kept at the start of xs, ys
    */
-  static Point2D.Double[] pruneOverlap (Point2D.Double[] points) {
-    List<Point2D.Double> oPoints = new ArrayList<>();
-    int exclude = 0;
-    loop1:
-    for (int ii = 0; ii < points.length - 1; ii++) {
-      Line2D.Double l1 = new Line2D.Double(points[ii], points[(ii + 1) % points.length]);
-      for (int jj = ii + 1; jj < points.length; jj++) {
-        Line2D.Double l2 = new Line2D.Double(points[jj], points[(jj + 1) % points.length]);
-        if (l1.intersectsLine(l2) && !l1.getP2().equals(l2.getP1()) && !l1.getP1().equals(l2.getP2())) {
-          Point2D.Double xx = getIntersection(l1, l2);
-          oPoints.add(xx);
-          ii = jj - 1;
-          exclude = jj + 1;
-          continue loop1;
-        }
+  private static int reduce (double[] xs, double[] ys, int count, double tol) {
+    double tolSq = tol * tol;
+    int kept = 1, anchor = 0;
+    for (int end = 2; end <= count; end++) {
+      // Point end (point 0 when end == count) ends a line that must pass within tol of the points it replaces
+      double ex = xs[end % count], ey = ys[end % count];
+      boolean fits = end - anchor <= MAX_RUN;
+      for (int ii = anchor + 1; ii < end && fits; ii++) {
+        fits = Line2D.ptSegDistSq(xs[anchor], ys[anchor], ex, ey, xs[ii], ys[ii]) <= tolSq;
       }
-      if (ii >= exclude) {
-        oPoints.add(points[ii]);
+      if (!fits) {
+        anchor = end - 1;
+        xs[kept] = xs[anchor];
+        ys[kept++] = ys[anchor];
       }
     }
-    oPoints.add(points[points.length - 1]);
-    return oPoints.toArray(new Point2D.Double[0]);
+    return kept;
   }
 
   /*
-   * Computes intersection point for two lines
+   * Check if a contour shrinks away to nothing, which is when it's offset toward its inside (outlines with the
+   * inside on the left have positive area) by more than half its width, or height
    */
-  private static  Point2D.Double getIntersection (Line2D.Double l1, Line2D.Double l2) {
-    return (new PLine(l1)).intersects(new PLine(l2));
+  private static boolean isCollapsed (double[] xs, double[] ys, int count, double dist) {
+    double area = 0, minX = xs[0], minY = ys[0], maxX = xs[0], maxY = ys[0];
+    for (int ii = 0; ii < count; ii++) {
+      int jj = (ii + 1) % count;
+      area += xs[ii] * ys[jj] - xs[jj] * ys[ii];
+      minX = Math.min(minX, xs[ii]);
+      minY = Math.min(minY, ys[ii]);
+      maxX = Math.max(maxX, xs[ii]);
+      maxY = Math.max(maxY, ys[ii]);
+    }
+    return area * dist < 0 && Math.min(maxX - minX, maxY - minY) < 2 * Math.abs(dist);
   }
 
-  /**
-   * Scans a set of points forming a closed cadShape to detect if points are in clockwise, or counterclockwise order
-   * @param points a set of lines forming a closed cadShape
-   * @return true if cadShape is drawn in clockwise order, else false
+  private static void addPoint (Path2D.Double path, double x, double y, boolean first) {
+    if (first) {
+      path.moveTo(x, y);
+    } else {
+      path.lineTo(x, y);
+    }
+  }
+
+  /*
+   * Add a circular arc around cx, cy from the point at offset rx, ry through angle (negative to turn the other
+   * way) as cubic curves that each turn 90 degrees, or less
    */
-  private static boolean isClockwise (Point2D.Double[] points) {
-    double sum = 0;
-    for (int ii = 0; ii < points.length; ii++) {
-      double x1 = points[ii].x;
-      double y1 = points[ii].y;
-      double x2 = points[(ii + 1) % points.length].x;
-      double y2 = points[(ii + 1) % points.length].y;
-      sum += (x2 - x1) * (y2 + y1);
+  static void addArc (Path2D.Double path, double cx, double cy, double rx, double ry, double angle) {
+    int steps = (int) Math.ceil(Math.abs(angle) / (Math.PI / 2) - 1e-9);
+    double step = angle / steps;
+    double kk = 4.0 / 3.0 * Math.tan(step / 4);
+    double cos = Math.cos(step), sin = Math.sin(step);
+    for (int ii = 0; ii < steps; ii++) {
+      // Rotate rx, ry by step, with the tangents at each end (rx, ry turned 90 degrees) setting the control points
+      double qx = rx * cos - ry * sin, qy = rx * sin + ry * cos;
+      path.curveTo(cx + rx - ry * kk, cy + ry + rx * kk, cx + qx + qy * kk, cy + qy - qx * kk, cx + qx, cy + qy);
+      rx = qx;
+      ry = qy;
     }
-    return sum < 0;
   }
 }
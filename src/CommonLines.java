@@ -0,0 +1,409 @@
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+import java.util.List;
+
+/**
+ * CommonLines: Job compilation stage that removes straight segments, or parts of segments which run along a segment
+ * that's already been cut, such as the shared edges of parts packed edge to edge.  Each shared edge is then cut only
+ * once, which saves time and avoids burning the kerf twice.  Shapes are processed in cutting order, so the order
+ * chosen by PathPlanner (inner contours before outer) is preserved and only the later copy of an edge is dropped.
+ *
+ * The straight segments of all shapes are indexed in an RTree of their bounds (expanded by the tolerance), then the
+ * earlier segments that overlap each segment are projected onto it to find the parts that still need cutting.
+ * Curves are always cut as is, and CADRasterImage and CADShapeArray objects are passed through unchanged.
+ *
+ * Removing edges splits contours into open pieces, so the pieces of each run of consecutive split shapes are then
+ * joined into single cuts wherever they share end points, and the cuts are reordered with PathPlanner to reduce
+ * travel.  A run ends at a shape that wasn't split, or at one that encloses the shape before it, so holes are still
+ * cut before the parts around them.
+ */
+
+class CommonLines {
+
+  /**
+   * A straight segment of one of the shapes being cut
+   */
+  private static class Seg extends Rectangle2D.Double {
+    private static final long serialVersionUID = 4127613620938451873L;
+    final double  x1, y1, x2, y2;
+
+    Seg (double x1, double y1, double x2, double y2, double tolerance) {
+      super(Math.min(x1, x2) - tolerance, Math.min(y1, y2) - tolerance, Math.abs(x2 - x1) + tolerance * 2,
+            Math.abs(y2 - y1) + tolerance * 2);
+      this.x1 = x1;
+      this.y1 = y1;
+      this.x2 = x2;
+      this.y2 = y2;
+    }
+  }
+
+  /**
+   * Remove edges that overlap edges cut earlier in the list
+   * @param shapes List of CADShape objects in cutting order
+   * @param tolerance max distance between edges that are treated as the same edge (inches)
+   * @return List in the same order with shared edges removed from the later shapes
+   */
+  static List<LaserCut.CADShape> removeShared (List<LaserCut.CADShape> shapes, double tolerance) {
+    // Collect straight segments of all shapes in cutting order
+    List<Seg> segs = new ArrayList<>();
+    List<Shape> outlines = new ArrayList<>();
+    int[] firstSeg = new int[shapes.size() + 1];
+    double[] coords = new double[6];
+    for (int ii = 0; ii < shapes.size(); ii++) {
+      firstSeg[ii] = segs.size();
+      LaserCut.CADShape cadShape = shapes.get(ii);
+      if (cadShape instanceof LaserCut.CADRasterImage || cadShape instanceof LaserCut.CADShapeArray) {
+        outlines.add(null);
+        continue;
+      }
+      Shape outline = cadShape.getWorkspaceTranslatedShape();
+      outlines.add(outline);
+      double x = 0, y = 0, moveX = 0, moveY = 0;
+      for (PathIterator pi = outline.getPathIterator(null); !pi.isDone(); pi.next()) {
+        int type = pi.currentSegment(coords);
+        switch (type) {
+          case PathIterator.SEG_MOVETO:
+            x = moveX = coords[0];
+            y = moveY = coords[1];
+            break;
+          case PathIterator.SEG_LINETO:
+            segs.add(new Seg(x, y, x = coords[0], y = coords[1], tolerance));
+            break;
+          case PathIterator.SEG_CLOSE:
+            segs.add(new Seg(x, y, x = moveX, y = moveY, tolerance));
+            break;
+          case PathIterator.SEG_QUADTO:
+            x = coords[2];
+            y = coords[3];
+            break;
+          case PathIterator.SEG_CUBICTO:
+            x = coords[4];
+            y = coords[5];
+            break;
+        }
+      }
+    }
+    firstSeg[shapes.size()] = segs.size();
+    RTree tree = new RTree(segs);
+    // Rebuild each shape, dropping the parts of segments covered by earlier segments
+    List<LaserCut.CADShape> out = new ArrayList<>();
+    List<PathPlanner.PathTrie> split = new ArrayList<>();       // Pieces of the current run of split shapes
+    Rectangle2D lastBounds = null;
+    for (int ii = 0; ii < shapes.size(); ii++) {
+      LaserCut.CADShape cadShape = shapes.get(ii);
+      Shape outline = outlines.get(ii);
+      if (outline == null) {
+        addChained(out, split, tolerance);
+        out.add(cadShape);
+        continue;
+      }
+      Path2D.Double path = new Path2D.Double();
+      List<Path2D.Double> pieces = new ArrayList<>();     // Runs of the current contour that are still cut
+      Path2D.Double piece = null;
+      boolean changed = false, closed = false;
+      int segIdx = firstSeg[ii];
+      double x = 0, y = 0, moveX = 0, moveY = 0;
+      for (PathIterator pi = outline.getPathIterator(null); !pi.isDone(); pi.next()) {
+        int type = pi.currentSegment(coords);
+        if (type == PathIterator.SEG_MOVETO) {
+          addPieces(path, pieces, closed, moveX, moveY);
+          piece = null;
+          closed = false;
+          x = moveX = coords[0];
+          y = moveY = coords[1];
+        } else if (type == PathIterator.SEG_LINETO || type == PathIterator.SEG_CLOSE) {
+          Seg seg = segs.get(segIdx);
+          double[] keep = getUncovered(seg, segIdx++, segs, tree, tolerance);
+          changed |= keep.length != 2 || keep[0] != 0 || keep[1] != 1;
+          closed |= type == PathIterator.SEG_CLOSE;
+          double dx = seg.x2 - seg.x1, dy = seg.y2 - seg.y1;
+          if (piece == null && dx * dx + dy * dy <= tolerance * tolerance) {
+            keep = new double[0];                                 // Too short to start a piece with
+          }
+          for (int jj = 0; jj < keep.length; jj += 2) {
+            if (keep[jj] > 0 || piece == null) {
+              pieces.add(piece = new Path2D.Double());
+              piece.moveTo(seg.x1 + dx * keep[jj], seg.y1 + dy * keep[jj]);
+            }
+            piece.lineTo(seg.x1 + dx * keep[jj + 1], seg.y1 + dy * keep[jj + 1]);
+          }
+          if (keep.length == 0 || keep[keep.length - 1] < 1) {
+            piece = null;
+          }
+          x = seg.x2;
+          y = seg.y2;
+        } else {
+          // Curves are always kept
+          if (piece == null) {
+            pieces.add(piece = new Path2D.Double());
+            piece.moveTo(x, y);
+          }
+          if (type == PathIterator.SEG_QUADTO) {
+            piece.quadTo(coords[0], coords[1], x = coords[2], y = coords[3]);
+          } else {
+            piece.curveTo(coords[0], coords[1], coords[2], coords[3], x = coords[4], y = coords[5]);
+          }
+        }
+      }
+      addPieces(path, pieces, closed, moveX, moveY);
+      Rectangle2D bounds = outline.getBounds2D();
+      if (!changed) {
+        addChained(out, split, tolerance);
+        out.add(cadShape);
+      } else if (path.getCurrentPoint() != null) {
+        if (lastBounds != null && bounds.contains(lastBounds)) {
+          addChained(out, split, tolerance);                     // Shape encloses the one before it
+        }
+        LaserCut.CADShape source = cadShape instanceof PathPlanner.PlannedPath ? ((PathPlanner.PlannedPath) cadShape).source : cadShape;
+        for (PathPlanner.Contour contour : PathPlanner.Contour.getContours(path)) {
+          split.add(new PathPlanner.PathTrie(source, contour, true));
+        }
+      }
+      lastBounds = bounds;
+    }
+    addChained(out, split, tolerance);
+    return out;
+  }
+
+  /**
+   * Join the pieces of a run of split shapes into as few cuts as possible, then order the cuts to reduce travel,
+   * starting from where the last shape in out ends, and add them to out.  Pieces are joined by walking from piece
+   * to piece through the end points they share (within tolerance).  Walks start at end points shared by an odd
+   * number of pieces, as a cut can pass through the others, so each walk ends at another such point, and pieces
+   * left over form closed loops.
+   */
+  private static void addChained (List<LaserCut.CADShape> out, List<PathPlanner.PathTrie> pieces, double tolerance) {
+    if (pieces.isEmpty()) {
+      return;
+    }
+    // Index the ends of the open pieces by end point (matched within tolerance), where piece idx starts at end
+    // idx * 2 and ends at end idx * 2 + 1
+    List<PathPlanner.PathTrie> cuts = new ArrayList<>();
+    ShapeOptimizer.VertexHash points = new ShapeOptimizer.VertexHash(tolerance);
+    List<List<Integer>> ends = new ArrayList<>();
+    int[] endPoint = new int[pieces.size() * 2];
+    boolean[] used = new boolean[pieces.size()];
+    for (int ii = 0; ii < pieces.size(); ii++) {
+      PathPlanner.PathTrie piece = pieces.get(ii);
+      if (piece.contour.closed) {
+        cuts.add(piece);
+        used[ii] = true;
+      } else {
+        endPoint[ii * 2] = addEnd(ends, points, piece.start, ii * 2);
+        endPoint[ii * 2 + 1] = addEnd(ends, points, piece.end, ii * 2 + 1);
+      }
+    }
+    for (boolean odd : new boolean[] {true, false}) {
+      for (List<Integer> refs : ends) {
+        while (odd ? getUnused(refs, used) % 2 == 1 : getUnused(refs, used) > 0) {
+          Path2D.Double path = new Path2D.Double();
+          LaserCut.CADShape source = null;
+          Point2D.Double start = null;
+          List<Integer> at = refs;
+          for (int ref = getNext(at, used); ref >= 0; ref = getNext(at, used)) {
+            PathPlanner.PathTrie piece = pieces.get(ref / 2);
+            used[ref / 2] = true;
+            boolean reverse = (ref & 1) == 1;                     // Reached piece at its end, so cut it backward
+            path.append(piece.contour.getPath(0, reverse), source != null);
+            if (source == null) {
+              source = piece.cadShape;
+              start = reverse ? piece.end : piece.start;
+            }
+            at = ends.get(endPoint[ref ^ 1]);                       // Continue from the piece's other end
+          }
+          if (start.distance(path.getCurrentPoint()) <= tolerance) {
+            path.closePath();
+          }
+          cuts.add(new PathPlanner.PathTrie(source, PathPlanner.Contour.getContours(path).get(0), true));
+        }
+      }
+    }
+    int count = out.size();
+    PathPlanner.reorderGroups(count > 0 ? new PathPlanner.PathTrie(out.get(count - 1)).end : new Point2D.Double(0, 0),
+                              cuts);
+    for (PathPlanner.PathTrie cut : cuts) {
+      out.add(cut.getPlannedShape());
+    }
+    pieces.clear();
+  }
+
+  /**
+   * Add an end of a piece to the list of ends at its end point, which VertexHash matches to any prior end point
+   * within tolerance, even across the cells of its grid
+   * @return index of end point
+   */
+  private static int addEnd (List<List<Integer>> ends, ShapeOptimizer.VertexHash points, Point2D.Double pnt, int ref) {
+    int idx = points.getVertex(pnt.x, pnt.y);
+    if (idx == ends.size()) {
+      ends.add(new ArrayList<>());
+    }
+    ends.get(idx).add(ref);
+    return idx;
+  }
+
+  private static int getUnused (List<Integer> refs, boolean[] used) {
+    int count = 0;
+    for (int ref : refs) {
+      count += used[ref / 2] ? 0 : 1;
+    }
+    return count;
+  }
+
+  private static int getNext (List<Integer> refs, boolean[] used) {
+    for (int ref : refs) {
+      if (!used[ref / 2]) {
+        return ref;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Add the pieces of a contour to path.  If the contour is closed and was split, the last piece continues into the
+   * first, so they're joined to cut as one run.
+   */
+  private static void addPieces (Path2D.Double path, List<Path2D.Double> pieces, boolean closed, double moveX, double moveY) {
+    int count = pieces.size();
+    if (closed && count > 0) {
+      Point2D first = getStart(pieces.get(0));
+      Point2D last = pieces.get(count - 1).getCurrentPoint();
+      if (first.getX() == moveX && first.getY() == moveY && last.getX() == moveX && last.getY() == moveY) {
+        if (count > 1) {
+          pieces.get(count - 1).append(pieces.remove(0), true);
+        } else {
+          pieces.get(0).closePath();
+        }
+      }
+    }
+    for (Path2D.Double piece : pieces) {
+      path.append(piece, false);
+    }
+    pieces.clear();
+  }
+
+  private static Point2D getStart (Path2D.Double piece) {
+    double[] coords = new double[6];
+    piece.getPathIterator(null).currentSegment(coords);
+    return new Point2D.Double(coords[0], coords[1]);
+  }
+
+  /**
+   * Find the parts of a segment not covered by earlier segments that lie along it
+   * @param seg segment to check
+   * @param idx index of seg in cutting order
+   * @param segs all segments in cutting order
+   * @param tree RTree of segs
+   * @param tolerance max distance from seg for a segment to be treated as lying along it
+   * @return start, end pairs of the uncovered intervals as fractions of the segment's length
+   */
+  private static double[] getUncovered (Seg seg, int idx, List<Seg> segs, RTree tree, double tolerance) {
+    double dx = seg.x2 - seg.x1, dy = seg.y2 - seg.y1;
+    double len = Math.sqrt(dx * dx + dy * dy);
+    if (len <= tolerance) {
+      return new double[] {0, 1};
+    }
+    double ux = dx / len, uy = dy / len;
+    List<double[]> covered = new ArrayList<>();
+    for (int other : tree.search(seg, false)) {
+      if (other < idx) {
+        Seg prior = segs.get(other);
+        // Both ends of prior must lie within tolerance of the line through seg
+        double ax = prior.x1 - seg.x1, ay = prior.y1 - seg.y1;
+        double bx = prior.x2 - seg.x1, by = prior.y2 - seg.y1;
+        if (Math.abs(ax * uy - ay * ux) <= tolerance && Math.abs(bx * uy - by * ux) <= tolerance) {
+          double t1 = (ax * ux + ay * uy) / len, t2 = (bx * ux + by * uy) / len;
+          double lo = Math.max(0, Math.min(t1, t2)), hi = Math.min(1, Math.max(t1, t2));
+          if ((hi - lo) * len > tolerance) {
+            covered.add(new double[] {lo, hi});
+          }
+        }
+      }
+    }
+    if (covered.isEmpty()) {
+      return new double[] {0, 1};
+    }
+    covered.sort((a, b) -> java.lang.Double.compare(a[0], b[0]));
+    // Keep the gaps between covered intervals that are longer than tolerance
+    double minGap = tolerance / len;
+    double[] keep = new double[covered.size() * 2 + 2];
+    int count = 0;
+    double pos = 0;
+    for (double[] span : covered) {
+      if (span[0] - pos > minGap) {
+        keep[count++] = pos;
+        keep[count++] = span[0];
+      }
+      pos = Math.max(pos, span[1]);
+    }
+    if (1 - pos > minGap) {
+      keep[count++] = pos;
+      keep[count++] = 1;
+    }
+    return Arrays.copyOf(keep, count);
+  }
+
+  /**
+   * Benchmark: grid of square parts with box joint tabs, packed so the tabs of neighboring parts mesh, reporting
+   * cut length before and after common line removal
+   */
+  public static void main (String[] args) {
+    int cols = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+    List<LaserCut.CADShape> design = new ArrayList<>();
+    double size = 2.0, tab = .25, depth = .125;
+    int tabs = (int) Math.round(size / tab);
+    for (int ii = 0; ii < cols; ii++) {
+      for (int jj = 0; jj < cols; jj++) {
+        Path2D.Double path = new Path2D.Double();
+        double x0 = ii * size, y0 = jj * size;
+        path.moveTo(x0, y0);
+        for (int side = 0; side < 4; side++) {
+          for (int kk = 0; kk < tabs; kk++) {
+            double[] p1 = getTabPoint(side, kk * tab + tab * .001, x0, y0, size, tab, depth);
+            double[] p2 = getTabPoint(side, (kk + 1) * tab - tab * .001, x0, y0, size, tab, depth);
+            path.lineTo(p1[0], p1[1]);
+            path.lineTo(p2[0], p2[1]);
+          }
+        }
+        path.closePath();
+        design.add(new LaserCut.CADShape(path, 0, 0, 0, false));
+      }
+    }
+    List<LaserCut.CADShape> planned = PathPlanner.optimize(design);
+    long start = System.nanoTime();
+    List<LaserCut.CADShape> shared = removeShared(planned, .001);
+    long time = System.nanoTime() - start;
+    ToolpathMetrics before = ToolpathMetrics.measure(planned);
+    ToolpathMetrics after = ToolpathMetrics.measure(shared);
+    System.out.printf("%d parts, removeShared %d ms%n", design.size(), time / 1000000);
+    System.out.println("  before: " + before);
+    System.out.println("  after:  " + after);
+    System.out.printf("  cut length saved: %.1f%%, travel %+.1f%%, transitions %+d%n",
+                      100 * (1 - after.cutLength / before.cutLength),
+                      100 * (after.travelLength / before.travelLength - 1), after.transitions - before.transitions);
+  }
+
+  /**
+   * Point on one side of a box joint part where tabs alternate sides of the grid line based on their position
+   * in the workspace, so the parts on each side of a line get the same, meshing edge
+   */
+  private static double[] getTabPoint (int side, double tt, double x0, double y0, double size, double tab, double depth) {
+    double x, y;
+    switch (side) {
+      case 0:  x = x0 + tt;         y = y0;               break;
+      case 1:  x = x0 + size;       y = y0 + tt;          break;
+      case 2:  x = x0 + size - tt;  y = y0 + size;        break;
+      default: x = x0;              y = y0 + size - tt;   break;
+    }
+    boolean vertical = (side & 1) == 1;
+    double shift = (((int) Math.floor((vertical ? y : x) / tab)) & 1) == 0 ? depth / 2 : -depth / 2;
+    // Snap tab ends back onto the tab boundaries
+    double[] pt = vertical ? new double[] {x + shift, y} : new double[] {x, y + shift};
+    int axis = vertical ? 1 : 0;
+    pt[axis] = Math.round(pt[axis] / tab * 2) * tab / 2;
+    return pt;
+  }
+}
@@ -1,12 +1,12 @@
 import java.awt.Shape;
 import java.awt.geom.*;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.List;
 
   // Bezier circle: http://spencermortensen.com/articles/bezier-circle/
 
 public class CornerFinder {
-  private static DecimalFormat  df = new DecimalFormat("#.####");
+  private static final double   MIN_TURN = 1e-6;        // Min change in direction (radians) rounded as a corner
 
   public static void main (String[] args) {
     Shape shape;
@@ -23,130 +23,151 @@ public class CornerFinder {
     new ShapeWindow(shapes.toArray(new Shape[0]), .25);
   }
 
+  /**
+   * Round the corners of a shape by replacing each vertex between two straight segments with a circular arc that's
+   * tangent to both.  The radius is reduced where needed so an arc uses no more than half of either segment.
+   * Curves are left as they are.  The shape is rebuilt in a single pass over its path.
+   * @param shape Shape to round
+   * @param radius radius of corners
+   * @return Shape with rounded corners
+   */
   static Shape roundCorners (Shape shape, double radius) {
-    ArrayList<Point2D.Double> points = getPoints(shape);
-    Point2D.Double[] pnts = points.toArray(new Point2D.Double[0]);
-    Area a1 = new Area(shape);
-    for (int ii = 0; ii < pnts.length; ii++) {
-      Point2D.Double p1 = pnts[ii % pnts.length];
-      Point2D.Double p2 = pnts[(ii + 1) % pnts.length];
-      Point2D.Double p3 = pnts[(ii + 2) % pnts.length];
-      if (checkForCorner(p1, p2, p3)) {
-        //shapes.add(getCircle(p2, .1));
-        // Compute new points for radius start/end and draw '+' to indicate
-        Point2D.Double p1b = moveDistance(radius, p2, p1);
-        Point2D.Double p3b = moveDistance(radius, p2, p3);
-        //shapes.add(getPlus(p1b, .1));
-        //shapes.add(getPlus(p3b, .1));
-        // Compute point p2m between p1b and p3b
-        Point2D.Double p2m = new Point2D.Double(p1b.x + (p3b.x - p1b.x) / 2, p1b.y + (p3b.y - p1b.y) / 2);
-        //shapes.add(getPlus(p2m, .1));
-        // Compute reflection of p2 needed to complete square
-        Point2D.Double p2r = new Point2D.Double(p2.x + (p2m.x - p2.x) * 2, p2.y + (p2m.y - p2.y) * 2);
-        //shapes.add(getPlus(p2r, .1));
-        // Compute point p1p and p3p that extend slightly in direction from p2r
-        Point2D.Double p1p = moveDistance(-.01, p2, p1b);
-        Point2D.Double p3p = moveDistance(-.01, p2, p3b);
-        //shapes.add(getPlus(p1p, .1));
-        //shapes.add(getPlus(p3p, .1));
-        // Compute p1x and p3x that extends slightly past p2 in direction from p1 and p3
-        Point2D.Double p1x = moveDistance(-.01, p1b, p2r);
-        Point2D.Double p3x = moveDistance(-.01, p3b, p2r);
-        //shapes.add(getPlus(p1x, .1));
-        //shapes.add(getPlus(p3x, .1));
-        // Compute corner path to add, or subtract depending on whether inner corner, or outer corner
-        Path2D.Double corner = new Path2D.Double();
-        // p2r -> p1x -> p1p -> p3p -> p3x -> p2r
-        corner.moveTo(p2r.x, p2r.y);  // p2r
-        corner.lineTo(p1x.x, p1x.y);  // p1x
-        corner.lineTo(p3p.x, p3p.y);  // p3p
-        corner.lineTo(p1p.x, p1p.y);  // p1p
-        corner.lineTo(p3x.x, p3x.y);  // p3x
-        corner.lineTo(p2r.x, p2r.y);  // p2r
-        corner.closePath();
-        //shapes.add(corner);
-        if (!a1.contains(p2m.x, p2m.y)) {
-          a1.add(new Area(corner));
-          a1.subtract(new Area(new Ellipse2D.Double(p2r.x - radius, p2r.y - radius, radius * 2, radius * 2)));
-        } else {
-          a1.subtract(new Area(corner));
-          a1.add(new Area(new Ellipse2D.Double(p2r.x - radius, p2r.y - radius, radius * 2, radius * 2)));
-        }
-      }
-    }
-    return a1;
-  }
-
-  static Shape getCircle (Point2D.Double pnt, double radius) {
-    return new Ellipse2D.Double(pnt.x - radius, pnt.y - radius, radius * 2, radius * 2);
-  }
-
-  static Shape getPlus (Point2D.Double pnt, double size) {
-    Path2D.Double plus = new Path2D.Double();
-    plus.moveTo(pnt.x, pnt.y - size / 2);
-    plus.lineTo(pnt.x, pnt.y + size / 2);
-    plus.moveTo(pnt.x - size / 2, pnt.y);
-    plus.lineTo(pnt.x + size / 2, pnt.y);
-    return plus;
-  }
-
-  private static ArrayList<Point2D.Double> getPoints (Shape shape) {
     PathIterator pi = shape.getPathIterator(null);
-    ArrayList<Point2D.Double> points = new ArrayList<>();
-    Point2D.Double start = null;
-    while (!pi.isDone()) {
-      double[] coords = new double[6];
+    Path2D.Double path = new Path2D.Double(pi.getWindingRule());
+    List<double[]> segs = new ArrayList<>();
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (; !pi.isDone(); pi.next()) {
       int type = pi.currentSegment(coords);
       switch (type) {
         case PathIterator.SEG_MOVETO:
-          points.add(new Point2D.Double(coords[0], coords[1]));
-          if (start == null) {
-            start = new Point2D.Double(coords[0], coords[1]);
-          }
+          addSubpath(path, startX, startY, segs, false, radius);
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
           break;
         case PathIterator.SEG_LINETO:
-          Point2D.Double newLine = new Point2D.Double(coords[0], coords[1]);
-          if (!newLine.equals(start)) {
-            points.add(newLine);
+          // Drop lines of zero length, which would hide the corner between the lines on either side
+          if (coords[0] != lastX || coords[1] != lastY) {
+            addSegment(segs, type, coords);
+            lastX = coords[0];
+            lastY = coords[1];
           }
           break;
-        case PathIterator.SEG_CUBICTO:
-          points.add(new Point2D.Double(coords[2], coords[3]));
-          break;
         case PathIterator.SEG_QUADTO:
-          points.add(new Point2D.Double(coords[4], coords[5]));
+        case PathIterator.SEG_CUBICTO:
+          int end = addSegment(segs, type, coords);
+          lastX = coords[end];
+          lastY = coords[end + 1];
           break;
         case PathIterator.SEG_CLOSE:
+          addSubpath(path, startX, startY, segs, true, radius);
+          lastX = startX;
+          lastY = startY;
           break;
       }
-      pi.next();
     }
-    return points;
+    addSubpath(path, startX, startY, segs, false, radius);
+    return path;
   }
 
-  private static boolean checkForCorner (Point2D.Double p1, Point2D.Double p2, Point2D.Double p3) {
-    double dx12 = Math.abs(p1.x - p2.x);
-    double dy12 = Math.abs(p1.y - p2.y);
-    double dx23 = Math.abs(p2.x - p3.x);
-    double dy23 = Math.abs(p2.y - p3.y);
-    double s12 = dx12 < dy12 ? dx12 / dy12 : dy12 / dx12;
-    double s23 = dy23 < dx23 ? dy23 / dx23 : dx23 / dy23;
-    double dif = Math.abs(s12 - s23);
-    //System.out.println("corner at: " + df.format(p2.x) + ", " + df.format(p2.y));
-    return dif < .0001;
+  /*
+   * Add a segment to segs as its type, then its coords, with the end point last
+   * @return offset in coords of the segment's end point
+   */
+  private static int addSegment (List<double[]> segs, int type, double[] coords) {
+    int count = type == PathIterator.SEG_LINETO ? 2 : type == PathIterator.SEG_QUADTO ? 4 : 6;
+    double[] seg = new double[count + 1];
+    seg[0] = type;
+    System.arraycopy(coords, 0, seg, 1, count);
+    segs.add(seg);
+    return count - 2;
   }
 
-  /**
-   * Returns a new Point2D.Double that's a distance of 'dist' away from point 'from' when
-   * moving toward point 'to'.
-   * @param dist distance to move along line
-   * @param from from point
-   * @param to to point
-   * @return new point that is 'dist' away from 'from' point
+  /*
+   * Add a subpath that starts at startX, startY to path with its corners rounded, then clear segs
+   */
+  private static void addSubpath (Path2D.Double path, double startX, double startY, List<double[]> segs,
+                                  boolean closed, double radius) {
+    if (segs.isEmpty()) {
+      if (closed) {
+        path.moveTo(startX, startY);
+        path.closePath();
+      }
+      return;
+    }
+    double[] last = segs.get(segs.size() - 1);
+    if (closed && (last[last.length - 2] != startX || last[last.length - 1] != startY)) {
+      segs.add(last = new double[] {PathIterator.SEG_LINETO, startX, startY});
+    }
+    int count = segs.size();
+    // Start point, unit direction and length of each segment that's a line, and length 0 for curves
+    double[] xs = new double[count], ys = new double[count], ux = new double[count], uy = new double[count];
+    double[] lens = new double[count];
+    double x = startX, y = startY;
+    for (int ii = 0; ii < count; ii++) {
+      double[] seg = segs.get(ii);
+      xs[ii] = x;
+      ys[ii] = y;
+      x = seg[seg.length - 2];
+      y = seg[seg.length - 1];
+      if (seg[0] == PathIterator.SEG_LINETO) {
+        double len = lens[ii] = Math.sqrt((x - xs[ii]) * (x - xs[ii]) + (y - ys[ii]) * (y - ys[ii]));
+        ux[ii] = len > 0 ? (x - xs[ii]) / len : 0;
+        uy[ii] = len > 0 ? (y - ys[ii]) / len : 0;
+      }
+    }
+    // Distance from the vertex at the end of each segment to where its rounded corner begins and ends
+    double[] trims = new double[count];
+    for (int ii = 0; ii < (closed ? count : count - 1); ii++) {
+      int jj = (ii + 1) % count;
+      if (lens[ii] > 0 && lens[jj] > 0) {
+        double angle = Math.abs(Math.atan2(ux[ii] * uy[jj] - uy[ii] * ux[jj], ux[ii] * ux[jj] + uy[ii] * uy[jj]));
+        if (angle > MIN_TURN && angle < Math.PI - MIN_TURN) {
+          trims[ii] = Math.min(radius * Math.tan(angle / 2), Math.min(lens[ii], lens[jj]) / 2);
+        }
+      }
+    }
+    if (closed && trims[count - 1] > 0) {
+      path.moveTo(startX + ux[0] * trims[count - 1], startY + uy[0] * trims[count - 1]);
+    } else {
+      path.moveTo(startX, startY);
+    }
+    for (int ii = 0; ii < count; ii++) {
+      double[] seg = segs.get(ii);
+      switch ((int) seg[0]) {
+        case PathIterator.SEG_LINETO:
+          path.lineTo(seg[1] - ux[ii] * trims[ii], seg[2] - uy[ii] * trims[ii]);
+          break;
+        case PathIterator.SEG_QUADTO:
+          path.quadTo(seg[1], seg[2], seg[3], seg[4]);
+          break;
+        case PathIterator.SEG_CUBICTO:
+          path.curveTo(seg[1], seg[2], seg[3], seg[4], seg[5], seg[6]);
+          break;
+      }
+      if (trims[ii] > 0) {
+        int jj = (ii + 1) % count;
+        addCorner(path, seg[seg.length - 2], seg[seg.length - 1], ux[ii], uy[ii], ux[jj], uy[jj], trims[ii]);
+      }
+    }
+    if (closed) {
+      path.closePath();
+    }
+    segs.clear();
+  }
+
+  /*
+   * Add an arc that rounds the corner at x, y, where a line in direction u1 turns to direction u2, starting and
+   * ending trim from the corner
    */
-  private static Point2D.Double moveDistance (double dist, Point2D.Double from, Point2D.Double to) {
-    double v = from.distance(to);
-    double t = dist / v;
-    return new Point2D.Double(from.x + (from.x * -t) + (to.x * t), from.y + (from.y * -t) + (to.y * t));
+  private static void addCorner (Path2D.Double path, double x, double y, double u1x, double u1y, double u2x,
+                                 double u2y, double trim) {
+    double angle = Math.atan2(u1x * u2y - u1y * u2x, u1x * u2x + u1y * u2y);
+    double radius = trim / Math.tan(Math.abs(angle) / 2);
+    double side = Math.signum(angle);
+    // Center is radius from where the arc starts, on the side the corner turns toward
+    double sx = x - u1x * trim, sy = y - u1y * trim;
+    double cx = sx - u1y * radius * side, cy = sy + u1x * radius * side;
+    CNCTools.addArc(path, cx, cy, sx - cx, sy - cy, angle);
   }
 }
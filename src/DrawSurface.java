@@ -25,6 +25,7 @@ public class DrawSurface extends JPanel implements Runnable {
   private Point2D.Double                      scrollPoint, measure1, measure2, dragStart;
   private Rectangle2D.Double                  dragBox;
   private boolean                             useDblClkZoom;
+  private double                              commonLine;
   private List<LaserCut.CADShape>             dragList = new ArrayList<>();
   private List<LaserCut.ShapeSelectListener>  selectListerners = new ArrayList<>();
   private List<LaserCut.ShapeDragSelectListener>  dragSelectListerners = new ArrayList<>();
@@ -88,6 +89,7 @@ public class DrawSurface extends JPanel implements Runnable {
     super(true);
     this.prefs = prefs;
     useDblClkZoom = prefs.getBoolean("useDblClkZoom", false);
+    commonLine = prefs.getDouble("cut.commonline", 0);
     DrawSurface thisSurface = this;
     // Set JPanel size to a temprary default size
     setPreferredSize(workSize = new Dimension(500, 500));
@@ -447,6 +449,17 @@ public class DrawSurface extends JPanel implements Runnable {
     prefs.putBoolean("useDblClkZoom", useDblClkZoom = enable);
   }
 
+  /**
+   * Set max distance between edges of cut shapes that are cut only once by CommonLines (0 = cut all edges)
+   */
+  void setCommonLineTolerance (double tolerance) {
+    prefs.putDouble("cut.commonline", commonLine = tolerance);
+  }
+
+  double getCommonLineTolerance () {
+    return commonLine;
+  }
+
   @Override
   public Dimension getPreferredSize () {
     return new Dimension((int) (workSize.getWidth() * zoomFactor), (int) (workSize.getHeight() * zoomFactor));
@@ -733,6 +746,10 @@ public class DrawSurface extends JPanel implements Runnable {
    * @return checksum for current state of design
    */
   long getDesignChecksum () {
+    return getDesignChecksum(shapes);
+  }
+
+  static long getDesignChecksum (List<LaserCut.CADShape> shapes) {
     CRC32 crc = new CRC32();
     try {
       ByteArrayOutputStream bOut = new ByteArrayOutputStream();
@@ -843,24 +860,76 @@ public class DrawSurface extends JPanel implements Runnable {
     repaint();
   }
 
+  void traceSelected (int threshold, double tolerance) {
+    if (selected instanceof LaserCut.CADRasterImage) {
+      pushToUndoStack();
+      LaserCut.CADShape traced = ((LaserCut.CADRasterImage) selected).traceOutlines(threshold, tolerance);
+      shapes.remove(selected);
+      shapes.add(traced);
+      setSelected(traced);
+      repaint();
+    }
+  }
+
+  /**
+   * Replace the selected shape with a step and repeat array of copies of it
+   * @param rows number of rows
+   * @param columns number of columns
+   * @param xSpacing distance between columns (inches)
+   * @param ySpacing distance between rows (inches)
+   */
+  void arraySelected (int rows, int columns, double xSpacing, double ySpacing) {
+    if (selected != null && !(selected instanceof LaserCut.CNCPath)) {
+      pushToUndoStack();
+      LaserCut.CADShape source = selected.copy();
+      LaserCut.CADShapeArray array = new LaserCut.CADShapeArray(source, rows, columns, xSpacing, ySpacing);
+      LaserCut.CADShapeGroup group = selected.getGroup();
+      if (group != null) {
+        // Array takes the selected shape's place in its group
+        List<LaserCut.CADShape> gList = group.getGroupList();
+        gList.set(gList.indexOf(selected), array);
+        array.setGroup(group);
+        selected.setGroup(null);
+      }
+      shapes.set(shapes.indexOf(selected), array);
+      setSelected(array);
+      repaint();
+    }
+  }
+
   void addOrSubtractSelectedShapes (boolean add) {
     LaserCut.CADShapeGroup group = selected.getGroup();
     if (group != null) {
       pushToUndoStack();
       Shape base = selected.getLocallyTransformedShape();
-      Area newShape = new Area(base);
       shapes.remove(selected);
+      List<Shape> others = new ArrayList<>();
       for (LaserCut.CADShape gItem : group.getGroupList()) {
         if (gItem != selected) {
           Shape shape = gItem.getLocallyTransformedShape();
           AffineTransform at = AffineTransform.getTranslateInstance(gItem.xLoc - selected.xLoc, gItem.yLoc - selected.yLoc);
+          others.add(at.createTransformedShape(shape));
+          shapes.remove(gItem);
+        }
+      }
+      // Adding shapes one at a time to an Area slows down as the Area grows, so larger groups are combined all at
+      // once with PolygonClipper, but Area is faster for small groups
+      Path2D.Double newShape;
+      if (others.size() < PolygonClipper.AREA_MAX) {
+        Area area = new Area(base);
+        for (Shape shape : others) {
           if (add) {
-            newShape.add(new Area(at.createTransformedShape(shape)));
+            area.add(new Area(shape));
           } else {
-            newShape.subtract(new Area(at.createTransformedShape(shape)));
+            area.subtract(new Area(shape));
           }
-          shapes.remove(gItem);
         }
+        newShape = new Path2D.Double(area);
+      } else if (add) {
+        others.add(0, base);
+        newShape = PolygonClipper.union(others);
+      } else {
+        newShape = PolygonClipper.subtract(base, others);
       }
       if (selected.centered) {
         LaserCut.CADShape tmp = new LaserCut.CADShape(newShape, selected.xLoc, selected.yLoc, 0, true);
@@ -1149,14 +1218,39 @@ public class DrawSurface extends JPanel implements Runnable {
    * @return List of CADShape objects minus culled items
    */
   List<LaserCut.CADShape> selectLaserItems (boolean cutItems, boolean planPath) {
+    return selectLaserItems(getDesign(), cutItems, planPath, commonLine);
+  }
+
+  /**
+   * Version of selectLaserItems() that works on any list of shapes (used to compile jobs outside the UI)
+   * @param design List of CADShape objects to select from
+   * @param cutItems if true, only process shapes with 'engrave' set to false.
+   * @param planPath if true, use PathPlanner to organize nested shapes
+   * @return List of CADShape objects minus culled items
+   */
+  static List<LaserCut.CADShape> selectLaserItems (List<LaserCut.CADShape> design, boolean cutItems, boolean planPath) {
+    return selectLaserItems(design, cutItems, planPath, 0);
+  }
+
+  /**
+   * Version of selectLaserItems() that also removes shared edges of cut items (see CommonLines)
+   * @param design List of CADShape objects to select from
+   * @param cutItems if true, only process shapes with 'engrave' set to false.
+   * @param planPath if true, use PathPlanner to organize nested shapes
+   * @param commonLine max distance between edges that are cut only once, or 0 to cut all edges
+   * @return List of CADShape objects minus culled items
+   */
+  static List<LaserCut.CADShape> selectLaserItems (List<LaserCut.CADShape> design, boolean cutItems, boolean planPath,
+                                                   double commonLine) {
     // Cull out items that will not be cut or that don't match cutItems
     ArrayList<LaserCut.CADShape> cullShapes = new ArrayList<>();
-    for (LaserCut.CADShape shape : getDesign()) {
+    for (LaserCut.CADShape shape : design) {
       if (!(shape instanceof LaserCut.CADNoDraw) && shape.engrave != cutItems) {
         cullShapes.add(shape);
       }
     }
-    return planPath ? PathPlanner.optimize(cullShapes) : cullShapes;
+    List<LaserCut.CADShape> items = planPath ? PathPlanner.optimize(cullShapes) : cullShapes;
+    return cutItems && commonLine > 0 ? CommonLines.removeShared(items, commonLine) : items;
   }
 
   /**
@@ -1182,7 +1276,8 @@ public class DrawSurface extends JPanel implements Runnable {
         cullShapes.add(shape);
       }
     }
-    return planPath ? PathPlanner.optimize(cullShapes) : cullShapes;
+    List<LaserCut.CADShape> items = planPath ? PathPlanner.optimize(cullShapes) : cullShapes;
+    return commonLine > 0 ? CommonLines.removeShared(items, commonLine) : items;
   }
 
   private void cancelTip () {
@@ -1287,13 +1382,13 @@ public class DrawSurface extends JPanel implements Runnable {
       shape.inGroup = selected != null && selected.getGroup() != null && selected.getGroup().contains(shape);
       shape.dragged = dragList != null && dragList.contains(shape);
       if (false) {
-        // Test code to view FlatteningPathIterator-generated lines
+        // Test code to view PolylineSet-generated lines
         g2.setStroke(shape.getShapeStroke(shape.getStrokeWidth()));
         g2.setColor(shape.getShapeColor());
-        List<Line2D.Double[]> sets = shape.getListOfScaledLines(zoomFactor * LaserCut.SCREEN_PPI, .01);
-        for (Line2D.Double[] lines : sets) {
-          for (Line2D.Double line : lines) {
-            g2.draw(line);
+        PolylineSet lines = shape.getScaledPolylines(zoomFactor * LaserCut.SCREEN_PPI, .25);
+        for (int pp = 0; pp < lines.size(); pp++) {
+          for (int ii = lines.getStart(pp) + 1; ii < lines.getEnd(pp); ii++) {
+            g2.draw(new Line2D.Double(lines.getX(ii - 1), lines.getY(ii - 1), lines.getX(ii), lines.getY(ii)));
           }
         }
       } else {
@@ -72,10 +72,21 @@ public class EPSWriter {
   }
 
   public void draw (Shape shape) {
+    draw(shape, BetterBoundingBox.getBounds(shape));
+  }
+
+  /**
+   * Draw a Shape whose exact bounds the caller already has, such as from a CADShape's cache
+   * @param shape Shape to draw
+   * @param shapeBounds exact bounds of shape, or null if it's empty
+   */
+  public void draw (Shape shape, Rectangle2D shapeBounds) {
     if (closed) {
       throw new IllegalStateException("EPSWriter closed");
     }
-    bounds = bounds != null ? bounds.createUnion(shape.getBounds2D()) : shape.getBounds2D();
+    if (shapeBounds != null) {
+      bounds = bounds != null ? bounds.createUnion(shapeBounds) : shapeBounds;
+    }
     append("newpath");
     double[] coords = new double[6];
     PathIterator it = shape.getPathIterator(null);
@@ -106,12 +106,23 @@ import static javax.swing.JOptionPane.*;
    */
 
 abstract class GRBLBase {
+  static final double MIN_FLATNESS = .001;    // Finest chord tolerance (inches) used to flatten curves into G01 moves
   JSSCPort      jPort;
   LaserCut      laserCut;
   String        dUnits;
 
   abstract String getPrefix ();
 
+  /**
+   * Get the chord tolerance used to flatten curves, which is the size of one motor step, as computed from the $100
+   * and $101 (steps/mm) values last read by the GRBL Settings dialog, but not less than MIN_FLATNESS
+   * @return chord tolerance in inches
+   */
+  double getFlatness () {
+    double stepsPerMm = getDouble("steps.mm", 0);
+    return stepsPerMm > 0 ? Math.max(MIN_FLATNESS, 1 / (stepsPerMm * 25.4)) : MIN_FLATNESS;
+  }
+
   boolean getBoolean(String name, boolean def) {
     return laserCut.prefs.getBoolean(getPrefix() + name, def);
   }
@@ -180,6 +191,12 @@ abstract class GRBLBase {
               sVals.put(vals[0], vals[1]);
             }
           }
+          try {
+            // Save step size of coarsest axis for use by getFlatness()
+            putDouble("steps.mm", Math.min(Double.parseDouble(sVals.get("$100")), Double.parseDouble(sVals.get("$101"))));
+          } catch (NullPointerException | NumberFormatException ex) {
+            // Ignore, as controller didn't report steps/mm for X and Y
+          }
           JPanel sPanel;
           if (grblVersion != null) {
             ParameterDialog.ParmItem[] parmSet = {
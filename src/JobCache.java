@@ -0,0 +1,47 @@
+/**
+ * JobCache: Holds the most recently compiled job for an output device so that sending an unchanged design
+ * again with unchanged settings can skip path planning, flattening and raster conversion.  The key should
+ * combine DrawSurface.getDesignChecksum() with every device setting that affects the compiled output, so
+ * any edit to the design, or change to the settings, automatically invalidates the cached job.
+ *
+ * Note: cached jobs are shared between sends, so callers must not modify them.
+ */
+
+class JobCache<T> {
+  private String  key;
+  private T       job;
+
+  /**
+   * Build a cache key from a design checksum and the settings used to compile the job
+   * @param checksum value returned by DrawSurface.getDesignChecksum()
+   * @param settings values of all settings that affect the compiled job
+   * @return key String
+   */
+  static String getKey (long checksum, Object... settings) {
+    StringBuilder buf = new StringBuilder(Long.toHexString(checksum));
+    for (Object setting : settings) {
+      buf.append(':');
+      buf.append(setting);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Get the cached job
+   * @param key key computed for the current design and settings
+   * @return cached job, or null if nothing is cached for this key
+   */
+  synchronized T get (String key) {
+    return key.equals(this.key) ? job : null;
+  }
+
+  synchronized void put (String key, T job) {
+    this.key = key;
+    this.job = job;
+  }
+
+  synchronized void clear () {
+    key = null;
+    job = null;
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * KdTree: Static 2D k-d tree used to find the nearest point, or the k nearest points, to a location.  Points
+ * can be removed as they are used, such as when building a path that visits each point once, and subtrees
+ * with no remaining points are skipped, so each query stays O(log n) on average as the tree empties.
+ *
+ * The tree is implicit: the points are arranged in an array so the node for each range [lo, hi) is the median
+ * point at (lo + hi) / 2, split on x at even depths and on y at odd depths.
+ *
+ * Ref: https://en.wikipedia.org/wiki/K-d_tree
+ */
+
+class KdTree {
+  private final double[]  xs, ys;
+  private final int[]     tree;           // Point indices in tree order
+  private final int[]     alive;          // Number of points not removed in the subtree rooted at each node
+  private final int[]     where;          // Node holding each point
+  private final boolean[] removed;
+  // Query state
+  private double          qx, qy, bestDist;
+  private int             best, exclude;
+  private int[]           kIdx;
+  private double[]        kDist;
+  private int             kCount;
+
+  /**
+   * Build tree from a set of points
+   * @param xs x coordinates of points
+   * @param ys y coordinates of points (points are then identified by their index)
+   */
+  KdTree (double[] xs, double[] ys) {
+    this.xs = xs;
+    this.ys = ys;
+    int count = xs.length;
+    tree = new int[count];
+    for (int ii = 0; ii < count; ii++) {
+      tree[ii] = ii;
+    }
+    alive = new int[count];
+    where = new int[count];
+    removed = new boolean[count];
+    build(0, count, 0);
+  }
+
+  private void build (int lo, int hi, int depth) {
+    if (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+      where[tree[mid]] = mid;
+      alive[mid] = hi - lo;
+      build(lo, mid, depth + 1);
+      build(mid + 1, hi, depth + 1);
+    }
+  }
+
+  /**
+   * Quickselect partition of tree[lo..hi] so tree[kk] holds the median on axis
+   */
+  private void select (int lo, int hi, int kk, double[] axis) {
+    while (lo < hi) {
+      double pivot = axis[tree[(lo + hi) >>> 1]];
+      int ii = lo, jj = hi;
+      while (ii <= jj) {
+        while (axis[tree[ii]] < pivot) {
+          ii++;
+        }
+        while (axis[tree[jj]] > pivot) {
+          jj--;
+        }
+        if (ii <= jj) {
+          int tmp = tree[ii];
+          tree[ii++] = tree[jj];
+          tree[jj--] = tmp;
+        }
+      }
+      if (kk <= jj) {
+        hi = jj;
+      } else if (kk >= ii) {
+        lo = ii;
+      } else {
+        return;
+      }
+    }
+  }
+
+  int size () {
+    return alive.length > 0 ? alive[(alive.length) >>> 1] : 0;
+  }
+
+  /**
+   * Remove a point so it's no longer returned by queries
+   * @param idx index of point
+   */
+  void remove (int idx) {
+    if (!removed[idx]) {
+      removed[idx] = true;
+      int node = where[idx];
+      int lo = 0, hi = tree.length;
+      while (true) {
+        int mid = (lo + hi) >>> 1;
+        alive[mid]--;
+        if (mid == node) {
+          break;
+        } else if (node < mid) {
+          hi = mid;
+        } else {
+          lo = mid + 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the point nearest to a location
+   * @param x x coordinate of location
+   * @param y y coordinate of location
+   * @return index of nearest point not yet removed, or -1 if none remain
+   */
+  int nearest (double x, double y) {
+    qx = x;
+    qy = y;
+    best = -1;
+    bestDist = Double.MAX_VALUE;
+    kIdx = null;
+    exclude = -1;
+    search(0, tree.length, 0);
+    return best;
+  }
+
+  /**
+   * Find the k points nearest to a location
+   * @param x x coordinate of location
+   * @param y y coordinate of location
+   * @param k max number of points to return
+   * @param exclude index of a point to leave out (such as the point at the location), or -1
+   * @return indices of points ordered by distance
+   */
+  int[] nearest (double x, double y, int k, int exclude) {
+    qx = x;
+    qy = y;
+    this.exclude = exclude;
+    kIdx = new int[k];
+    kDist = new double[k];
+    kCount = 0;
+    bestDist = Double.MAX_VALUE;
+    search(0, tree.length, 0);
+    int[] result = new int[kCount];
+    System.arraycopy(kIdx, 0, result, 0, kCount);
+    kIdx = null;
+    return result;
+  }
+
+  private void search (int lo, int hi, int depth) {
+    if (lo >= hi) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    if (alive[mid] == 0) {
+      return;
+    }
+    int idx = tree[mid];
+    if (!removed[idx] && idx != exclude) {
+      double dx = xs[idx] - qx;
+      double dy = ys[idx] - qy;
+      offer(idx, dx * dx + dy * dy);
+    }
+    double diff = (depth & 1) == 0 ? qx - xs[idx] : qy - ys[idx];
+    if (diff < 0) {
+      search(lo, mid, depth + 1);
+      if (diff * diff < bestDist) {
+        search(mid + 1, hi, depth + 1);
+      }
+    } else {
+      search(mid + 1, hi, depth + 1);
+      if (diff * diff < bestDist) {
+        search(lo, mid, depth + 1);
+      }
+    }
+  }
+
+  private void offer (int idx, double dist) {
+    if (kIdx == null) {
+      if (dist < bestDist) {
+        bestDist = dist;
+        best = idx;
+      }
+    } else if (kCount < kIdx.length || dist < kDist[kCount - 1]) {
+      // Insertion sort into the list of k best
+      int ii = kCount < kIdx.length ? kCount++ : kCount - 1;
+      while (ii > 0 && kDist[ii - 1] > dist) {
+        kIdx[ii] = kIdx[ii - 1];
+        kDist[ii] = kDist[ii - 1];
+        ii--;
+      }
+      kIdx[ii] = idx;
+      kDist[ii] = dist;
+      if (kCount == kIdx.length) {
+        bestDist = kDist[kCount - 1];
+      }
+    }
+  }
+}
@@ -6,9 +6,11 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -24,9 +26,13 @@ import java.beans.PropertyChangeListener;
 import java.io.*;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.prefs.Preferences;
 
 import static javax.swing.JOptionPane.*;
@@ -79,6 +85,7 @@ public class LaserCut extends JFrame {
   private JMenuBar              menuBar = new JMenuBar();
   private JMenuItem             gerberZip;
   private int                   pxDpi = prefs.getInt("svg.pxDpi", 96);
+  private double                importSnap = prefs.getDouble("import.snap", ShapeOptimizer.DEFAULT_TOLERANCE);
   private long                  savedCrc;
   String                        displayUnits = prefs.get("displayUnits", "in");
   private boolean               useMouseWheel = prefs.getBoolean("useMouseWheel", false);
@@ -161,6 +168,11 @@ public class LaserCut extends JFrame {
         prefs.getBoolean("useDblClkZoom", false)));
     items.put("enableGerber", new ParameterDialog.ParmItem("Enable Gerber ZIP Import", prefs.getBoolean("gerber.import", false)));
     items.put("pxDpi", new ParameterDialog.ParmItem("px per Inch (SVG Import/Export)", prefs.getInt("svg.pxDpi", 96)));
+    items.put("importSnap", new ParameterDialog.ParmItem("Join Imported Segments|in{max gap between the ends of DXF and " +
+                                                         "SVG segments that are joined into one path (0 = don't join)}", importSnap));
+    items.put("commonLine", new ParameterDialog.ParmItem("Common Line Cutting|in{max gap between edges of adjacent cut " +
+                                                         "shapes that are cut only once (0 = cut all edges)}",
+                                                         surface.getCommonLineTolerance()));
     ParameterDialog.ParmItem[] parmSet = items.values().toArray(new ParameterDialog.ParmItem[0]);
     ParameterDialog dialog = (new ParameterDialog("LaserCut Preferences", parmSet, new String[] {"Save", "Cancel"}, displayUnits));
     dialog.setLocationRelativeTo(this);
@@ -202,6 +214,11 @@ public class LaserCut extends JFrame {
         } else if ("pxDpi".equals(name)) {
           pxDpi = (Integer) parm.value;
           prefs.putInt("svg.pxDpi", pxDpi);
+        } else if ("importSnap".equals(name)) {
+          importSnap = (Double) parm.value;
+          prefs.putDouble("import.snap", importSnap);
+        } else if ("commonLine".equals(name)) {
+          surface.setCommonLineTolerance((Double) parm.value);
         } else if ("onStartup".equals(name)) {
           onStartup = (String) parm.value;
           prefs.put("onStartup", onStartup);
@@ -809,7 +826,7 @@ public class LaserCut extends JFrame {
       if (sel != null && sel.editParameterDialog(surface, displayUnits)) {
         // User clicked dialog's OK button
         if (centered != sel.centered) {
-          Rectangle2D bounds = sel.getShape().getBounds2D();
+          Rectangle2D bounds = sel.getBuiltBounds();
           if (sel.centered) {
             sel.movePosition(new Point2D.Double(bounds.getWidth() / 2, bounds.getHeight() / 2));
           } else {
@@ -928,12 +945,73 @@ public class LaserCut extends JFrame {
     });
     editMenu.add(cncSelected);
     //
+    // Add "Trace Selected Raster Image" Menu Item
+    //
+    JMenuItem traceSelected = new JMenuItem("Trace Selected Raster Image");
+    traceSelected.setEnabled(false);
+    traceSelected.addActionListener((ev) -> {
+      ParameterDialog.ParmItem[] rParms = {new ParameterDialog.ParmItem("threshold|%(1-99){brightness below which" +
+          " pixels are traced}", 50),
+          new ParameterDialog.ParmItem("smoothing|px{max distance of traced curves from pixel edges}", 1.0)};
+      ParameterDialog rDialog = (new ParameterDialog("Trace Parameters", rParms, new String[] {"Trace", "Cancel"}, displayUnits));
+      rDialog.setLocationRelativeTo(surface.getParent());
+      rDialog.setVisible(true);              // Note: this call invokes dialog
+      if (rDialog.wasPressed()) {
+        int threshold = (Integer) rParms[0].value * 255 / 100;
+        double smoothing = (Double) rParms[1].value;
+        surface.traceSelected(threshold, smoothing);
+      }
+    });
+    editMenu.add(traceSelected);
+    //
+    // Add "Step and Repeat Selected" Menu Item
+    //
+    JMenuItem arraySelected = new JMenuItem("Step and Repeat Selected");
+    arraySelected.setEnabled(false);
+    arraySelected.addActionListener((ev) -> {
+      CADShape sel = surface.getSelected();
+      Rectangle2D bounds = sel.getShapeBounds();
+      ParameterDialog.ParmItem[] aParms = {new ParameterDialog.ParmItem("rows", 2),
+          new ParameterDialog.ParmItem("columns", 2),
+          new ParameterDialog.ParmItem("xSpacing|in{distance between columns}", bounds.getWidth() + .1),
+          new ParameterDialog.ParmItem("ySpacing|in{distance between rows}", bounds.getHeight() + .1)};
+      ParameterDialog aDialog = (new ParameterDialog("Step and Repeat", aParms, new String[] {"Create", "Cancel"}, displayUnits));
+      aDialog.setLocationRelativeTo(surface.getParent());
+      aDialog.setVisible(true);              // Note: this call invokes dialog
+      if (aDialog.wasPressed()) {
+        surface.arraySelected((Integer) aParms[0].value, (Integer) aParms[1].value, (Double) aParms[2].value,
+                              (Double) aParms[3].value);
+      }
+    });
+    editMenu.add(arraySelected);
+    //
+    // Add "Toolpath Statistics" Menu Item
+    //
+    JMenuItem toolpathStats = new JMenuItem("Toolpath Statistics");
+    toolpathStats.addActionListener((ev) -> {
+      List<CADShape> design = surface.getDesign();
+      // Engrave items are sent before cut items
+      List<CADShape> items = DrawSurface.selectLaserItems(design, false, false);
+      items.addAll(DrawSurface.selectLaserItems(design, true, false));
+      long start = System.nanoTime();
+      List<CADShape> planned = DrawSurface.selectLaserItems(design, false, true);
+      planned.addAll(DrawSurface.selectLaserItems(design, true, true, surface.getCommonLineTolerance()));
+      long time = System.nanoTime() - start;
+      showInfoDialog("Design order:\n  " + ToolpathMetrics.measure(items) + "\n" +
+                     "Path Planner order (planned in " + time / 1000000 + " ms):\n  " + ToolpathMetrics.measure(planned) + "\n" +
+                     "Time estimated for cutting at " + ToolpathMetrics.CUT_SPEED + " in/sec, with rapid moves at " +
+                     ToolpathMetrics.TRAVEL_SPEED + " in/sec");
+    });
+    editMenu.add(toolpathStats);
+    //
     // Add SelectListener to enable/disable menus, as needed
     //
     surface.addSelectListener((shape, selected) -> {
       boolean canSelect = !(shape instanceof CNCPath) & selected;
       removeSelected.setEnabled(selected);
       cncSelected.setEnabled(selected);
+      traceSelected.setEnabled(shape instanceof CADRasterImage & selected);
+      arraySelected.setEnabled(canSelect & !(shape instanceof CADRasterImage || shape instanceof CADReference));
       dupSelected.setEnabled(canSelect);
       editSelected.setEnabled(selected);
       moveSelected.setEnabled(canSelect);
@@ -1000,6 +1078,9 @@ public class LaserCut extends JFrame {
         //parser.enableDebug(true);
         Shape[] shapes = parser.parseSVG(sFile);
         shapes = SVGParser.removeOffset(shapes);
+        if (importSnap > 0) {
+          shapes = ShapeOptimizer.joinShapes(shapes, importSnap);
+        }
         Shape shape = SVGParser.combinePaths(shapes);
         Rectangle2D bounds = BetterBoundingBox.getBounds(shape);
         double offX = bounds.getWidth() / 2;
@@ -1007,6 +1088,8 @@ public class LaserCut extends JFrame {
         AffineTransform at = AffineTransform.getTranslateInstance(-offX, -offY);
         shape = at.createTransformedShape(shape);
         CADShape shp = new CADScaledShape(shape, offX, offY, 0, false, 100.0);
+        shp.setExactBuiltBounds(new Rectangle2D.Double(bounds.getX() - offX, bounds.getY() - offY, bounds.getWidth(),
+                                                       bounds.getHeight()));
         if (shp.placeParameterDialog(surface, displayUnits)) {
           surface.placeShape(shp);
         } else {
@@ -1032,6 +1115,10 @@ public class LaserCut extends JFrame {
         }
         Shape[] shapes = dxf.parseFile(sFile, 12, 0);
         shapes = SVGParser.removeOffset(shapes);
+        if (importSnap > 0) {
+          // Join separate LINE, ARC, etc. entities into continuous paths
+          shapes = ShapeOptimizer.joinShapes(shapes, importSnap);
+        }
         CADShapeGroup group = new CADShapeGroup();
         List<CADShape> gShapes = new ArrayList<>();
         for (Shape shape : shapes) {
@@ -1204,7 +1291,8 @@ public class LaserCut extends JFrame {
             continue;
           Shape shape = item.getWorkspaceTranslatedShape();
           shape = scale.createTransformedShape(shape);
-          eps.draw(shape);
+          Rectangle2D bounds = item.getExactWorkspaceBounds();
+          eps.draw(shape, bounds != null ? scale.createTransformedShape(bounds).getBounds2D() : null);
         }
         eps.writeEPS(sFile);
       }
@@ -1557,6 +1645,57 @@ public class LaserCut extends JFrame {
     transient Shape                 builtShape;
     transient boolean isSelected,   inGroup, dragged;
     transient List<ChangeListener>  changeSubscribers;
+    transient long                  version;                // Incremented when shape, position, or orientation changes
+    private transient TransformCache builtCache, localCache, workCache;
+
+    /**
+     * Holds a transformed Shape along with the version, source Shape and placement it was computed from, so it can
+     * be reused until any of them change.  Entries are never modified, so a cache can be replaced by another thread
+     * while being read.
+     */
+    private static class TransformCache {
+      final long        version;
+      final Shape       source, shape;
+      final double      xLoc, yLoc, rotation;
+      final boolean     centered;
+      private Rectangle2D bounds, exactBounds;
+
+      TransformCache (long version, Shape source, Shape shape, double xLoc, double yLoc, double rotation, boolean centered) {
+        this.version = version;
+        this.source = source;
+        this.shape = shape;
+        this.xLoc = xLoc;
+        this.yLoc = yLoc;
+        this.rotation = rotation;
+        this.centered = centered;
+      }
+
+      boolean matches (long version, Shape source, double xLoc, double yLoc, double rotation, boolean centered) {
+        return this.version == version && this.source == source && this.xLoc == xLoc && this.yLoc == yLoc &&
+               this.rotation == rotation && this.centered == centered;
+      }
+
+      /*
+       * Note: uses getBounds2D(), which includes control points, as shapes are built, saved and placed centered on
+       * those bounds.  Use BetterBoundingBox for exact bounds where they're only displayed, or exported.
+       */
+      Rectangle2D getBounds () {
+        if (bounds == null) {
+          bounds = shape.getBounds2D();
+        }
+        return bounds;
+      }
+
+      /*
+       * Note: exact bounds, which exclude control points, are slower to compute, so they're computed separately
+       */
+      Rectangle2D getExactBounds () {
+        if (exactBounds == null) {
+          exactBounds = BetterBoundingBox.getBounds(shape);
+        }
+        return exactBounds;
+      }
+    }
 
     /**
      * Default constructor is used to instantiate subclasses in "Shapes" Menu
@@ -1616,6 +1755,16 @@ public class LaserCut extends JFrame {
       this.yLoc = yLoc;
       this.rotation = rotation;
       this.centered = centered;
+      invalidateCache();
+    }
+
+    /**
+     * Discard cached transforms of the Shape, such as after its outline, position or orientation is changed.
+     * Note: cached values are also checked against the fields they depend on, so assigning to xLoc, yLoc,
+     * rotation, or centered directly won't return stale values.
+     */
+    void invalidateCache () {
+      version++;
     }
 
     // Override in subclass, as needed
@@ -1628,7 +1777,7 @@ public class LaserCut extends JFrame {
      * @return absolute bounding rectangle
      */
     Rectangle2D getShapeBounds () {
-      Rectangle2D bnds = getShape().getBounds2D();
+      Rectangle2D bnds = getBuiltBounds();
       if (centered) {
         return new Rectangle2D.Double(xLoc - bnds.getWidth() / 2, yLoc - bnds.getHeight() / 2, bnds.getWidth(), bnds.getHeight());
       } else {
@@ -1694,22 +1843,87 @@ public class LaserCut extends JFrame {
      */
     protected Shape getLocallyTransformedShape () {
       Shape dShape = getShape();
+      TransformCache cache = localCache;
+      if (cache != null && cache.matches(version, dShape, 0, 0, rotation, centered)) {
+        return cache.shape;
+      }
       AffineTransform at = new AffineTransform();
       // Position Shape centered on xLoc/yLoc in inches (x from left, y from top)
       at.rotate(Math.toRadians(rotation));
       if (!centered) {
         // Position cadShape relative to its upper left bounding box at position xLoc/yLoc in inches
-        Rectangle2D bounds = dShape.getBounds2D();
+        Rectangle2D bounds = getBuiltBounds();
         at.translate(bounds.getWidth() / 2, bounds.getHeight() / 2);
       }
-      return at.createTransformedShape(dShape);
+      Shape lShape = at.createTransformedShape(dShape);
+      localCache = new TransformCache(version, dShape, lShape, 0, 0, rotation, centered);
+      return lShape;
     }
 
     // Translate Shape to Workspace position
     protected Shape getWorkspaceTranslatedShape () {
       Shape shape = getLocallyTransformedShape();
+      TransformCache cache = workCache;
+      if (cache != null && cache.matches(version, shape, xLoc, yLoc, 0, false)) {
+        return cache.shape;
+      }
       AffineTransform at = AffineTransform.getTranslateInstance(xLoc, yLoc);
-      return at.createTransformedShape(shape);
+      Shape wShape = at.createTransformedShape(shape);
+      workCache = new TransformCache(version, shape, wShape, xLoc, yLoc, 0, false);
+      return wShape;
+    }
+
+    /**
+     * Get bounds of the Shape returned by getShape(), which is cached until the Shape is rebuilt
+     * @return bounding rectangle (must not be modified)
+     */
+    Rectangle2D getBuiltBounds () {
+      return getBuiltCache().getBounds();
+    }
+
+    /**
+     * Get exact bounds of the Shape returned by getShape(), which are cached until the Shape is rebuilt
+     * @return bounding rectangle (must not be modified), or null if the Shape is empty
+     */
+    Rectangle2D getExactBuiltBounds () {
+      return getBuiltCache().getExactBounds();
+    }
+
+    /**
+     * Set exact bounds of the Shape returned by getShape() when they're already known, such as after an import
+     * @param bounds exact bounding rectangle
+     */
+    void setExactBuiltBounds (Rectangle2D bounds) {
+      getBuiltCache().exactBounds = bounds;
+    }
+
+    private TransformCache getBuiltCache () {
+      Shape dShape = getShape();
+      TransformCache cache = builtCache;
+      if (cache == null || cache.source != dShape) {
+        builtCache = cache = new TransformCache(0, dShape, dShape, 0, 0, 0, false);
+      }
+      return cache;
+    }
+
+    /**
+     * Get bounds of the Shape returned by getWorkspaceTranslatedShape(), cached along with the Shape
+     * @return bounding rectangle (must not be modified)
+     */
+    Rectangle2D getWorkspaceBounds () {
+      Shape wShape = getWorkspaceTranslatedShape();
+      TransformCache cache = workCache;
+      return cache != null && cache.shape == wShape ? cache.getBounds() : wShape.getBounds2D();
+    }
+
+    /**
+     * Get exact bounds of the Shape returned by getWorkspaceTranslatedShape(), cached along with the Shape
+     * @return bounding rectangle (must not be modified), or null if the Shape is empty
+     */
+    Rectangle2D getExactWorkspaceBounds () {
+      Shape wShape = getWorkspaceTranslatedShape();
+      TransformCache cache = workCache;
+      return cache != null && cache.shape == wShape ? cache.getExactBounds() : BetterBoundingBox.getBounds(wShape);
     }
 
     /**
@@ -1725,65 +1939,51 @@ public class LaserCut extends JFrame {
     }
 
     /**
-     * Uses FlatteningPathIterator to convert the Shape into List of arrays of lines.  The size input Shape
-     * is assumed to be defined in inches, but the AffineTransform parameter can be used to scale up to the
-     * final render resolution.  Note: cubic and quadratic bezier curves calculate an approximaiton of the
-     * arc length of the curve to determine the number of line segments used to approximate the curve.
-     * @param shape Shape path to render
-     * @param scale used to scale from inches to the render resolution, such as Screen or Laser DPI.
-     * @param flatten controls how closely the line segments follow the curve (smaller is closer)
-     * @return List of array of lines
-     */
-    static List<Line2D.Double[]> transformShapeToLines (Shape shape, double scale, double flatten) {
-      // Convert Shape into a series of lines defining a path
-      List<Line2D.Double[]> paths = new ArrayList<>();
-      AffineTransform at = scale != 1.0 ? AffineTransform.getScaleInstance(scale, scale) : null;
-      ArrayList<Line2D.Double> lines = new ArrayList<>();
-      // Use FlatteningPathIterator to convert to line segments
-      PathIterator pi = shape.getPathIterator(at);
-      FlatteningPathIterator fpi = new FlatteningPathIterator(pi, flatten, 8);
-      double[] coords = new double[4];
-      double lastX = 0, lastY = 0, firstX = 0, firstY = 0;
-      while (!fpi.isDone()) {
-        int type = fpi.currentSegment(coords);
-        switch (type) {
-          case FlatteningPathIterator.SEG_MOVETO:
-            if (lines.size() > 0) {
-              paths.add(lines.toArray(new Line2D.Double[0]));
-              lines = new ArrayList<>();
-            }
-            firstX = lastX = coords[0];
-            firstY = lastY = coords[1];
-            lines = new ArrayList<>();
+     * Use PathIterator to find coordinates where drawing will end for this shape
+     * Note: used by PathPlanner to optimise overall cutting path
+     * @return ending location for cut
+     */
+    Point2D.Double getEndCoords () {
+      PathIterator pi = getWorkspaceTranslatedShape().getPathIterator(new AffineTransform());
+      double[] coords = new double[6];
+      double x = 0, y = 0, moveX = 0, moveY = 0;
+      for (; !pi.isDone(); pi.next()) {
+        switch (pi.currentSegment(coords)) {
+          case PathIterator.SEG_MOVETO:
+            x = moveX = coords[0];
+            y = moveY = coords[1];
             break;
-          case FlatteningPathIterator.SEG_LINETO:
-            lines.add(new Line2D.Double(lastX, lastY, coords[0], coords[1]));
-            lastX = coords[0];
-            lastY = coords[1];
+          case PathIterator.SEG_LINETO:
+            x = coords[0];
+            y = coords[1];
             break;
-          case FlatteningPathIterator.SEG_CLOSE:
-            if (lastX != firstX || lastY != firstY) {
-              lines.add(new Line2D.Double(lastX, lastY, firstX, firstY));
-            }
+          case PathIterator.SEG_QUADTO:
+            x = coords[2];
+            y = coords[3];
+            break;
+          case PathIterator.SEG_CUBICTO:
+            x = coords[4];
+            y = coords[5];
+            break;
+          case PathIterator.SEG_CLOSE:
+            x = moveX;
+            y = moveY;
             break;
         }
-        fpi.next();
-      }
-      if (lines.size() > 0) {
-        paths.add(lines.toArray(new Line2D.Double[0]));
-        lines = new ArrayList<>();
       }
-      return paths;
+      return new Point2D.Double(x, y);
     }
 
     /**
-     * Transform cadShape to workspace and return as list of arrays of line segments where each array
-     * in the list is the set of lines for a closed cadShape.
-     * @param scale scale factor
-     * @return list of arrays of line segments
+     * Transform cadShape to workspace and flatten it into a PolylineSet with a polyline for each subpath.
+     * The size of the Shape is in inches, but the scale parameter can be used to scale up to the final render
+     * resolution.
+     * @param scale used to scale from inches to the render resolution, such as Screen or Laser DPI.
+     * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+     * @return PolylineSet in scaled workspace coordinates
      */
-    List<Line2D.Double[]> getListOfScaledLines (double scale, double flatten) {
-      return transformShapeToLines(getWorkspaceTranslatedShape(), scale, flatten);
+    PolylineSet getScaledPolylines (double scale, double flatten) {
+      return PolylineSet.fromShape(getWorkspaceTranslatedShape(), scale, flatten);
     }
 
     /**
@@ -1793,13 +1993,9 @@ public class LaserCut extends JFrame {
      */
     void draw (Graphics g, double zoom) {
       Graphics2D g2 = (Graphics2D) g.create();
-      Shape dShape = getWorkspaceTranslatedShape();
-      // Resize Shape to scale and draw it
-      AffineTransform atScale = AffineTransform.getScaleInstance(zoom * SCREEN_PPI, zoom * SCREEN_PPI);
-      dShape = atScale.createTransformedShape(dShape);
       g2.setStroke(getShapeStroke(getStrokeWidth()));
       g2.setColor(getShapeColor());
-      g2.draw(dShape);
+      drawOutline(g2, zoom);
       g2.setStroke(new BasicStroke(getStrokeWidth()));
       if (!(this instanceof CNCPath)) {
         if (isSelected || this instanceof CADReference || this instanceof CADShapeSpline) {
@@ -1826,6 +2022,17 @@ public class LaserCut extends JFrame {
       g2.dispose();
     }
 
+    /**
+     * Draw the outline of cadShape with the color and stroke already set in g2
+     * @param g2 Graphics2D object
+     * @param zoom Zoom factor (ratio)
+     */
+    void drawOutline (Graphics2D g2, double zoom) {
+      // Resize Shape to scale and draw it
+      AffineTransform atScale = AffineTransform.getScaleInstance(zoom * SCREEN_PPI, zoom * SCREEN_PPI);
+      g2.draw(atScale.createTransformedShape(getWorkspaceTranslatedShape()));
+    }
+
     /**
      * Override in subclass, as needed
      * @return Color used to draw cadShape in its current state
@@ -1913,6 +2120,7 @@ public class LaserCut extends JFrame {
       if (!(this instanceof CNCPath)) {
         xLoc = newX;
         yLoc = newY;
+        invalidateCache();
         notifyChangeListeners();
       }
     }
@@ -1960,20 +2168,13 @@ public class LaserCut extends JFrame {
       // Scale Shape to Screen scale and scan all line segments in the cadShape
       Shape lShape = getWorkspaceTranslatedShape();
       // Compute slightly expanded bounding rectangle for cadShape
-      Rectangle2D bnds = lShape.getBounds2D();
+      Rectangle2D bnds = getWorkspaceBounds();
       bnds = new Rectangle2D.Double(bnds.getX() - .1, bnds.getY() - .1, bnds.getWidth() + .2, bnds.getHeight() + .2);
       // Check if point clicked is within  bounding rectangle of cadShape
       if (bnds.contains(point)) {
-        Point2D.Double sPoint = new Point2D.Double(point.x * zoomFactor * SCREEN_PPI, point.y * zoomFactor * SCREEN_PPI);
-        for (Line2D.Double[] lines : transformShapeToLines(lShape, zoomFactor * SCREEN_PPI, .01)) {
-          for (Line2D.Double line : lines) {
-            double dist = line.ptSegDist(sPoint);
-            // return true if any is closer than 5 pixels to point
-            if (dist < 5) {
-              return true;
-            }
-          }
-        }
+        double scale = zoomFactor * SCREEN_PPI;
+        // return true if any segment is closer than 5 pixels to point (curves flattened to 1/4 pixel at this zoom)
+        return PolylineSet.fromShape(lShape, scale, .25).isNear(point.x * scale, point.y * scale, 5);
       }
       return false;
     }
@@ -1988,6 +2189,7 @@ public class LaserCut extends JFrame {
 
     void updateShape () {
       builtShape = null;
+      invalidateCache();
       notifyChangeListeners();
     }
 
@@ -2066,6 +2268,7 @@ public class LaserCut extends JFrame {
           }
         }
         // Update cadShape's internal state after parameter edit
+        invalidateCache();
         updateStateAfterParameterEdit();
         if ("Place".equals(actionButton)) {
           Point dLoc = surface.getLocationOnScreen();
@@ -2091,7 +2294,7 @@ public class LaserCut extends JFrame {
                                                               "rotation|deg", "centered"));
       parmNames.addAll(Arrays.asList(getParameterNames()));
       boolean first = true;
-      Rectangle2D bnds = getShape().getBounds2D();
+      Rectangle2D bnds = getBuiltBounds();
       for (String name : parmNames) {
         ParameterDialog.ParmItem item = new ParameterDialog.ParmItem(name, null);
         if (!first) {
@@ -2263,7 +2466,11 @@ public class LaserCut extends JFrame {
     public boolean            engrave3D;
     public String             imagePpi;
     Dimension                 ppi;
-    transient BufferedImage   img;
+    transient byte[]          imgData;      // Encoded image, as read from the file or saved design
+    transient Dimension       imgSize;      // Pixel size of the full resolution image
+    transient BufferedImage   preview, greyPreview;
+    transient FutureTask<BufferedImage> imgLoader;
+    private static final int  PREVIEW_SIZE = 1200;
 
     CADRasterImage () {
       engrave = true;
@@ -2286,9 +2493,9 @@ public class LaserCut extends JFrame {
           laserCut.prefs.put("image.dir", imgFile.getAbsolutePath());
           ppi = getImageDPI(imgFile);
           imagePpi = ppi.width + "x" + ppi.height;
-          img = ImageIO.read(imgFile);
-          width = (double) img.getWidth() / ppi.width;
-          height = (double) img.getHeight() / ppi.height;
+          loadImageData(Files.readAllBytes(imgFile.toPath()));
+          width = (double) imgSize.width / ppi.width;
+          height = (double) imgSize.height / ppi.height;
           boolean placed = false;
           do {
             if (placeParameterDialog(surface, laserCut.displayUnits)) {
@@ -2318,8 +2525,8 @@ public class LaserCut extends JFrame {
 
     @Override
     protected List<String> getEditFields () {
-      width = (double) img.getWidth() / ppi.width * (scale / 100);
-      height = (double) img.getHeight() / ppi.height * (scale / 100);
+      width = (double) imgSize.width / ppi.width * (scale / 100);
+      height = (double) imgSize.height / ppi.height * (scale / 100);
       return Arrays.asList("xLoc|in", "yLoc|in", "*width|in", "*height|in", "*imagePpi", "rotation|deg",
                            "scale|%", "centered", "engrave", "engrave3D");
     }
@@ -2337,8 +2544,8 @@ public class LaserCut extends JFrame {
         JTextField hyt =  (JTextField) pNames.get("height").field;
         try {
           double ratio = Double.parseDouble(val) / 100.0;
-          double rawWid = (double) img.getWidth() / ppi.width;
-          double rawHyt = (double) img.getHeight() / ppi.height;
+          double rawWid = (double) imgSize.width / ppi.width;
+          double rawHyt = (double) imgSize.height / ppi.height;
           wid.setText(df.format(rawWid * ratio));
           hyt.setText(df.format(rawHyt * ratio));
         } catch (NumberFormatException ex) {
@@ -2357,8 +2564,8 @@ public class LaserCut extends JFrame {
     public void resize (double dx, double dy) {
       double newWid = centered ? dx * 2 : dx;
       double newHyt = centered ? dy * 2 : dy;
-      double rawWid = (double) img.getWidth() / ppi.width;
-      double rawHyt = (double) img.getHeight() / ppi.height;
+      double rawWid = (double) imgSize.width / ppi.width;
+      double rawHyt = (double) imgSize.height / ppi.height;
       double ratioX = newWid / rawWid;
       double ratioY = newHyt / rawHyt;
       double ratio = Math.min(ratioX, ratioY);
@@ -2371,8 +2578,8 @@ public class LaserCut extends JFrame {
 
     @Override
     void updateStateAfterParameterEdit () {
-      double rawWid = (double) img.getWidth() / ppi.width;
-      double rawHyt = (double) img.getHeight() / ppi.height;
+      double rawWid = (double) imgSize.width / ppi.width;
+      double rawHyt = (double) imgSize.height / ppi.height;
       double ratio = scale / 100.0;
       width = rawWid * ratio;
       height = rawHyt * ratio;
@@ -2383,25 +2590,32 @@ public class LaserCut extends JFrame {
       Graphics2D g2 =  (Graphics2D) g.create();
       BufferedImage bufimg;
       if (engrave) {
-        // Convert Image to greyscale
-        bufimg = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Graphics2D g2d = bufimg.createGraphics();
-        g2d.drawImage(img, 0, 0, null);
-        g2d.dispose();
+        // Convert preview Image to greyscale (only once, as the preview never changes)
+        if (greyPreview == null) {
+          greyPreview = new BufferedImage(preview.getWidth(), preview.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+          Graphics2D g2d = greyPreview.createGraphics();
+          g2d.drawImage(preview, 0, 0, null);
+          g2d.dispose();
+        }
+        bufimg = greyPreview;
       } else {
-        bufimg = img;
+        bufimg = preview;
       }
-      // Transform image for centering, rotation and scale
+      // Transform image for centering, rotation and scale (preview may be subsampled from the full size image)
+      double subX = (double) imgSize.width / bufimg.getWidth();
+      double subY = (double) imgSize.height / bufimg.getHeight();
       AffineTransform at = new AffineTransform();
       if (centered) {
         at.translate(xLoc * zoom * SCREEN_PPI, yLoc * zoom * SCREEN_PPI);
         at.scale(zoom * scale / 100 * SCREEN_PPI / ppi.width, zoom * scale / 100 * SCREEN_PPI / ppi.height);
         at.rotate(Math.toRadians(rotation));
-        at.translate(-bufimg.getWidth() / 2.0, -bufimg.getHeight() / 2.0);
+        at.translate(-imgSize.width / 2.0, -imgSize.height / 2.0);
+        at.scale(subX, subY);
       } else {
         at.translate(xLoc * zoom * SCREEN_PPI, yLoc * zoom * SCREEN_PPI);
         at.scale(zoom * scale / 100 * SCREEN_PPI / ppi.width, zoom * scale / 100 * SCREEN_PPI / ppi.height);
         at.rotate(Math.toRadians(rotation));
+        at.scale(subX, subY);
       }
       // Draw with 40% Alpha to make image semi transparent
       g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.4f));
@@ -2416,7 +2630,7 @@ public class LaserCut extends JFrame {
      * @return array of double where [0] is x scale and [1] is y scale
      */
     double[] getScale (double destPpi) {
-      return new double[] {(destPpi * width) / img.getWidth(), (destPpi * height) / img.getHeight()};
+      return new double[] {(destPpi * width) / imgSize.width, (destPpi * height) / imgSize.height};
     }
 
     /**
@@ -2428,8 +2642,8 @@ public class LaserCut extends JFrame {
     Rectangle2D getScaledRotatedBounds (double[] scale) {
       AffineTransform at = new AffineTransform();
       at.scale(scale[0], scale[1]);
-      at.rotate(Math.toRadians(rotation), (double) img.getWidth() / 2, (double) img.getHeight() / 2);
-      Rectangle2D.Double rect = new Rectangle2D.Double(0, 0, img.getWidth(), img.getHeight());
+      at.rotate(Math.toRadians(rotation), (double) imgSize.width / 2, (double) imgSize.height / 2);
+      Rectangle2D.Double rect = new Rectangle2D.Double(0, 0, imgSize.width, imgSize.height);
       Path2D.Double tShape = (Path2D.Double) at.createTransformedShape(rect);
       return tShape.getBounds2D();
     }
@@ -2445,7 +2659,7 @@ public class LaserCut extends JFrame {
       AffineTransform at = new AffineTransform();
       at.translate(-bb.getX(), -bb.getY());
       at.scale(scale[0], scale[1]);
-      at.rotate(Math.toRadians(rotation), (double) img.getWidth() / 2, (double) img.getHeight() / 2);
+      at.rotate(Math.toRadians(rotation), (double) imgSize.width / 2, (double) imgSize.height / 2);
       return at;
     }
 
@@ -2486,8 +2700,8 @@ public class LaserCut extends JFrame {
       at = new AffineTransform();
       at.translate(-bb.getX(), -bb.getY());
       at.scale(scale[0], scale[1]);
-      at.rotate(Math.toRadians(rotation), (double) img.getWidth() / 2, (double) img.getHeight() / 2);
-      g2.drawImage(img, at, null);
+      at.rotate(Math.toRadians(rotation), (double) imgSize.width / 2, (double) imgSize.height / 2);
+      g2.drawImage(getImage(), at, null);
       return bufImg;
     }
 
@@ -2497,18 +2711,114 @@ public class LaserCut extends JFrame {
       return at.createTransformedShape(new Rectangle2D.Double(-width / 2, -height / 2, width, height));
     }
 
-    // Custom write serializer for BufferedImage
+    /**
+     * Trace the outlines of the dark areas of the full resolution image into a CADShape that lines up with the image
+     * @param threshold brightness (0-255) below which a pixel is traced as part of the artwork
+     * @param tolerance maximum distance (in pixels) of the fitted curves from the edges of the traced pixels
+     * @return new CADShape containing one closed outline per traced contour
+     */
+    CADShape traceOutlines (int threshold, double tolerance) {
+      Path2D.Double path = RasterTracer.trace(getImage(), threshold, tolerance, 4);
+      AffineTransform at = AffineTransform.getScaleInstance(width / imgSize.width, height / imgSize.height);
+      at.translate(-imgSize.width / 2.0, -imgSize.height / 2.0);
+      Point2D.Double loc = new Point2D.Double(width / 2, height / 2);
+      if (centered) {
+        loc.setLocation(xLoc, yLoc);
+      } else {
+        // Traced shape is always centered, so move its origin to the center of the image
+        AffineTransform.getRotateInstance(Math.toRadians(rotation)).transform(loc, loc);
+        loc.setLocation(xLoc + loc.x, yLoc + loc.y);
+      }
+      CADShape traced = new CADShape(at.createTransformedShape(path), loc.x, loc.y, rotation, true);
+      traced.engrave = engrave;
+      return traced;
+    }
+
+    /**
+     * Keep the encoded image data and decode only a subsampled preview of it for display and placement.
+     * The full resolution image is decoded later, in the background, by getImage()
+     * @param data encoded image data (any format ImageIO can read)
+     * @throws IOException if image format is not supported, or image can't be decoded
+     */
+    private void loadImageData (byte[] data) throws IOException {
+      ImageInputStream iis = new MemoryCacheImageInputStream(new ByteArrayInputStream(data));
+      try {
+        Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+        if (!it.hasNext()) {
+          throw new IOException("Unsupported image format");
+        }
+        ImageReader reader = it.next();
+        try {
+          reader.setInput(iis, true, true);
+          imgSize = new Dimension(reader.getWidth(0), reader.getHeight(0));
+          int step = Math.max(1, (int) Math.ceil((double) Math.max(imgSize.width, imgSize.height) / PREVIEW_SIZE));
+          ImageReadParam param = reader.getDefaultReadParam();
+          param.setSourceSubsampling(step, step, 0, 0);
+          preview = reader.read(0, param);
+          imgData = data;
+          greyPreview = null;
+          if (step == 1) {
+            // Preview is the full resolution image, so no need to decode it again
+            BufferedImage full = preview;
+            imgLoader = new FutureTask<>(() -> full);
+            imgLoader.run();
+          } else {
+            imgLoader = null;
+          }
+        } finally {
+          reader.dispose();
+        }
+      } finally {
+        iis.close();
+      }
+    }
+
+    /**
+     * Start decoding the full resolution image on a background thread, if not already started
+     * @return Future which will hold the decoded image
+     */
+    synchronized Future<BufferedImage> loadImage () {
+      if (imgLoader == null) {
+        byte[] data = imgData;
+        imgLoader = new FutureTask<>(() -> ImageIO.read(new ByteArrayInputStream(data)));
+        Thread loader = new Thread(imgLoader, "Image Loader");
+        loader.setDaemon(true);
+        loader.start();
+      }
+      return imgLoader;
+    }
+
+    /**
+     * Get the full resolution image, waiting for the background decode to finish, if needed
+     * Note: used by ZingLaser and MiniLaser when engraving
+     * @return full resolution BufferedImage
+     */
+    BufferedImage getImage () {
+      try {
+        return loadImage().get();
+      } catch (InterruptedException | ExecutionException ex) {
+        throw new IllegalStateException("Unable to decode image", ex);
+      }
+    }
+
+    // Custom write serializer for image (writes the encoded image data as-is, so no decode/encode is needed)
     private void writeObject(ObjectOutputStream out) throws IOException {
       out.defaultWriteObject();
-      ImageIO.write(img, "png", out);
+      out.write(imgData);
     }
 
-    // Custom read serializer for BufferedImage
+    // Custom read serializer for image (image data is the remainder of this object's custom data)
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
       in.defaultReadObject();
-      img = ImageIO.read(in);
-      width = (double) img.getWidth() / ppi.width * (scale / 100);
-      height = (double) img.getHeight() / ppi.height * (scale / 100);
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int len;
+      while ((len = in.read(buf)) > 0) {
+        bout.write(buf, 0, len);
+      }
+      loadImageData(bout.toByteArray());
+      width = (double) imgSize.width / ppi.width * (scale / 100);
+      height = (double) imgSize.height / ppi.height * (scale / 100);
     }
 
     @Override
@@ -3318,6 +3628,26 @@ public class LaserCut extends JFrame {
       return at.createTransformedShape(getLocallyTransformedShape());
     }
 
+    /**
+     * Unless rotated, the workspace Shape is the built Shape offset and scaled, so its exact bounds are too
+     */
+    @Override
+    Rectangle2D getExactWorkspaceBounds () {
+      Rectangle2D bnds = getExactBuiltBounds();
+      if (rotation != 0 || bnds == null) {
+        return super.getExactWorkspaceBounds();
+      }
+      double xOff = bnds.getX(), yOff = bnds.getY();
+      if (!centered) {
+        Rectangle2D built = getBuiltBounds();
+        xOff += built.getWidth() / 2;
+        yOff += built.getHeight() / 2;
+      }
+      double factor = scale / 100.0;
+      return new Rectangle2D.Double(xLoc + xOff * factor, yLoc + yOff * factor, bnds.getWidth() * factor,
+                                    bnds.getHeight() * factor);
+    }
+
     @Override
     protected List<String> getPlaceFields () {
       ArrayList<String> list = new ArrayList(super.getPlaceFields());
@@ -3333,6 +3663,330 @@ public class LaserCut extends JFrame {
     }
   }
 
+  /**
+   * Step and repeat array of a single source shape.  Only the source shape and the grid parameters are stored,
+   * and the array's Shape is a RepeatedShape that iterates the source once per copy, so neither the design nor
+   * the geometry held in memory grows with the number of copies.  Drawing and hit testing use the source at each
+   * offset, and output devices can call getSourceShape() and getOffsets() to flatten the source once and then
+   * emit translated copies of the result.
+   */
+  static class CADShapeArray extends CADShape implements Serializable {
+    private static final long serialVersionUID = 5028836915470562194L;
+    private CADShape  source;
+    public int        rows, columns;
+    public double     xSpacing, ySpacing;
+
+    /**
+     * Create an array with the first copy at the source shape's location
+     * @param source shape to repeat (should not be used elsewhere in the design)
+     * @param rows number of rows
+     * @param columns number of columns
+     * @param xSpacing distance between columns (inches)
+     * @param ySpacing distance between rows (inches)
+     */
+    CADShapeArray (CADShape source, int rows, int columns, double xSpacing, double ySpacing) {
+      super(source.xLoc, source.yLoc);
+      this.source = source;
+      this.rows = Math.max(rows, 1);
+      this.columns = Math.max(columns, 1);
+      this.xSpacing = xSpacing;
+      this.ySpacing = ySpacing;
+      centered = source.centered;
+      engrave = source.engrave;
+    }
+
+    @Override
+    String getName () {
+      return "Array";
+    }
+
+    CADShape getSource () {
+      return source;
+    }
+
+    /**
+     * Get the source shape translated to the workspace position of the first copy
+     * @return Shape
+     */
+    Shape getSourceShape () {
+      AffineTransform at = AffineTransform.getTranslateInstance(xLoc - source.xLoc, yLoc - source.yLoc);
+      return at.createTransformedShape(source.getWorkspaceTranslatedShape());
+    }
+
+    /**
+     * Get the offset of each copy from the first copy, ordered row by row in alternating directions so
+     * that consecutive copies are always adjacent
+     * @return array of x/y offset pairs (inches)
+     */
+    double[] getOffsets () {
+      int rows = Math.max(this.rows, 1);
+      int cols = Math.max(columns, 1);
+      double[] offsets = new double[rows * cols * 2];
+      int idx = 0;
+      for (int row = 0; row < rows; row++) {
+        for (int ii = 0; ii < cols; ii++) {
+          int col = (row & 1) == 0 ? ii : cols - 1 - ii;
+          offsets[idx++] = col * xSpacing;
+          offsets[idx++] = row * ySpacing;
+        }
+      }
+      return offsets;
+    }
+
+    /**
+     * Get the bounds of the whole array relative to the first copy's xLoc/yLoc, computed from the bounds of the
+     * source and the range of the offsets, so the copies never need to be iterated
+     * @param src workspace bounds of the source shape
+     * @return bounding rectangle
+     */
+    private Rectangle2D getArrayBounds (Rectangle2D src) {
+      double cols = Math.max(columns, 1) - 1, rows = Math.max(this.rows, 1) - 1;
+      double minX = Math.min(0, cols * xSpacing), minY = Math.min(0, rows * ySpacing);
+      double wid = src.getWidth() + Math.abs(cols * xSpacing), hyt = src.getHeight() + Math.abs(rows * ySpacing);
+      return new Rectangle2D.Double(src.getX() - source.xLoc + minX, src.getY() - source.yLoc + minY, wid, hyt);
+    }
+
+    @Override
+    Shape buildShape () {
+      // Shape of whole array relative to the first copy's xLoc/yLoc
+      Shape base = AffineTransform.getTranslateInstance(-source.xLoc, -source.yLoc)
+                                  .createTransformedShape(source.getWorkspaceTranslatedShape());
+      return new RepeatedShape(base, getOffsets());
+    }
+
+    @Override
+    protected Shape getLocallyTransformedShape () {
+      return getShape();
+    }
+
+    @Override
+    protected Shape getWorkspaceTranslatedShape () {
+      return new RepeatedShape(getSourceShape(), getOffsets());
+    }
+
+    @Override
+    Rectangle2D getBuiltBounds () {
+      return getArrayBounds(source.getWorkspaceBounds());
+    }
+
+    @Override
+    Rectangle2D getWorkspaceBounds () {
+      Rectangle2D bounds = getArrayBounds(source.getWorkspaceBounds());
+      return new Rectangle2D.Double(bounds.getX() + xLoc, bounds.getY() + yLoc, bounds.getWidth(), bounds.getHeight());
+    }
+
+    @Override
+    Rectangle2D getExactWorkspaceBounds () {
+      Rectangle2D src = source.getExactWorkspaceBounds();
+      if (src == null) {
+        return null;
+      }
+      Rectangle2D bounds = getArrayBounds(src);
+      return new Rectangle2D.Double(bounds.getX() + xLoc, bounds.getY() + yLoc, bounds.getWidth(), bounds.getHeight());
+    }
+
+    @Override
+    Rectangle2D getShapeBounds () {
+      return getWorkspaceBounds();
+    }
+
+    /**
+     * Draws the source shape once per copy with a translated Graphics2D
+     */
+    @Override
+    void drawOutline (Graphics2D g2, double zoom) {
+      double scale = zoom * SCREEN_PPI;
+      Shape base = AffineTransform.getScaleInstance(scale, scale).createTransformedShape(getSourceShape());
+      double[] offsets = getOffsets();
+      for (int ii = 0; ii < offsets.length; ii += 2) {
+        Graphics2D g3 = (Graphics2D) g2.create();
+        g3.translate(offsets[ii] * scale, offsets[ii + 1] * scale);
+        g3.draw(base);
+        g3.dispose();
+      }
+    }
+
+    /**
+     * Flattens the source shape once, then checks the point against it translated back by each copy's offset
+     */
+    @Override
+    boolean isShapeClicked (Point2D.Double point, double zoomFactor) {
+      Rectangle2D bnds = getWorkspaceBounds();
+      bnds = new Rectangle2D.Double(bnds.getX() - .1, bnds.getY() - .1, bnds.getWidth() + .2, bnds.getHeight() + .2);
+      if (!bnds.contains(point)) {
+        return false;
+      }
+      Shape base = getSourceShape();
+      Rectangle2D src = source.getExactWorkspaceBounds();
+      if (src == null) {
+        return false;
+      }
+      // Source bounds moved to the first copy's position, as for getSourceShape()
+      double dx = xLoc - source.xLoc, dy = yLoc - source.yLoc;
+      src = new Rectangle2D.Double(src.getX() + dx - .1, src.getY() + dy - .1, src.getWidth() + .2,
+                                   src.getHeight() + .2);
+      double scale = zoomFactor * SCREEN_PPI;
+      PolylineSet lines = null;
+      double[] offsets = getOffsets();
+      for (int ii = 0; ii < offsets.length; ii += 2) {
+        double x = point.x - offsets[ii], y = point.y - offsets[ii + 1];
+        if (src.contains(x, y)) {
+          if (lines == null) {
+            lines = PolylineSet.fromShape(base, scale, .25);
+          }
+          if (lines.isNear(x * scale, y * scale, 5)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Flattens the source shape once and then replicates the lines for each copy
+     */
+    @Override
+    PolylineSet getScaledPolylines (double scale, double flatten) {
+      PolylineSet base = PolylineSet.fromShape(getSourceShape(), scale, flatten);
+      PolylineSet paths = new PolylineSet();
+      double[] offsets = getOffsets();
+      for (int ii = 0; ii < offsets.length; ii += 2) {
+        paths.append(base, offsets[ii] * scale, offsets[ii + 1] * scale);
+      }
+      return paths;
+    }
+
+    @Override
+    protected List<String> getEditFields () {
+      return Arrays.asList("xLoc|in", "yLoc|in", "engrave");
+    }
+
+    /**
+     * Shape made of copies of a base Shape at a list of offsets.  Only the base Shape is stored, and its path is
+     * iterated once per copy, so the memory used doesn't grow with the number of copies.
+     */
+    private static class RepeatedShape implements Shape {
+      private final Shape     base;
+      private final double[]  offsets;        // x/y offset pairs, as returned by getOffsets()
+
+      private RepeatedShape (Shape base, double[] offsets) {
+        this.base = base;
+        this.offsets = offsets;
+      }
+
+      public Rectangle getBounds () {
+        return getBounds2D().getBounds();
+      }
+
+      public Rectangle2D getBounds2D () {
+        Rectangle2D bnds = base.getBounds2D();
+        double minX = 0, minY = 0, maxX = 0, maxY = 0;
+        for (int ii = 0; ii < offsets.length; ii += 2) {
+          minX = Math.min(minX, offsets[ii]);
+          minY = Math.min(minY, offsets[ii + 1]);
+          maxX = Math.max(maxX, offsets[ii]);
+          maxY = Math.max(maxY, offsets[ii + 1]);
+        }
+        return new Rectangle2D.Double(bnds.getX() + minX, bnds.getY() + minY, bnds.getWidth() + maxX - minX,
+                                      bnds.getHeight() + maxY - minY);
+      }
+
+      public boolean contains (double x, double y) {
+        for (int ii = 0; ii < offsets.length; ii += 2) {
+          if (base.contains(x - offsets[ii], y - offsets[ii + 1])) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      public boolean contains (Point2D p) {
+        return contains(p.getX(), p.getY());
+      }
+
+      public boolean intersects (double x, double y, double w, double h) {
+        for (int ii = 0; ii < offsets.length; ii += 2) {
+          if (base.intersects(x - offsets[ii], y - offsets[ii + 1], w, h)) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      public boolean intersects (Rectangle2D r) {
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+      }
+
+      // Note: only true if the rectangle is inside a single copy
+      public boolean contains (double x, double y, double w, double h) {
+        for (int ii = 0; ii < offsets.length; ii += 2) {
+          if (base.contains(x - offsets[ii], y - offsets[ii + 1], w, h)) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      public boolean contains (Rectangle2D r) {
+        return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+      }
+
+      public PathIterator getPathIterator (AffineTransform at) {
+        return new PathIterator() {
+          private int           copy;
+          private PathIterator  pi = getCopyIterator(0);
+
+          {
+            skipEmpty();
+          }
+
+          private PathIterator getCopyIterator (int copy) {
+            AffineTransform tx = at != null ? new AffineTransform(at) : new AffineTransform();
+            tx.translate(offsets[copy * 2], offsets[copy * 2 + 1]);
+            return base.getPathIterator(tx);
+          }
+
+          // Move on to the next copy when the current one is done
+          private void skipEmpty () {
+            while (pi.isDone() && (copy + 1) * 2 < offsets.length) {
+              pi = getCopyIterator(++copy);
+            }
+          }
+
+          public int getWindingRule () {
+            return pi.getWindingRule();
+          }
+
+          public boolean isDone () {
+            return pi.isDone();
+          }
+
+          public void next () {
+            pi.next();
+            skipEmpty();
+          }
+
+          public int currentSegment (float[] coords) {
+            return pi.currentSegment(coords);
+          }
+
+          public int currentSegment (double[] coords) {
+            return pi.currentSegment(coords);
+          }
+        };
+      }
+
+      public PathIterator getPathIterator (AffineTransform at, double flatness) {
+        return new FlatteningPathIterator(getPathIterator(at), flatness);
+      }
+    }
+
+    @Override
+    String[] getParameterNames () {
+      return new String[]{"rows", "columns", "xSpacing|in", "ySpacing|in"};
+    }
+  }
+
   static class CADShapeSpline extends CADShape implements Serializable, StateMessages, Rotatable {
     private static final long serialVersionUID = 1175193935200692376L;
     private List<Point2D.Double>  points = new ArrayList<>();
@@ -3428,14 +4082,16 @@ public class LaserCut extends JFrame {
       Point2D.Double mse = rotatePoint(new Point2D.Double(point.x - xLoc, point.y - yLoc), -rotation);
       int idx = 1;
       Point2D.Double chk = points.get(idx);
-      for (Line2D.Double[] lines : transformShapeToLines(getShape(), 1, .01)) {
-        for (Line2D.Double line : lines) {
-          double dist = line.ptSegDist(mse) * SCREEN_PPI;
+      PolylineSet lines = PolylineSet.fromShape(getShape(), 1, .25 / SCREEN_PPI);
+      for (int pp = 0; pp < lines.size(); pp++) {
+        for (int ii = lines.getStart(pp) + 1; ii < lines.getEnd(pp); ii++) {
+          double x2 = lines.getX(ii), y2 = lines.getY(ii);
+          double dist = Line2D.ptSegDist(lines.getX(ii - 1), lines.getY(ii - 1), x2, y2, mse.x, mse.y) * SCREEN_PPI;
           if (dist < 5) {
             return idx - 1;
           }
           // Advance idx as we pass control points
-          if (idx < points.size() && chk.distance(line.getP2()) < .000001) {
+          if (idx < points.size() && chk.distance(x2, y2) < .000001) {
             chk = points.get(Math.min(points.size() - 1, ++idx));
           }
         }
@@ -3623,6 +4279,7 @@ public class LaserCut extends JFrame {
     private CADShape  baseShape;
     public double     radius;
     public boolean    inset;
+    public String     join = "round";
 
     CNCPath (CADShape base, double radius, boolean inset) {
       this.baseShape = base;
@@ -3637,10 +4294,13 @@ public class LaserCut extends JFrame {
     }
 
     /*
-     * Reattach ChangeListener after deserialization
+     * Reattach ChangeListener after deserialization, and default join for paths saved before it was added
      */
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
       in.defaultReadObject();
+      if (join == null) {
+        join = "round";
+      }
       baseShape.addChangeListener(this);
     }
 
@@ -3650,7 +4310,8 @@ public class LaserCut extends JFrame {
 
     @Override
     protected List<String> getEditFields () {
-      return Arrays.asList("radius|in{radius of tool}", "inset{If checked, toolpath is inside cadShape, else outside}");
+      return Arrays.asList("radius|in{radius of tool}", "inset{If checked, toolpath is inside cadShape, else outside}",
+                           "join:round:miter:square{shape of toolpath around corners}");
     }
 
     @Override
@@ -3671,7 +4332,7 @@ public class LaserCut extends JFrame {
       at.rotate(Math.toRadians(rotation));
       if (!centered) {
         // Translate relative to the baseShape's coordinates so the generated cnc path aligns with it
-        Rectangle2D bounds = baseShape.getShape().getBounds2D();
+        Rectangle2D bounds = baseShape.getBuiltBounds();
         at.translate(bounds.getWidth() / 2, bounds.getHeight() / 2);
       }
       return at.createTransformedShape(dShape);
@@ -3683,36 +4344,7 @@ public class LaserCut extends JFrame {
       yLoc = baseShape.yLoc;
       centered = baseShape.centered;
       rotation = baseShape.rotation;
-      Path2D.Double path = new Path2D.Double();
-      boolean first = true;
-      for (Line2D.Double[] lines : transformShapeToLines(baseShape.getShape(), 1.0, .01)) {
-        if (false) {
-          DecimalFormat df = new DecimalFormat("#.###");
-          for (Line2D.Double line : lines) {
-            if (line.x1 == line.x2 && line.y1 == line.y2) {
-              int dum = 0;
-            } else {
-              double x1 = (line.x1 + .15) * 4000;
-              double y1 = (line.y1 + .15) * 4000;
-              double x2 = (line.x2 + .15) * 4000;
-              double y2 = (line.y2 + .15) * 4000;
-            }
-          }
-        }
-        Point2D.Double[] points = CNCTools.pruneOverlap(CNCTools.getParallelPath(lines, radius, !inset));
-        for (Point2D.Double point : points) {
-          if (first) {
-            path.moveTo(point.x, point.y);
-            first = false;
-          } else {
-            path.lineTo(point.x, point.y);
-          }
-        }
-        // Connect back to beginning
-        path.lineTo(points[0].x, points[0].y);
-        first = true;
-      }
-      return path;
+      return CNCTools.getOffsetShape(baseShape.getShape(), inset ? -radius : radius, join, GRBLBase.MIN_FLATNESS);
     }
   }
 
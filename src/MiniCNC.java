@@ -42,7 +42,6 @@
   import javax.swing.*;
   import java.awt.*;
   import java.awt.event.ActionEvent;
-  import java.awt.geom.Line2D;
   import java.awt.geom.Rectangle2D;
   import java.text.DecimalFormat;
   import java.util.ArrayList;
@@ -102,18 +101,21 @@
             int feed = getInt("feed", MINI_CNC_FEED_DEFAULT);
             feed = Math.max(1, feed);                                       // Min feed = 1 inches/min
             DecimalFormat fmt = new DecimalFormat("#.#####");
+            double flatten = getFlatness();
             for (LaserCut.CADShape shape : laserCut.surface.selectCncItems()) {
-              for (Line2D.Double[] lines : shape.getListOfScaledLines(1, .001)) {
-                String x1 = fmt.format(lines[0].x1);
-                String y1 = fmt.format(lines[0].y1);
+              PolylineSet lines = shape.getScaledPolylines(1, flatten);
+              for (int pp = 0; pp < lines.size(); pp++) {
+                int start = lines.getStart(pp);
+                String x1 = fmt.format(lines.getX(start));
+                String y1 = fmt.format(lines.getY(start));
                 String z1 = fmt.format(zDepth);
                 cmds.add("S" + rpm);                                        // Set Spindle RPM (0 - 1000)
                 cmds.add("F" + feed);                                       // Set feed rate (inches/minute)
                 cmds.add("G00X" + x1 + "Y" + y1);                           // Fast Move to first x1 y1
                 cmds.add("G01Z" + z1);                                      // Slow Move Z Axis down to cutting position
-                for (Line2D.Double line : lines) {
-                  String x2 = fmt.format(line.x2);
-                  String y2 = fmt.format(line.y2);
+                for (int ii = start + 1; ii < lines.getEnd(pp); ii++) {
+                  String x2 = fmt.format(lines.getX(ii));
+                  String y2 = fmt.format(lines.getY(ii));
                   cmds.add("G01X" + x2 + "Y" + y2);                         // Slow cut Line to next x2 y2
                 }
               }
@@ -2,7 +2,6 @@ import javax.swing.*;
 import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -65,6 +64,7 @@ import static javax.swing.JOptionPane.*;
 class MiniCutter implements LaserCut.OutputDevice {
   private static final int      MINI_PAPER_CUTTER_DEFAULT_SPEED = 90;           // Max feed rate (inches/min)
   private static final int      MINI_PAPER_CUTTER_MAX_SPEED = 200;              // Max feed rate (inches/min)
+  private static final double   MINI_PAPER_CUTTER_FLATNESS = .001;              // Chord tolerance, same as G-code resolution (inches)
   private static final boolean  INVERT_Y_AXIS = false;
   private JSSCPort              jPort;
   private LaserCut              laserCut;
@@ -138,33 +138,20 @@ class MiniCutter implements LaserCut.OutputDevice {
           DecimalFormat fmt = new DecimalFormat("#.###");
           for (LaserCut.CADShape shape : shapes) {
             if (!(shape instanceof LaserCut.CADRasterImage)) {
+              PolylineSet lines = shape.getScaledPolylines(1, MINI_PAPER_CUTTER_FLATNESS);
               for (int ii = 0; ii < iterations; ii++) {
-                double lastX = 0, lastY = 0;
-                for (Line2D.Double[] lines : shape.getListOfScaledLines(1, .001)) {
-                  boolean first = true;
-                  for (Line2D.Double line : lines) {
-                    String x1 = fmt.format(line.x1);
-                    String y1 = fmt.format(INVERT_Y_AXIS ? 12 - line.y1 : line.y1);
-                    String x2 = fmt.format(line.x2);
-                    String y2 = fmt.format(INVERT_Y_AXIS ? 12 - line.y2 : line.y2);
-                    if (first) {
-                      cmds.add("M05");                                                        // Tool Up
-                      cmds.add("G00 X" + x1 + " Y" + y1);                                     // Move to x1 y1 with tool up
-                      cmds.add("M03");                                                        // Tool Down
-                      cmds.add("G01 X" + x2 + " Y" + y2);                                     // Draw Line to x2 y2
-                      first = false;
-                    } else {
-                      if (lastX != line.x1 || lastY != line.y1) {
-                        cmds.add("M05");                                                      // Tool Up
-                        cmds.add("G00 X" + x1 + " Y" + y1);                                   // Move to x1 y1 with tool up
-                        cmds.add("M03");                                                      // Tool Down
-                        cmds.add("G01 X" + x2 + " Y" + y2);                                   // Draw Line to x2 y2
-                      } else {
-                        cmds.add("G01 X" + x2 + " Y" + y2);                                   // Draw Line to x2 y2
-                      }
-                    }
-                    lastX = line.x2;
-                    lastY = line.y2;
+                for (int pp = 0; pp < lines.size(); pp++) {
+                  // Each polyline is a connected path, so only its first point needs a move with the tool up
+                  int start = lines.getStart(pp);
+                  String x1 = fmt.format(lines.getX(start));
+                  String y1 = fmt.format(INVERT_Y_AXIS ? 12 - lines.getY(start) : lines.getY(start));
+                  cmds.add("M05");                                                            // Tool Up
+                  cmds.add("G00 X" + x1 + " Y" + y1);                                         // Move to x1 y1 with tool up
+                  cmds.add("M03");                                                            // Tool Down
+                  for (int jj = start + 1; jj < lines.getEnd(pp); jj++) {
+                    String x2 = fmt.format(lines.getX(jj));
+                    String y2 = fmt.format(INVERT_Y_AXIS ? 12 - lines.getY(jj) : lines.getY(jj));
+                    cmds.add("G01 X" + x2 + " Y" + y2);                                       // Draw Line to x2 y2
                   }
                 }
               }
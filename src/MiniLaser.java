@@ -2,7 +2,6 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -24,6 +23,7 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
   private static final int      MINI_DPI_DEFAULT = 200;       // Default Engraving DPI (dots/inch)
   private static final int      MINI_MAX_POWER = 255;         // Laser control value for 100% power
   private static final int      MINI_MAX_SPEED = 200;         // Max feed rate (inches/min)
+  private final JobCache<List<String>>  jobCache = new JobCache<>();
 
   MiniLaser (LaserCut laserCut) {
     super(laserCut);
@@ -76,81 +76,81 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
           engraveSpeed = Math.min(MINI_MAX_SPEED, engraveSpeed);                              // Min speed = 10 inches/min
           int engravePower = getInt("epower", MINI_EPOWER_DEFAULT) * MINI_MAX_POWER / 100;    // Max power == 255
           int engraveDpi = getInt("dpi", MINI_DPI_DEFAULT);
-          // Generate G_Code for GRBL 1.1
-          List<String> cmds = new ArrayList<>();
-          // Add starting G-codes
-          cmds.add("G20");                                                                    // Set Inches as Units
-          cmds.add("M05");                                                                    // Set Laser Off
-          // Process engraved items first, then cut items
-          List<LaserCut.CADShape> shapes = laserCut.surface.selectLaserItems(false, planPath);
-          shapes.addAll(laserCut.surface.selectLaserItems(true, planPath));
-          DecimalFormat fmt = new DecimalFormat("#.#####");
-          int lastSpeed = -1;
-          int lastPower = -1;
-          for (LaserCut.CADShape shape : shapes) {
-            if (shape instanceof LaserCut.CADRasterImage) {
-              RasterSettings settings = new RasterSettings(engraveDpi, engraveSpeed, 1, engravePower);
-              LaserCut.CADRasterImage raster = (LaserCut.CADRasterImage) shape;
-              List<String>  rList = toGCode(raster, settings);
-              cmds.addAll(rList);
-              lastSpeed = -1;
-              lastPower = -1;
-            } else {
-              String cmd = "";
-              if (shape.engrave) {
-                if (engravePower != lastPower) {
-                  cmd = "S" + engravePower;                                                   // Set Laser Power (0 - 255)
-                  lastPower = engravePower;
-                }
-                if (engraveSpeed != lastSpeed) {
-                  cmd += "F" + engraveSpeed;                                                  // Set feed rate (inches/min)
-                  lastSpeed = engraveSpeed;
-                }
+          // Reuse the G-code from the last send if neither the design nor the settings have changed
+          double flatten = getFlatness();
+          String key = JobCache.getKey(laserCut.surface.getDesignChecksum(), dynamicLaser, planPath, iterations,
+                                       cutSpeed, cutPower, engraveSpeed, engravePower, engraveDpi,
+                                       laserCut.surface.getCommonLineTolerance(), flatten);
+          List<String> cmds = jobCache.get(key);
+          if (cmds == null) {
+            cmds = new ArrayList<>();
+            // Generate G_Code for GRBL 1.1
+            // Add starting G-codes
+            cmds.add("G20");                                                                  // Set Inches as Units
+            cmds.add("M05");                                                                  // Set Laser Off
+            // Process engraved items first, then cut items
+            List<LaserCut.CADShape> shapes = laserCut.surface.selectLaserItems(false, planPath);
+            shapes.addAll(laserCut.surface.selectLaserItems(true, planPath));
+            DecimalFormat fmt = new DecimalFormat("#.#####");
+            int lastSpeed = -1;
+            int lastPower = -1;
+            for (LaserCut.CADShape shape : shapes) {
+              if (shape instanceof LaserCut.CADRasterImage) {
+                RasterSettings settings = new RasterSettings(engraveDpi, engraveSpeed, 1, engravePower);
+                LaserCut.CADRasterImage raster = (LaserCut.CADRasterImage) shape;
+                List<String>  rList = toGCode(raster, settings);
+                cmds.addAll(rList);
+                lastSpeed = -1;
+                lastPower = -1;
               } else {
-                if (cutPower != lastPower) {
-                  cmd = "S" + cutPower;                                                       // Set Laser Power (0 - 255)
-                  lastPower = cutPower;
+                String cmd = "";
+                if (shape.engrave) {
+                  if (engravePower != lastPower) {
+                    cmd = "S" + engravePower;                                                 // Set Laser Power (0 - 255)
+                    lastPower = engravePower;
+                  }
+                  if (engraveSpeed != lastSpeed) {
+                    cmd += "F" + engraveSpeed;                                                // Set feed rate (inches/min)
+                    lastSpeed = engraveSpeed;
+                  }
+                } else {
+                  if (cutPower != lastPower) {
+                    cmd = "S" + cutPower;                                                     // Set Laser Power (0 - 255)
+                    lastPower = cutPower;
+                  }
+                  if (cutSpeed != lastSpeed) {
+                    cmd += "F" + cutSpeed;                                                    // Set feed rate (inches/min)
+                    lastSpeed = cutSpeed;
+                  }
                 }
-                if (cutSpeed != lastSpeed) {
-                  cmd += "F" + cutSpeed;                                                      // Set feed rate (inches/min)
-                  lastSpeed = cutSpeed;
+                if (cmd.length() > 0) {
+                  cmds.add(cmd);
                 }
-              }
-              if (cmd.length() > 0) {
-                cmds.add(cmd);
-              }
-              for (int ii = 0; ii < iterations; ii++) {
-                double lastX = 0, lastY = 0;
-                for (Line2D.Double[] lines : shape.getListOfScaledLines(1, .001)) {
-                  boolean first = true;
-                  for (Line2D.Double line : lines) {
-                    String x1 = fmt.format(line.x1);
-                    String y1 = fmt.format(line.y1);
-                    String x2 = fmt.format(line.x2);
-                    String y2 = fmt.format(line.y2);
-                    if (first) {
-                      cmds.add("M05G00X" + x1 + "Y" + y1);                                    // Move to x1 y1 with laser off
-                      cmds.add((dynamicLaser ? "M04" : "M03") + "G01X" + x2 + "Y" + y2);      // Draw Line to x2 y2
-                      first = false;
-                    } else {
-                      if (lastX != line.x1 || lastY != line.y1) {
-                        cmds.add("M05G00X" + x1 + "Y" + y1);                                  // Move to x1 y1 with laser off
+                PolylineSet lines = shape.getScaledPolylines(1, flatten);
+                for (int ii = 0; ii < iterations; ii++) {
+                  for (int pp = 0; pp < lines.size(); pp++) {
+                    // Each polyline is a connected path, so only its first point needs a move with the laser off
+                    int start = lines.getStart(pp);
+                    cmds.add("M05G00X" + fmt.format(lines.getX(start)) + "Y" + fmt.format(lines.getY(start)));  // Move to x1 y1 with laser off
+                    for (int jj = start + 1; jj < lines.getEnd(pp); jj++) {
+                      String x2 = fmt.format(lines.getX(jj));
+                      String y2 = fmt.format(lines.getY(jj));
+                      if (jj == start + 1) {
                         cmds.add((dynamicLaser ? "M04" : "M03") + "G01X" + x2 + "Y" + y2);    // Draw Line to x2 y2
                       } else {
                         cmds.add("G01X" + x2 + "Y" + y2);                                     // Draw Line to x2 y2
                       }
                     }
-                    lastX = line.x2;
-                    lastY = line.y2;
                   }
                 }
+                cmds.add("M05");                                                              // Set Laser Off
               }
-              cmds.add("M05");                                                                // Set Laser Off
             }
+            // Add ending G-codes
+            cmds.add("M5");                                                                   // Set Laser Off
+            cmds.add("G00X0Y0");                                                              // Move back to Origin
+            jobCache.put(key, cmds);
           }
-          // Add ending G-codes
-          cmds.add("M5");                                                                     // Set Laser Off
-          cmds.add("G00X0Y0");                                                                // Move back to Origin
           try {
             new GRBLSender(cmds.toArray(new String[0]),
                           new String[]{"M5", "G00X0Y0"});                                     // Abort commands
@@ -237,7 +237,7 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
   }
 
   static private List<String> toGCode (LaserCut.CADRasterImage cadRaster, RasterSettings settings) {
-    BufferedImage imgIn = cadRaster.img;
+    BufferedImage imgIn = cadRaster.getImage();
     double xSize = cadRaster.width;
     double ySize = cadRaster.height;
     if (settings == null) {
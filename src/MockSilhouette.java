@@ -0,0 +1,442 @@
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * MockSilhouette: In-memory stand-in for a Silhouette cutter that implements USBTransport, so the Silhouette
+ * send pipeline (command batching and async transfers) can be regression tested and benchmarked without
+ * hardware.  The mock parses the 0x03 terminated command stream into a command buffer of limited size, answers
+ * status queries and the other queries Silhouette.JobSender makes, and models the time taken by the USB link
+ * and by the carriage motion each command causes, so it reports when the host let the device run out of
+ * commands, or when the device's buffer filled up (and it stopped accepting data until it had room).
+ *
+ * Timing model:
+ *   USB link: linkRate bytes/second, plus TRANSFER_LATENCY for each transfer started while the link is idle
+ *   Motion: distance / speed, where the "!n" command sets speed to n * 10 cm/second, plus CMD_TIME per command
+ * All modeled delays are multiplied by timeScale, so 0.1 runs a job 10x faster than the real device would.
+ */
+
+public class MockSilhouette implements USBTransport {
+  private static final int    PACKET_SIZE = 64;                 // Full speed bulk endpoint
+  private static final double UNITS_PER_CM = 508 / 2.54;        // Silhouette units
+  private static final long   TRANSFER_LATENCY = 1000000;       // One USB frame (ns)
+  private static final long   CMD_TIME = 200000;                // Time to parse and plan each command (ns)
+  private final int           bufferSize;
+  private final double        linkRate;
+  private final double        timeScale;
+  private final Thread        motion;
+  private volatile boolean    running = true;
+  // Device state (guarded by this)
+  private final StringBuilder cmd = new StringBuilder();        // Command being received
+  private boolean             escape;
+  private final ArrayDeque<String> buffer = new ArrayDeque<>();
+  private int                 buffered;                         // Bytes in buffer
+  private boolean             busy, started;
+  private double              curX, curY, speed = 5 * 10 * UNITS_PER_CM;
+  private final LinkedBlockingQueue<byte[]> replies = new LinkedBlockingQueue<>();
+  // Async transfer state
+  private ByteBuffer[]        xferBufs;
+  private Callback            callback;
+  private volatile boolean[]  cancelled;
+  private final LinkedBlockingDeque<int[]> submitted = new LinkedBlockingDeque<>();
+  private volatile boolean    linkBusy;
+  // Stats (guarded by this)
+  private final CRC32         crc = new CRC32();
+  private long                bytesReceived, motionTime, idleStart, idleTime;
+  private int                 commands, statusQueries, bufferFull, maxBuffered, parseErrors;
+
+  /**
+   * Create a mock device
+   * @param bufferSize size of the device's command buffer (bytes)
+   * @param linkRate USB throughput (bytes/second), such as 1000000 for a full speed device
+   * @param timeScale multiplies all modeled delays (0 = no delays)
+   */
+  MockSilhouette (int bufferSize, double linkRate, double timeScale) {
+    this.bufferSize = bufferSize;
+    this.linkRate = linkRate;
+    this.timeScale = timeScale;
+    motion = new Thread(this::runMotion, "Mock Silhouette");
+    motion.setDaemon(true);
+    motion.start();
+  }
+
+  /*
+   * * * * * * * Implement USBTransport * * * * * * * *
+   */
+
+  public int getPacketSize () {
+    return PACKET_SIZE;
+  }
+
+  public int write (ByteBuffer data, int timeout) {
+    // Like libusb, transfers on an endpoint complete in the order they were submitted
+    while (!submitted.isEmpty() || linkBusy) {
+      LockSupport.parkNanos(100000);
+    }
+    delay(TRANSFER_LATENCY);
+    return receive(data, data.capacity(), System.nanoTime() + timeout * 1000000L, -1);
+  }
+
+  public int read (ByteBuffer data, int timeout) {
+    try {
+      byte[] reply = replies.poll(timeout, TimeUnit.MILLISECONDS);
+      if (reply != null) {
+        int count = Math.min(reply.length, data.remaining());
+        data.put(reply, 0, count);
+        data.flip();
+        return count;
+      }
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
+    }
+    return -7;                                    // LibUsb.ERROR_TIMEOUT
+  }
+
+  public void allocTransfers (ByteBuffer[] buffers, Callback callback) {
+    this.xferBufs = buffers;
+    this.callback = callback;
+    cancelled = new boolean[buffers.length];
+  }
+
+  public int submitTransfer (int slot, int length) {
+    cancelled[slot] = false;
+    synchronized (submitted) {
+      if (submitted.isEmpty() && !linkBusy) {
+        length |= Integer.MIN_VALUE;              // Flag transfer as starting on an idle link
+      }
+      submitted.add(new int[] {slot, length});
+    }
+    return 0;
+  }
+
+  public void cancelTransfer (int slot) {
+    cancelled[slot] = true;
+  }
+
+  public int handleEvents (long timeout) {
+    try {
+      int[] xfer;
+      synchronized (submitted) {
+        xfer = submitted.poll();
+        linkBusy = xfer != null;
+      }
+      if (xfer == null) {
+        xfer = submitted.poll(timeout, TimeUnit.MICROSECONDS);
+        linkBusy = xfer != null;
+      }
+      if (xfer != null) {
+        int slot = xfer[0];
+        if (xfer[1] < 0) {
+          delay(TRANSFER_LATENCY);
+        }
+        int length = xfer[1] & Integer.MAX_VALUE;
+        int count = cancelled[slot] ? 0 : receive(xferBufs[slot].duplicate(), length, 0, slot);
+        linkBusy = false;
+        callback.transferDone(slot, count < length ? 3 : 0, count);   // LibUsb.TRANSFER_CANCELLED, or COMPLETED
+      }
+    } catch (InterruptedException ex) {
+      return -10;                                 // LibUsb.ERROR_INTERRUPTED
+    }
+    return 0;
+  }
+
+  public void freeTransfers () {
+    xferBufs = null;
+    callback = null;
+  }
+
+  public void close () {
+    running = false;
+    motion.interrupt();
+  }
+
+  /*
+   * * * * * * * Device Model * * * * * * * *
+   */
+
+  /**
+   * Receive bytes from the host, waiting whenever the command buffer is full
+   * @param data buffer holding the bytes, starting at position 0
+   * @param length number of bytes to receive
+   * @param deadline System.nanoTime() at which to give up waiting for buffer space, or 0 to wait forever
+   * @param slot async transfer slot (used to check for cancellation), or -1 if a sync transfer
+   * @return number of bytes received
+   */
+  private int receive (ByteBuffer data, int length, long deadline, int slot) {
+    int done = 0;
+    while (done < length) {
+      int chunk = Math.min(PACKET_SIZE, length - done);
+      delay((long) (chunk * 1.0e9 / linkRate));
+      synchronized (this) {
+        for (int ii = 0; ii < chunk; ii++) {
+          if (buffered + cmd.length() >= bufferSize) {
+            bufferFull++;
+            while (buffered + cmd.length() >= bufferSize) {
+              long wait = deadline == 0 ? 10 : (deadline - System.nanoTime()) / 1000000;
+              if (wait <= 0 || (slot >= 0 && cancelled[slot]) || !running) {
+                return done;
+              }
+              try {
+                wait(wait);
+              } catch (InterruptedException ex) {
+                return done;
+              }
+            }
+          }
+          receiveByte(data.get(done++));
+        }
+      }
+    }
+    return done;
+  }
+
+  private void receiveByte (byte cc) {
+    bytesReceived++;
+    crc.update(cc);
+    if (escape) {
+      escape = false;
+      if (cc == 0x05) {
+        // Status query is answered as soon as it's received
+        statusQueries++;
+        replies.add(new byte[] {(byte) (busy || buffered > 0 ? '1' : '0'), 0x03});
+      } else if (cc == 0x04) {
+        // Initialize device, which discards any buffered commands
+        buffer.clear();
+        buffered = 0;
+        cmd.setLength(0);
+        notifyAll();
+      } else {
+        parseErrors++;
+      }
+    } else if (cc == 0x1B) {
+      escape = true;
+    } else if (cc == 0x03) {
+      String command = cmd.toString();
+      cmd.setLength(0);
+      commands++;
+      if (command.length() == 0) {
+        parseErrors++;
+      } else if (!answerQuery(command)) {
+        buffer.add(command);
+        buffered += command.length() + 1;
+        maxBuffered = Math.max(maxBuffered, buffered);
+        notifyAll();
+      }
+    } else if (cc < 0x20 || cc > 0x7E) {
+      parseErrors++;
+    } else {
+      cmd.append((char) cc);
+    }
+  }
+
+  private boolean answerQuery (String command) {
+    String reply;
+    switch (command) {
+      case "FQ0":
+        reply = "0";                              // Media loaded
+        break;
+      case "FG":
+        reply = "MOCK V1.00";
+        break;
+      case "[":
+        reply = "0,0";
+        break;
+      case "U":
+        reply = "5840,4320";
+        break;
+      default:
+        return false;
+    }
+    replies.add((reply + "\u0003").getBytes(StandardCharsets.US_ASCII));
+    return true;
+  }
+
+  /**
+   * Motion thread, which executes buffered commands
+   */
+  private void runMotion () {
+    while (running) {
+      String command;
+      synchronized (this) {
+        while (buffer.isEmpty()) {
+          busy = false;
+          if (started && idleStart == 0) {
+            idleStart = System.nanoTime();
+          }
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            return;
+          }
+        }
+        if (idleStart != 0) {
+          idleTime += System.nanoTime() - idleStart;
+          idleStart = 0;
+        }
+        command = buffer.poll();
+        buffered -= command.length() + 1;
+        busy = true;
+        notifyAll();
+      }
+      long time = CMD_TIME + execute(command);
+      synchronized (this) {
+        motionTime += time;
+      }
+      delay(time);
+    }
+  }
+
+  /**
+   * Update carriage position for a command
+   * @param command command to execute
+   * @return modeled time taken by the motion (ns)
+   */
+  private synchronized long execute (String command) {
+    double dist = 0;
+    try {
+      if (command.startsWith("BZ")) {
+        // Approximate curve length as the average of its chord and control polygon lengths
+        double[] pts = parseNumbers(command.substring(2));
+        double poly = 0;
+        for (int ii = 1; ii + 3 < pts.length; ii += 2) {
+          poly += Math.hypot(pts[ii + 2] - pts[ii], pts[ii + 3] - pts[ii + 1]);
+        }
+        double chord = Math.hypot(pts[pts.length - 2] - pts[1], pts[pts.length - 1] - pts[2]);
+        dist = (chord + poly) / 2;
+        curX = pts[pts.length - 2];
+        curY = pts[pts.length - 1];
+        started = true;
+      } else if (command.startsWith("M") || command.startsWith("D")) {
+        double[] pts = parseNumbers(command.substring(1));
+        for (int ii = 0; ii + 1 < pts.length; ii += 2) {
+          dist += Math.hypot(pts[ii] - curX, pts[ii + 1] - curY);
+          curX = pts[ii];
+          curY = pts[ii + 1];
+        }
+        started = true;
+      } else if (command.equals("H")) {
+        dist = Math.hypot(curX, curY);
+        curX = curY = 0;
+      } else if (command.startsWith("!")) {
+        speed = Integer.parseInt(command.substring(1).trim()) * 10 * UNITS_PER_CM;
+      }
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+      parseErrors++;
+    }
+    return (long) (dist / speed * 1.0e9);
+  }
+
+  private static double[] parseNumbers (String args) {
+    String[] parts = args.split(",");
+    double[] vals = new double[parts.length];
+    for (int ii = 0; ii < parts.length; ii++) {
+      vals[ii] = Double.parseDouble(parts[ii].trim());
+    }
+    return vals;
+  }
+
+  private void delay (long nanos) {
+    long scaled = (long) (nanos * timeScale);
+    if (scaled > 0) {
+      LockSupport.parkNanos(scaled);
+    }
+  }
+
+  /**
+   * Wait until the device has executed all buffered commands
+   * @param timeout max time to wait (milliseconds)
+   * @return true if device is idle
+   */
+  synchronized boolean waitIdle (long timeout) throws InterruptedException {
+    long limit = System.currentTimeMillis() + timeout;
+    while ((busy || buffered > 0) && System.currentTimeMillis() < limit) {
+      wait(10);
+    }
+    return !busy && buffered == 0;
+  }
+
+  synchronized long getChecksum () {
+    return crc.getValue();
+  }
+
+  synchronized int getParseErrors () {
+    return parseErrors;
+  }
+
+  synchronized int getCommandCount () {
+    return commands;
+  }
+
+  /**
+   * Get metrics for everything received since the mock was created
+   * @return String reporting commands, bytes, status queries, buffer use, and modeled motion and idle time
+   */
+  synchronized String getStats () {
+    return String.format("%d commands, %d bytes, %d status queries, buffer full %d times (max %d of %d bytes)%n" +
+                         "  motion %.1f ms, starved %.1f ms (unscaled), parse errors %d, stream CRC %08x",
+                         commands, bytesReceived, statusQueries, bufferFull, maxBuffered, bufferSize,
+                         motionTime / 1.0e6, timeScale > 0 ? idleTime / timeScale / 1.0e6 : 0.0, parseErrors,
+                         crc.getValue());
+  }
+
+  /**
+   * Benchmark and regression test of the Silhouette send pipeline using a mock device.  Sends a grid of
+   * circles flattened into polylines (like a DXF import) with and without curve refitting, and checks that
+   * the device received every command intact.  Optional arguments set the number of shapes and the time
+   * scale for the modeled delays.
+   */
+  public static void main (String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    double timeScale = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+    List<Shape> design = new ArrayList<>();
+    int cols = (int) Math.ceil(Math.sqrt(count));
+    for (int ii = 0; ii < count; ii++) {
+      Ellipse2D.Double circle = new Ellipse2D.Double((ii % cols) * .6 + .1, (ii / cols) * .6 + .1, .5, .5);
+      Path2D.Double poly = new Path2D.Double();
+      poly.append(circle.getPathIterator(null, .0005), false);
+      design.add(poly);
+    }
+    for (boolean refit : new boolean[] {false, true}) {
+      List<String> cmds = new ArrayList<>();
+      cmds.add("FN0");
+      cmds.add("TB50,1");
+      cmds.add("FC18");
+      cmds.add("FX10");
+      cmds.add("!10");
+      cmds.add("J1");
+      for (Shape shape : design) {
+        cmds.addAll(Silhouette.shapeToSilhouette(shape, refit));
+      }
+      MockSilhouette mock = new MockSilhouette(8192, 1000000, timeScale);
+      USBIO usb = new USBIO(mock);
+      Silhouette.JobSender sender = new Silhouette.JobSender(usb);
+      long start = System.nanoTime();
+      sender.sendJob(cmds.toArray(new String[0]), new Silhouette.JobSender.Monitor() {
+        public void append (String text) { }
+
+        public void setProgress (int cmdIndex) { }
+      });
+      long time = System.nanoTime() - start;
+      mock.waitIdle(1000);
+      usb.close();
+      // Expected: the job's commands plus FQ0, FG, and "!10", "H" before and after the job
+      int expected = cmds.size() + 6;
+      System.out.println(count + " shapes, refit " + refit + ": " + cmds.size() + " commands sent in " +
+                         time / 1000000 + " ms (time scale " + timeScale + ")");
+      System.out.println("  " + sender.getStats());
+      System.out.println("  " + mock.getStats());
+      System.out.println("  " + (mock.getCommandCount() == expected && mock.getParseErrors() == 0 ? "PASS" : "FAIL") +
+                         ": device received " + mock.getCommandCount() + " of " + expected + " commands");
+    }
+  }
+}
@@ -1,70 +1,401 @@
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * PathPlanner: This class tries to organize the cutting order of CADShape objects so that interior
  * details of a CADShape object, such as other, nested CADShape objects are cut before the path of
- * the outer CADShape.  The algorithm workd by first sorting shape into descending order by the area
- * of the shape's bounding box.  Then, it it recursively tries to organize shapes into nested groups
- * by checking if a the bounding box of a potentially nested shape fits inside the outline of the
- * enclosing shape.  As it works it builds a list of Tries where each Trie represents a unique area
- * of the workspace that is not nested in any other shape and the contents of the Trie contain the
- * shapes nested inside the outermost shape.
+ * the outer CADShape.  The algorithm workd by first splitting shapes into their individual contours
+ * and sorting them into descending order by the area of each contour's bounding box.  Then, it
+ * organizes contours into nested groups by finding, for each contour, the smallest larger closed
+ * contour that contains it, using an RTree of the contours' bounding boxes to find candidates.  As it
+ * works it builds a list of Tries where each Trie represents a unique area of the workspace that is
+ * not nested in any other contour and the contents of the Trie contain the contours nested inside the
+ * outermost contour.
  *
- * todo: add code to minimize travel time when cutting shapes in the same level in a Trie
- * See:
+ * Contours at the same level in a Trie are ordered to minimize travel between them (see reorderGroups()).
+ * Once the top-level Tries are ordered, the contents of each don't depend on the others, so they are ordered
+ * in parallel on a ForkJoinPool.  A sequential pass then reorders the top level of each Trie whose start moved once
+ * the one before it was planned, and a final pass improves the order of the Tries.
  *
  * Ref: https://en.wikipedia.org/wiki/Trie
  */
 
 public class PathPlanner {
+  private static final int    IMPROVE_PASSES = 50;    // Max passes of 2-opt and Or-opt moves over each group
+  private static final double FLATNESS = 0.001;       // Tolerance used to flatten outlines (inches)
 
   static class PathTrie {
     LaserCut.CADShape cadShape;
-    List<PathTrie>   items = new ArrayList<>();
+    Contour           contour;                        // Outline, if a single contour that can be rewritten
+    boolean           part;                           // True if contour is one of several in cadShape
+    int               entry;                          // Vertex of contour where cut starts
+    boolean           reversed;                       // True if contour is cut in reverse direction
+    boolean           planned;                        // True once nested items are ordered (see plan())
+    Point2D.Double    start, end;
+    List<PathTrie>    items = new ArrayList<>();
 
     PathTrie (LaserCut.CADShape shape) {
       this.cadShape = shape;
+      List<Contour> contours = Contour.getContours(shape.getWorkspaceTranslatedShape());
+      if (contours.size() == 1 && !(shape instanceof LaserCut.CADRasterImage) && !(shape instanceof LaserCut.CADShapeArray)) {
+        contour = contours.get(0);
+      }
+      if (contours.size() > 0) {
+        Contour last = contours.get(contours.size() - 1);
+        start = contours.get(0).getVertex(0);
+        end = last.getVertex(last.closed ? 0 : last.getVertexCount() - 1);
+      } else {
+        start = end = new Point2D.Double(0, 0);
+      }
+    }
+
+    /**
+     * Create an item for one contour of a CADShape's outline
+     * @param shape CADShape the contour is from
+     * @param contour contour to cut
+     * @param part true if contour is one of several, in which case it's always cut as a PlannedPath
+     */
+    PathTrie (LaserCut.CADShape shape, Contour contour, boolean part) {
+      this.cadShape = shape;
+      this.contour = contour;
+      this.part = part;
+      setEntry(0, false);
     }
 
-    private boolean contains (LaserCut.CADShape shape) {
-      return cadShape.getWorkspaceTranslatedShape().contains(shape.getShapeBounds());
+    /**
+     * Set where the cut of the contour starts, and its direction
+     * @param entry vertex where the cut starts (must be 0, or the last vertex if contour is open)
+     * @param reversed true if the contour is cut in the reverse direction
+     */
+    void setEntry (int entry, boolean reversed) {
+      this.entry = entry;
+      this.reversed = reversed;
+      start = contour.getVertex(entry);
+      end = contour.closed ? start : contour.getVertex(reversed ? 0 : contour.getVertexCount() - 1);
     }
 
-    boolean addShape (LaserCut.CADShape shape) {
-      if (contains(shape)) {
+    /**
+     * Order the items nested inside this one, and those nested inside them, starting from startPos, then start
+     * the outer contour at the vertex nearest to where the last nested item ends.  Afterwards, start is where the
+     * first nested item starts, and the entry of the outer contour is fixed.
+     * @param startPos position before the first nested item is cut
+     */
+    void plan (Point2D.Double startPos) {
+      if (items.size() > 0) {
+        reorderGroups(startPos, items);
         for (PathTrie item : items) {
-          if (item.contains(shape)) {
-            if (item.addShape(shape)) {
-              return true;
-            }
-          }
+          item.plan(startPos);
+          startPos = item.end;
         }
-        items.add(new PathTrie(shape));
-        return true;
+        if (contour != null && contour.closed) {
+          // Start outer contour at the vertex nearest to where the last nested item ended
+          setEntry(contour.nearestVertex(startPos.x, startPos.y), reversed);
+        }
+        start = items.get(0).start;
+        planned = true;
       }
-      return false;
     }
 
-    Point2D.Double unravel (List<LaserCut.CADShape> list, Point2D.Double startPos) {
-      startPos = reorderGroups(startPos, items);
+    /**
+     * Reorder the items nested directly inside this one to start from a different position, such as where the
+     * group cut before it really ends, keeping the order planned inside each of them, then restart the outer
+     * contour at the vertex nearest to where the last item now ends
+     * @param startPos position before the first nested item is cut
+     */
+    void replan (Point2D.Double startPos) {
+      Point2D.Double pos = reorderGroups(startPos, items);
+      if (contour != null && contour.closed) {
+        setEntry(contour.nearestVertex(pos.x, pos.y), reversed);
+      }
+      start = items.get(0).start;
+    }
+
+    /**
+     * Add the planned shapes of this item, and of the items nested inside it, to list in cutting order
+     */
+    void unravel (List<LaserCut.CADShape> list) {
       for (PathTrie item : items) {
-        item.unravel(list, startPos);
+        item.unravel(list);
       }
-      list.add(cadShape);
-      return startPos;
+      list.add(getPlannedShape());
+    }
+
+    /**
+     * Get the CADShape to cut, which is a PlannedPath if the contour is one of several in cadShape, or has been
+     * rewritten to start at a different vertex, or to run in the reverse direction
+     * @return CADShape to cut
+     */
+    LaserCut.CADShape getPlannedShape () {
+      if (contour != null && (part || entry != 0 || reversed)) {
+        return new PlannedPath(cadShape, contour.getPath(entry, reversed));
+      }
+      return cadShape;
     }
   }
 
+  /**
+   * PlannedPath: Output of PathPlanner that holds a CADShape's outline after it has been rewritten for cutting,
+   * such as to start at a different vertex.  The path is already in workspace coordinates.
+   */
+  static class PlannedPath extends LaserCut.CADShape {
+    private static final long serialVersionUID = 5036619734186458351L;
+    LaserCut.CADShape         source;
+
+    PlannedPath (LaserCut.CADShape source, Path2D.Double path) {
+      super(path, 0, 0, 0, false);
+      this.source = source;
+      engrave = source.engrave;
+    }
+
+    @Override
+    String getName () {
+      return source.getName();
+    }
+
+    @Override
+    Rectangle2D getShapeBounds () {
+      return shape.getBounds2D();
+    }
+
+    @Override
+    protected Shape getLocallyTransformedShape () {
+      return shape;
+    }
+
+    @Override
+    protected Shape getWorkspaceTranslatedShape () {
+      return shape;
+    }
+  }
+
+  /**
+   * One subpath of a Shape, which can be rewritten to start at any of its vertices, if closed, or to run in the
+   * reverse direction.  A vertex is the start point, or the end point of a segment, and curved segments are kept
+   * as curves.
+   */
+  static class Contour {
+    final double[]  coords;                           // Start point, then the points of each segment
+    final int[]     types;                            // PathIterator type of each segment
+    final int[]     vertices;                         // Offset in coords of each vertex
+    final boolean   closed;
+
+    private Contour (double[] coords, int[] types, int[] vertices, boolean closed) {
+      this.coords = coords;
+      this.types = types;
+      this.vertices = vertices;
+      this.closed = closed;
+    }
+
+    /**
+     * Split a Shape into its subpaths.  A subpath that ends at its start point is treated as closed even if not
+     * closed by SEG_CLOSE, and a SEG_CLOSE that does not end at the start point adds a line back to it.
+     * @param shape Shape to split
+     * @return List of Contour objects in the order the subpaths are in the Shape
+     */
+    static List<Contour> getContours (Shape shape) {
+      List<Contour> contours = new ArrayList<>();
+      PathIterator pi = shape.getPathIterator(null);
+      double[] seg = new double[6];
+      double[] pnts = new double[64];
+      int[] types = new int[16];
+      int[] verts = new int[17];                      // verts[0] is always 0, the start point
+      int count = 0, segs = 0;
+      double moveX = 0, moveY = 0;
+      for (; !pi.isDone(); pi.next()) {
+        int type = pi.currentSegment(seg);
+        if (type == PathIterator.SEG_MOVETO) {
+          if (segs > 0) {
+            contours.add(newContour(pnts, count, types, verts, segs, false));
+          }
+          count = segs = 0;
+          pnts[count++] = moveX = seg[0];
+          pnts[count++] = moveY = seg[1];
+          continue;
+        }
+        if (count == 0) {
+          // Segment that follows a SEG_CLOSE starts where the closed subpath started
+          pnts[count++] = moveX;
+          pnts[count++] = moveY;
+        }
+        boolean close = type == PathIterator.SEG_CLOSE;
+        if (close) {
+          if (segs > 0 && pnts[count - 2] == moveX && pnts[count - 1] == moveY) {
+            contours.add(newContour(pnts, count, types, verts, segs, true));
+            count = segs = 0;
+            continue;
+          }
+          type = PathIterator.SEG_LINETO;
+          seg[0] = moveX;
+          seg[1] = moveY;
+        }
+        int size = type == PathIterator.SEG_QUADTO ? 4 : type == PathIterator.SEG_CUBICTO ? 6 : 2;
+        if (count + size > pnts.length) {
+          pnts = Arrays.copyOf(pnts, pnts.length * 2);
+        }
+        if (segs + 1 >= types.length) {
+          types = Arrays.copyOf(types, types.length * 2);
+          verts = Arrays.copyOf(verts, types.length + 1);
+        }
+        System.arraycopy(seg, 0, pnts, count, size);
+        count += size;
+        types[segs++] = type;
+        verts[segs] = count - 2;
+        if (close) {
+          contours.add(newContour(pnts, count, types, verts, segs, true));
+          count = segs = 0;
+        }
+      }
+      if (segs > 0) {
+        contours.add(newContour(pnts, count, types, verts, segs, false));
+      }
+      return contours;
+    }
+
+    private static Contour newContour (double[] pnts, int count, int[] types, int[] verts, int segs, boolean closed) {
+      closed |= pnts[count - 2] == pnts[0] && pnts[count - 1] == pnts[1];
+      return new Contour(Arrays.copyOf(pnts, count), Arrays.copyOf(types, segs), Arrays.copyOf(verts, segs + 1), closed);
+    }
+
+    /**
+     * Get number of vertices, which, for a closed contour, includes the end point that duplicates the start point
+     */
+    int getVertexCount () {
+      return vertices.length;
+    }
+
+    Point2D.Double getVertex (int idx) {
+      return new Point2D.Double(coords[vertices[idx]], coords[vertices[idx] + 1]);
+    }
+
+    int nearestVertex (double x, double y) {
+      int best = 0;
+      double bestDist = Double.MAX_VALUE;
+      for (int ii = 0; ii < vertices.length - 1; ii++) {
+        double dx = coords[vertices[ii]] - x;
+        double dy = coords[vertices[ii] + 1] - y;
+        double dist = dx * dx + dy * dy;
+        if (dist < bestDist) {
+          bestDist = dist;
+          best = ii;
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Build path that starts at a vertex and runs in either direction
+     * @param entry vertex where the path starts (ignored if contour is open)
+     * @param reverse if true, path runs in the reverse direction
+     * @return path
+     */
+    Path2D.Double getPath (int entry, boolean reverse) {
+      Path2D.Double path = new Path2D.Double();
+      int segs = types.length;
+      if (!closed) {
+        entry = reverse ? segs : 0;
+      }
+      path.moveTo(coords[vertices[entry]], coords[vertices[entry] + 1]);
+      for (int ii = 0; ii < segs; ii++) {
+        int seg = reverse ? (entry - 1 - ii + segs) % segs : (entry + ii) % segs;
+        // Points of segment, other than its start point, and the point the segment ends at
+        int first = vertices[seg] + 2;
+        int last = vertices[seg + 1];
+        double[] pts = new double[last - first + 2];
+        if (reverse) {
+          for (int jj = 0, kk = last - 2; kk >= first; jj += 2, kk -= 2) {
+            pts[jj] = coords[kk];
+            pts[jj + 1] = coords[kk + 1];
+          }
+          pts[pts.length - 2] = coords[vertices[seg]];
+          pts[pts.length - 1] = coords[vertices[seg] + 1];
+        } else {
+          System.arraycopy(coords, first, pts, 0, pts.length);
+        }
+        switch (types[seg]) {
+          case PathIterator.SEG_LINETO:
+            path.lineTo(pts[0], pts[1]);
+            break;
+          case PathIterator.SEG_QUADTO:
+            path.quadTo(pts[0], pts[1], pts[2], pts[3]);
+            break;
+          case PathIterator.SEG_CUBICTO:
+            path.curveTo(pts[0], pts[1], pts[2], pts[3], pts[4], pts[5]);
+            break;
+        }
+      }
+      if (closed) {
+        path.closePath();
+      }
+      return path;
+    }
+  }
+
+  /**
+   * Holds an item's workspace outline, flattened once into a polygon, and its bounds
+   */
   static class ShapeArea implements Comparable<ShapeArea> {
-    LaserCut.CADShape cadShape;
-    double  area;
+    PathTrie          trie;
+    Path2D.Double     outline;
+    double[]          points;                         // Vertices of outline as x, y pairs
+    Rectangle2D       bounds;
+    double            area;
+
+    ShapeArea (PathTrie trie) {
+      this.trie = trie;
+      outline = new Path2D.Double();
+      Shape shape = trie.contour != null ? trie.contour.getPath(0, false) : trie.cadShape.getWorkspaceTranslatedShape();
+      PathIterator pi = shape.getPathIterator(null, FLATNESS);
+      double[] coords = new double[6];
+      double[] pnts = new double[32];
+      int count = 0;
+      for (; !pi.isDone(); pi.next()) {
+        switch (pi.currentSegment(coords)) {
+          case PathIterator.SEG_MOVETO:
+            outline.moveTo(coords[0], coords[1]);
+            break;
+          case PathIterator.SEG_LINETO:
+            outline.lineTo(coords[0], coords[1]);
+            break;
+          case PathIterator.SEG_CLOSE:
+            outline.closePath();
+            continue;
+        }
+        if (count == pnts.length) {
+          pnts = Arrays.copyOf(pnts, count * 2);
+        }
+        pnts[count++] = coords[0];
+        pnts[count++] = coords[1];
+      }
+      points = Arrays.copyOf(pnts, count);
+      bounds = outline.getBounds2D();
+      area = bounds.getWidth() * bounds.getHeight();
+    }
 
-    ShapeArea (LaserCut.CADShape cadShape) {
-      this.cadShape = cadShape;
-      Rectangle2D bnds = cadShape.getShape().getBounds2D();
-      area = bnds.getWidth() * bnds.getHeight();
+    /**
+     * Check if another shape lies inside this shape's outline, which must be closed.  Accepts quickly if the other shape's bounding box
+     * fits inside the outline, otherwise checks that every vertex of the other shape is inside the outline.
+     * @param other shape to check
+     * @return true if other is nested inside this shape
+     */
+    boolean contains (ShapeArea other) {
+      if ((trie.contour != null && !trie.contour.closed) || !bounds.contains(other.bounds)) {
+        return false;
+      }
+      if (outline.contains(other.bounds)) {
+        return true;
+      }
+      for (int ii = 0; ii < other.points.length; ii += 2) {
+        if (!outline.contains(other.points[ii], other.points[ii + 1])) {
+          return false;
+        }
+      }
+      return other.points.length > 0;
     }
 
     public int compareTo (ShapeArea obj) {
@@ -72,60 +403,492 @@ public class PathPlanner {
     }
   }
 
-  private static Point2D.Double reorderGroups (Point2D.Double startPos, List<PathTrie> inList) {
-    List<PathTrie> oldItems = new ArrayList<>(inList);
-    List<PathTrie>  newItems = new ArrayList<>();
-    while (oldItems.size() > 0) {
-      PathTrie closest = null;
-      double minDist = Double.MAX_VALUE;
-      for (PathTrie item : oldItems) {
-        LaserCut.CADShape cadShape = item.cadShape;
-        Point2D.Double pnt = cadShape.getStartCoords();
-        double dist = startPos.distance(pnt);
-        if (dist < minDist) {
-          minDist = dist;
-          closest = item;
-        }
-      }
-      newItems.add(closest);
-      oldItems.remove(closest);
-      startPos = closest.cadShape.getStartCoords();
+  /**
+   * Reorder items to reduce the travel from where one item's cut ends to where the next one starts.  First
+   * builds a path by repeatedly picking the item whose start is nearest the current position, using a KdTree
+   * rather than a scan of all remaining items, then improves it with 2-opt and Or-opt moves until no move helps,
+   * or IMPROVE_PASSES passes have been made, so the result doesn't depend on timing.  Items with a closed contour
+   * can start at any of its vertices, and items with an open contour can be cut in either direction, so the
+   * planner also picks the entry that minimizes travel.
+   * @param startPos position before first item is cut
+   * @param inList List of items to reorder (updated in place)
+   * @return position after last item is cut
+   */
+  static Point2D.Double reorderGroups (Point2D.Double startPos, List<PathTrie> inList) {
+    return reorderGroups(startPos, inList, false);
+  }
+
+  /**
+   * Version of reorderGroups() that can skip building a new order and only improve the current order
+   * @param startPos position before first item is cut
+   * @param inList List of items to reorder (updated in place)
+   * @param improveOnly if true, start from the current order of inList rather than a nearest neighbor path
+   * @return position after last item is cut
+   */
+  private static Point2D.Double reorderGroups (Point2D.Double startPos, List<PathTrie> inList, boolean improveOnly) {
+    int count = inList.size();
+    if (count == 0) {
+      return startPos;
+    }
+    TourPlanner planner = new TourPlanner(startPos, inList);
+    if (improveOnly) {
+      planner.useListOrder();
+    } else {
+      planner.buildNearestNeighbor();
+    }
+    planner.improve(IMPROVE_PASSES);
+    planner.refineEntries();
+    List<PathTrie> newItems = new ArrayList<>(count);
+    for (int idx : planner.tour) {
+      PathTrie item = inList.get(idx);
+      if (planner.contours[idx] != null) {
+        item.setEntry(planner.entry[idx], planner.reversed[idx]);
+      }
+      newItems.add(item);
     }
     inList.clear();
     inList.addAll(newItems);
-    return startPos;
+    return newItems.get(count - 1).end;
+  }
+
+  /**
+   * Builds and improves an open path that starts at a fixed position and visits each item once, where the
+   * cost of going from item a to item b is the distance from a's end point to b's start point.  Where an item
+   * starts and ends depends on the entry chosen for its contour, if it has one.
+   *
+   * Ref: https://en.wikipedia.org/wiki/2-opt
+   */
+  static class TourPlanner {
+    private static final int  NEIGHBORS = 8;          // Candidates considered for each improving move
+    private static final int  OR_OPT_MAX = 3;         // Max length of segments moved by Or-opt
+    private final double      x0, y0;
+    private final double[]    sx, sy, ex, ey;
+    private final boolean[]   flippable;              // True if item has an open contour
+    private final boolean     symmetric;              // True if every item ends where it starts, or is flippable
+    private final int[]       pos;                    // Position of each item in tour
+    private int[][]           near;                   // Items whose starts are closest to each item's end
+    private int[]             nearStart;              // Items whose starts are closest to the start position
+    final int[]               tour, entry;
+    final boolean[]           reversed;
+    final Contour[]           contours;               // Contour of each item, or null if its entry is fixed
+
+    TourPlanner (Point2D.Double startPos, List<PathTrie> items) {
+      int count = items.size();
+      x0 = startPos.x;
+      y0 = startPos.y;
+      sx = new double[count];
+      sy = new double[count];
+      ex = new double[count];
+      ey = new double[count];
+      flippable = new boolean[count];
+      entry = new int[count];
+      reversed = new boolean[count];
+      contours = new Contour[count];
+      boolean sym = true;
+      for (int ii = 0; ii < count; ii++) {
+        PathTrie item = items.get(ii);
+        contours[ii] = item.planned ? null : item.contour;
+        sx[ii] = item.start.x;
+        sy[ii] = item.start.y;
+        ex[ii] = item.end.x;
+        ey[ii] = item.end.y;
+        entry[ii] = item.entry;
+        reversed[ii] = item.reversed;
+        flippable[ii] = contours[ii] != null && !contours[ii].closed;
+        sym &= flippable[ii] || item.start.equals(item.end);
+      }
+      symmetric = sym;
+      tour = new int[count];
+      pos = new int[count];
+    }
+
+    /**
+     * Use the current order of the items as the tour, such as to improve an order that's already close to a
+     * good one
+     */
+    void useListOrder () {
+      for (int ii = 0; ii < tour.length; ii++) {
+        tour[ii] = ii;
+        pos[ii] = ii;
+      }
+    }
+
+    /**
+     * Set the vertex where an item's contour starts
+     * @param idx item
+     * @param vertex vertex where a closed contour starts, or 0, or the last vertex for an open contour
+     */
+    private void setEntry (int idx, int vertex) {
+      Contour contour = contours[idx];
+      int last = contour.getVertexCount() - 1;
+      entry[idx] = vertex;
+      sx[idx] = contour.coords[contour.vertices[vertex]];
+      sy[idx] = contour.coords[contour.vertices[vertex] + 1];
+      if (contour.closed) {
+        ex[idx] = sx[idx];
+        ey[idx] = sy[idx];
+      } else {
+        reversed[idx] = vertex == last;
+        int end = reversed[idx] ? 0 : last;
+        ex[idx] = contour.coords[contour.vertices[end]];
+        ey[idx] = contour.coords[contour.vertices[end] + 1];
+      }
+    }
+
+    /**
+     * Reverse the direction of an item with an open contour
+     */
+    private void flip (int idx) {
+      setEntry(idx, reversed[idx] ? 0 : contours[idx].getVertexCount() - 1);
+    }
+
+    /**
+     * Distance from end of item a (or start position if a is -1) to the start of item b
+     */
+    private double dist (int a, int b) {
+      double dx = (a < 0 ? x0 : ex[a]) - sx[b];
+      double dy = (a < 0 ? y0 : ey[a]) - sy[b];
+      return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Distance from end of item a (or start position if a is -1) to the start of item b, where each is flipped
+     * if flipA, or flipB is true, and it's flippable
+     */
+    private double dist (int a, boolean flipA, int b, boolean flipB) {
+      boolean fa = flipA && a >= 0 && flippable[a];
+      boolean fb = flipB && flippable[b];
+      double dx = (a < 0 ? x0 : fa ? sx[a] : ex[a]) - (fb ? ex[b] : sx[b]);
+      double dy = (a < 0 ? y0 : fa ? sy[a] : ey[a]) - (fb ? ey[b] : sy[b]);
+      return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private int at (int idx) {
+      return idx < 0 ? -1 : tour[idx];
+    }
+
+    /**
+     * Build tour by repeatedly picking the nearest possible entry point of the remaining items.  The KdTree holds
+     * every vertex of each closed contour, both ends of each open contour, and the start of other items.
+     */
+    void buildNearestNeighbor () {
+      int count = tour.length;
+      int[] first = new int[count + 1];                 // Index of each item's first entry point
+      for (int ii = 0; ii < count; ii++) {
+        Contour contour = contours[ii];
+        first[ii + 1] = first[ii] + (contour == null ? 1 : contour.closed ? contour.getVertexCount() - 1 : 2);
+      }
+      double[] px = new double[first[count]], py = new double[first[count]];
+      int[] owner = new int[first[count]];
+      for (int ii = 0; ii < count; ii++) {
+        Contour contour = contours[ii];
+        for (int jj = first[ii]; jj < first[ii + 1]; jj++) {
+          owner[jj] = ii;
+          if (contour == null) {
+            px[jj] = sx[ii];
+            py[jj] = sy[ii];
+          } else {
+            int vertex = contour.closed ? jj - first[ii] : (jj - first[ii]) * (contour.getVertexCount() - 1);
+            px[jj] = contour.coords[contour.vertices[vertex]];
+            py[jj] = contour.coords[contour.vertices[vertex] + 1];
+          }
+        }
+      }
+      KdTree points = new KdTree(px, py);
+      double x = x0, y = y0;
+      for (int ii = 0; ii < count; ii++) {
+        int pnt = points.nearest(x, y);
+        int next = owner[pnt];
+        Contour contour = contours[next];
+        if (contour != null) {
+          setEntry(next, contour.closed ? pnt - first[next] : (pnt - first[next]) * (contour.getVertexCount() - 1));
+        }
+        for (int jj = first[next]; jj < first[next + 1]; jj++) {
+          points.remove(jj);
+        }
+        tour[ii] = next;
+        pos[next] = ii;
+        x = ex[next];
+        y = ey[next];
+      }
+    }
+
+    /**
+     * Final pass that changes the entry of each closed contour, or the direction of each open contour, if that
+     * reduces the travel to it from the previous item plus the travel from it to the next item
+     */
+    void refineEntries () {
+      int count = tour.length;
+      for (int ii = 0; ii < count; ii++) {
+        int idx = tour[ii];
+        Contour contour = contours[idx];
+        if (contour == null) {
+          continue;
+        }
+        int prev = at(ii - 1);
+        int next = ii + 1 < count ? tour[ii + 1] : -1;
+        double px = prev < 0 ? x0 : ex[prev];
+        double py = prev < 0 ? y0 : ey[prev];
+        if (contour.closed) {
+          int best = entry[idx];
+          double bestCost = Double.MAX_VALUE;
+          for (int vv = 0; vv < contour.getVertexCount() - 1; vv++) {
+            double vx = contour.coords[contour.vertices[vv]];
+            double vy = contour.coords[contour.vertices[vv] + 1];
+            double cost = Math.hypot(vx - px, vy - py) + (next >= 0 ? Math.hypot(sx[next] - vx, sy[next] - vy) : 0);
+            if (cost < bestCost - 1e-9) {
+              bestCost = cost;
+              best = vv;
+            }
+          }
+          setEntry(idx, best);
+        } else {
+          double cost = dist(prev, idx) + (next >= 0 ? dist(idx, next) : 0);
+          double flipped = dist(prev, false, idx, true) + (next >= 0 ? dist(idx, true, next, false) : 0);
+          if (flipped < cost - 1e-9) {
+            flip(idx);
+          }
+        }
+      }
+    }
+
+    /**
+     * Total travel distance of the tour
+     */
+    double getTravel () {
+      double travel = 0;
+      for (int ii = 0; ii < tour.length; ii++) {
+        travel += dist(at(ii - 1), tour[ii]);
+      }
+      return travel;
+    }
+
+    /**
+     * Apply 2-opt and Or-opt moves to the tour until no move reduces the travel
+     * @param maxPasses max number of passes over the tour
+     */
+    void improve (int maxPasses) {
+      int count = tour.length;
+      if (count < 3) {
+        return;
+      }
+      KdTree starts = new KdTree(sx, sy);
+      near = new int[count][];
+      for (int ii = 0; ii < count; ii++) {
+        near[ii] = starts.nearest(ex[ii], ey[ii], NEIGHBORS, ii);
+      }
+      nearStart = starts.nearest(x0, y0, NEIGHBORS, -1);
+      boolean improved = true;
+      for (int pass = 0; improved && pass < maxPasses; pass++) {
+        improved = false;
+        for (int ii = 0; ii < count; ii++) {
+          if (twoOpt(ii) | orOpt(ii)) {
+            improved = true;
+          }
+        }
+      }
+    }
+
+    /**
+     * Try to replace the edge into position p with an edge to a near neighbor of its predecessor by
+     * reversing the section of the tour from p to where that neighbor is.  Items with an open contour are
+     * flipped when their section is reversed.
+     * @return true if tour was improved
+     */
+    private boolean twoOpt (int p) {
+      int a = at(p - 1);
+      for (int c : a < 0 ? nearStart : near[a]) {
+        int q = pos[c];
+        if (q <= p) {
+          continue;
+        }
+        int b = tour[p];
+        int d = at(q + 1 < tour.length ? q + 1 : -1);
+        double delta = dist(a, false, c, true) - dist(a, b);
+        if (d >= 0) {
+          delta += dist(b, true, d, false) - dist(c, d);
+        }
+        if (!symmetric && delta < 0) {
+          // Items reverse order in the section, so the edges between them change, too
+          for (int ii = p; ii < q; ii++) {
+            delta += dist(tour[ii + 1], true, tour[ii], true) - dist(tour[ii], tour[ii + 1]);
+          }
+        }
+        if (delta < -1e-9) {
+          for (int ii = p, jj = q; ii < jj; ii++, jj--) {
+            int tmp = tour[ii];
+            tour[ii] = tour[jj];
+            tour[jj] = tmp;
+          }
+          for (int ii = p; ii <= q; ii++) {
+            pos[tour[ii]] = ii;
+            if (flippable[tour[ii]]) {
+              flip(tour[ii]);
+            }
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Try to move the section of 1 to OR_OPT_MAX items that starts at position p so it's just before one of
+     * the items with a start near the section's end
+     * @return true if tour was improved
+     */
+    private boolean orOpt (int p) {
+      int count = tour.length;
+      for (int len = 1; len <= OR_OPT_MAX && p + len <= count; len++) {
+        int first = tour[p];
+        int last = tour[p + len - 1];
+        int prev = at(p - 1);
+        int next = p + len < count ? tour[p + len] : -1;
+        double removeGain = dist(prev, first) + (next >= 0 ? dist(last, next) - dist(prev, next) : 0);
+        for (int c : near[last]) {
+          int q = pos[c];
+          if (q >= p && q <= p + len) {
+            continue;
+          }
+          int before = at(q - 1);
+          double delta = dist(before, first) + dist(last, c) - dist(before, c) - removeGain;
+          if (delta < -1e-9) {
+            int[] section = new int[len];
+            System.arraycopy(tour, p, section, 0, len);
+            if (q < p) {
+              System.arraycopy(tour, q, tour, q + len, p - q);
+              System.arraycopy(section, 0, tour, q, len);
+              for (int ii = q; ii < p + len; ii++) {
+                pos[tour[ii]] = ii;
+              }
+            } else {
+              System.arraycopy(tour, p + len, tour, p, q - p - len);
+              System.arraycopy(section, 0, tour, q - len, len);
+              for (int ii = p; ii < q; ii++) {
+                pos[tour[ii]] = ii;
+              }
+            }
+            return true;
+          }
+        }
+      }
+      return false;
+    }
   }
 
+  /**
+   * Plan the order shapes are cut in, where each contour of a shape with several, such as CADText, or a
+   * CADGear with a bore hole, is planned as a separate item so that holes in any shape are cut before the
+   * contour that encloses them.  Raster images and step-and-repeat arrays are planned as whole shapes.
+   * @param shapes List of CADShape objects to plan
+   * @return List of CADShape objects in cutting order, where contours are output as PlannedPath objects
+   */
   static List<LaserCut.CADShape> optimize (List<LaserCut.CADShape> shapes) {
-    // Sort CADShape objects into descending order by the area of each's bounding box
+    // Split shapes into contours and sort them into descending order by the area of each's bounding box
     List<ShapeArea>  byArea = new ArrayList<>();
     for (LaserCut.CADShape shape : shapes) {
-      byArea.add(new ShapeArea(shape));
+      List<Contour> contours;
+      if (shape instanceof LaserCut.CADRasterImage || shape instanceof LaserCut.CADShapeArray ||
+          (contours = Contour.getContours(shape.getWorkspaceTranslatedShape())).isEmpty()) {
+        byArea.add(new ShapeArea(new PathTrie(shape)));
+      } else {
+        for (Contour contour : contours) {
+          byArea.add(new ShapeArea(new PathTrie(shape, contour, contours.size() > 1)));
+        }
+      }
     }
     Collections.sort(byArea);
     Collections.reverse((byArea));
-    // Organize CADShape objects into hierarchical groups
-    List<PathTrie> groups = new ArrayList<>();
+    // Organize contours into hierarchical groups where each contour's parent is the smallest larger closed contour
+    // that contains it.  Candidate parents are the contours whose bounds contain the contour's bounds, found using
+    // an RTree, and are checked starting with the smallest.
+    List<Rectangle2D> bounds = new ArrayList<>();
     for (ShapeArea item : byArea) {
-      boolean added = false;
-      for (PathTrie group : groups) {
-        if (added = group.addShape(item.cadShape)) {
-          break;
+      bounds.add(item.bounds);
+    }
+    RTree index = new RTree(bounds);
+    List<PathTrie> groups = new ArrayList<>();
+    for (int ii = 0; ii < byArea.size(); ii++) {
+      ShapeArea item = byArea.get(ii);
+      int[] candidates = index.search(item.bounds, true);
+      Arrays.sort(candidates);
+      PathTrie parent = null;
+      for (int jj = candidates.length - 1; jj >= 0 && parent == null; jj--) {
+        int idx = candidates[jj];
+        if (idx < ii && byArea.get(idx).contains(item)) {
+          parent = byArea.get(idx).trie;
         }
       }
-      if (!added) {
-        groups.add(new PathTrie(item.cadShape));
+      if (parent != null) {
+        parent.items.add(item.trie);
+      } else {
+        groups.add(item.trie);
       }
     }
-    List<LaserCut.CADShape> output = new ArrayList<>();
+    // Order the top-level groups by their outer contours, then, as the groups are independent, order the items
+    // nested in each group in parallel, starting from where the outer contour of the group before it ends
+    reorderGroups(new Point2D.Double(0, 0), groups);
+    List<PathTrie> nests = new ArrayList<>();
+    List<Point2D.Double> starts = new ArrayList<>();
     Point2D.Double startPos = new Point2D.Double(0, 0);
-    startPos = reorderGroups(startPos, groups);
     for (PathTrie group : groups) {
-      startPos = group.unravel(output, startPos);
+      if (group.items.size() > 0) {
+        nests.add(group);
+        starts.add(startPos);
+      }
+      startPos = group.end;
+    }
+    ForkJoinPool.commonPool().invoke(new PlanTask(nests, starts, 0, nests.size()));
+    // Planning a group moves where its outer contour ends, so reorder the top level of each group that follows
+    // one that moved from where it really starts, as planning them one after another would have.  Then stitch the
+    // groups together by improving their order now that where each starts and ends is known, which only makes
+    // moves that reduce travel.
+    startPos = new Point2D.Double(0, 0);
+    for (int ii = 0, nest = 0; ii < groups.size(); ii++) {
+      PathTrie group = groups.get(ii);
+      if (group.items.size() > 0 && !startPos.equals(starts.get(nest++))) {
+        group.replan(startPos);
+      }
+      startPos = group.end;
+    }
+    reorderGroups(new Point2D.Double(0, 0), groups, true);
+    List<LaserCut.CADShape> output = new ArrayList<>();
+    for (PathTrie group : groups) {
+      group.unravel(output);
     }
     return output;
   }
 
+  /**
+   * Plans a range of top-level groups, splitting the range in half until it's small enough to plan directly
+   */
+  private static class PlanTask extends RecursiveAction {
+    private static final long serialVersionUID = -4471930860812547217L;
+    private static final int  THRESHOLD = 16;         // Max groups planned by one task
+    private final List<PathTrie> groups;
+    private final List<Point2D.Double> starts;        // Position before each group is cut
+    private final int         lo, hi;
+
+    PlanTask (List<PathTrie> groups, List<Point2D.Double> starts, int lo, int hi) {
+      this.groups = groups;
+      this.starts = starts;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute () {
+      if (hi - lo <= THRESHOLD) {
+        for (int ii = lo; ii < hi; ii++) {
+          groups.get(ii).plan(starts.get(ii));
+        }
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new PlanTask(groups, starts, lo, mid), new PlanTask(groups, starts, mid, hi));
+      }
+    }
+  }
+
   private static Map<LaserCut.CADShape,String> map = new HashMap<>();
 
   private static LaserCut.CADShape add (String name, LaserCut.CADShape val) {
@@ -133,7 +896,71 @@ public class PathPlanner {
     return val;
   }
 
+  /**
+   * Measure planning time and travel distance for a sheet of randomly placed parts, each with 4 holes
+   * @param count number of parts
+   */
+  private static void benchmark (int count) {
+    Random rnd = new Random(1);
+    List<LaserCut.CADShape> parts = new ArrayList<>();
+    List<LaserCut.CADShape> shapes = new ArrayList<>();
+    int cols = (int) Math.ceil(Math.sqrt(count));
+    for (int ii = 0; ii < count; ii++) {
+      double x = (ii % cols) * .5 + rnd.nextDouble() * .1;
+      double y = (ii / cols) * .5 + rnd.nextDouble() * .1;
+      parts.add(new LaserCut.CADRectangle(x, y, .3, .3, .05, 0, false));
+      for (int jj = 0; jj < 4; jj++) {
+        shapes.add(new LaserCut.CADOval(x + .05 + (jj & 1) * .15, y + .05 + (jj >> 1) * .15, .05, .05, 0, false));
+      }
+    }
+    shapes.addAll(parts);
+    Collections.shuffle(parts, rnd);
+    Collections.shuffle(shapes, rnd);
+    List<PathTrie> items = new ArrayList<>();
+    for (LaserCut.CADShape shape : parts) {
+      items.add(new PathTrie(shape));
+    }
+    TourPlanner planner = new TourPlanner(new Point2D.Double(0, 0), items);
+    for (int ii = 0; ii < count; ii++) {
+      planner.tour[ii] = ii;
+    }
+    System.out.printf("%d parts, unordered travel: %.1f in%n", count, planner.getTravel());
+    long start = System.nanoTime();
+    planner.buildNearestNeighbor();
+    long built = System.nanoTime();
+    System.out.printf("  nearest neighbor: %.1f in, %d ms%n", planner.getTravel(), (built - start) / 1000000);
+    planner.improve(IMPROVE_PASSES);
+    System.out.printf("  2-opt/Or-opt: %.1f in, %d ms%n", planner.getTravel(), (System.nanoTime() - built) / 1000000);
+    start = System.nanoTime();
+    List<LaserCut.CADShape> output = optimize(shapes);
+    long time = System.nanoTime() - start;
+    // Check each part is cut after its 4 holes
+    int nested = 0;
+    Set<LaserCut.CADShape> cut = new HashSet<>();
+    for (LaserCut.CADShape shape : output) {
+      if ((shape instanceof PlannedPath ? ((PlannedPath) shape).source : shape) instanceof LaserCut.CADRectangle) {
+        int holes = 0;
+        for (LaserCut.CADShape hole : cut) {
+          holes += shape.getShapeBounds().contains(hole.getShapeBounds()) ? 1 : 0;
+        }
+        nested += holes == 4 ? 1 : 0;
+        cut.clear();
+      } else {
+        cut.add(shape);
+      }
+    }
+    System.out.printf("  optimize(): %d shapes in %d ms, %d of %d parts cut after their holes%n", output.size(),
+                      time / 1000000, nested, count);
+  }
+
+  /**
+   * Shows how a set of nested shapes is ordered, or if passed a part count, runs benchmark()
+   */
   public static void main (String[] args) {
+    if (args.length > 0) {
+      benchmark(Integer.parseInt(args[0]));
+      return;
+    }
     // A nests in E, B nests in F and D, D, E & F nest in G
     List<LaserCut.CADShape> shapes = new ArrayList<>();
     if (false) {
@@ -156,7 +983,8 @@ public class PathPlanner {
     List<LaserCut.CADShape>  oShapes = optimize(shapes);
     for (LaserCut.CADShape shape : oShapes) {
       Rectangle2D bnds = shape.getShapeBounds();
-      System.out.println(map.get(shape) + ": " + bnds.getX() + ", " + bnds.getY() + " (" + bnds.getWidth() + ", " + bnds.getHeight() + ")");
+      LaserCut.CADShape source = shape instanceof PlannedPath ? ((PlannedPath) shape).source : shape;
+      System.out.println(map.get(source) + ": " + bnds.getX() + ", " + bnds.getY() + " (" + bnds.getWidth() + ", " + bnds.getHeight() + ")");
     }
   }
 }
@@ -0,0 +1,924 @@
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * PolygonClipper: Boolean operations (union, intersection, difference and xor) on Shape objects, used in place of
+ * java.awt.geom.Area when combining many shapes, as Area slows down badly as the shape it's accumulating grows.
+ *
+ * Each Shape is flattened into straight edges with integer end points (SCALE units per inch), where each edge
+ * remembers the curve, and range of t on the curve it came from.  An operation on two sets of edges then:
+ *   1. Splits edges where they cross, or touch (crossings are rounded to the grid, so this repeats until none
+ *      are left) and merges edges that overlap, adding up how they change the winding number of each operand
+ *   2. Sweeps a line from left to right keeping the edges it crosses sorted from bottom to top in a TreeSet, so
+ *      the winding numbers just below each edge are found from the edge below it (as in the Vatti and
+ *      Martinez-Rueda algorithms)
+ *   3. Keeps the edges that have the result inside on one side and outside on the other, pointed so the inside
+ *      is on their left
+ * Results are turned back into a Path2D by chaining edges into contours, and each run of edges that came from the
+ * same curve is replaced by the matching piece of that curve, so circles stay circles.
+ *
+ * union() combines many shapes by balanced divide and conquer, so each shape is part of O(log n) operations, not
+ * merged one at a time into an ever larger result, and the independent sub-unions are run in parallel.
+ *
+ * If rounding still leaves crossings after MAX_PASSES passes, the operation is done with Area instead (or, for
+ * WIND_POSITIVE, which Area can't fill, throws an IllegalStateException), rather than return a wrong result.
+ *
+ * Ref: Vatti, "A generic solution to polygon clipping" (1992)
+ * Ref: Martinez, Rueda & Feito, "A new algorithm for computing Boolean operations on polygons" (2009)
+ */
+
+class PolygonClipper {
+  static final int            UNION = 0, INTERSECTION = 1, DIFFERENCE = 2, XOR = 3;
+  static final int            WIND_POSITIVE = 2;        // Winding rule that fills where winding > 0, for offsetting
+  static final int            AREA_MAX = 200;           // Shapes below which Area is faster at union (see main())
+  private static final double SCALE = 1e6;              // Grid units per inch (coords must be within +/- 1000 inches)
+  private static final double FLATNESS = .0001;         // Chord tolerance used to flatten curves (inches)
+  private static final int    MAX_PASSES = 8;           // Max passes to split edges that cross after rounding
+  private static final int    THRESHOLD = 4;            // Max shapes unioned by one task without forking
+
+  /**
+   * Curve segment (or line) of a Shape, in inches
+   */
+  private static class Curve {
+    final double[]  pts;                                // x, y of start, then control points, then end
+
+    Curve (double[] pts) {
+      this.pts = pts;
+    }
+  }
+
+  /**
+   * Thrown when edges still cross after MAX_PASSES passes of splitting them
+   */
+  private static class CrossingsLeftException extends IllegalStateException {
+    private static final long serialVersionUID = 7395019230477620144L;
+
+    CrossingsLeftException () {
+      super("Edges still cross after " + MAX_PASSES + " passes");
+    }
+  }
+
+  /**
+   * Straight edge between grid points, with left end (by x, then y) first
+   */
+  private static class Edge extends Rectangle2D.Double {
+    private static final long serialVersionUID = -2860624507163317839L;
+    final long    x0, y0, x1, y1;
+    final Curve   curve;
+    final double  t0, t1;                               // t on curve at left and right end
+    int           windA, windB;                         // Change in winding of each operand from below to above
+    int           belowA, belowB;                       // Winding of each operand just below edge (set by sweep)
+    int           id;
+    boolean       dirty = true;                         // Needs to be checked for crossings
+    long[]        cuts;                                 // x, y of points to split edge at
+    int           numCuts;
+
+    Edge (long x0, long y0, long x1, long y1, Curve curve, double t0, double t1, int windA, int windB) {
+      super(x0, Math.min(y0, y1), x1 - x0, Math.abs(y1 - y0));
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.curve = curve;
+      this.t0 = t0;
+      this.t1 = t1;
+      this.windA = windA;
+      this.windB = windB;
+    }
+
+    Edge copy (int windA, int windB) {
+      return new Edge(x0, y0, x1, y1, curve, t0, t1, windA, windB);
+    }
+
+    void addCut (long x, long y) {
+      if (cuts == null) {
+        cuts = new long[4];
+      } else if (numCuts * 2 == cuts.length) {
+        cuts = Arrays.copyOf(cuts, cuts.length * 2);
+      }
+      cuts[numCuts * 2] = x;
+      cuts[numCuts * 2 + 1] = y;
+      numCuts++;
+    }
+  }
+
+  /**
+   * Set of edges that encloses an area using a winding rule
+   */
+  private static class Region {
+    final List<Edge>  edges;
+    final int         rule;                             // PathIterator.WIND_NON_ZERO, or WIND_EVEN_ODD
+    final boolean     simple;                           // true if winding is 0 outside and 1 inside
+    long              minX = Long.MAX_VALUE, minY = Long.MAX_VALUE, maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+
+    Region (List<Edge> edges, int rule, boolean simple) {
+      this.edges = edges;
+      this.rule = rule;
+      this.simple = simple;
+      for (Edge edge : edges) {
+        add(edge);
+      }
+    }
+
+    // Expand bounds to include edge
+    void add (Edge edge) {
+      minX = Math.min(minX, edge.x0);
+      maxX = Math.max(maxX, edge.x1);
+      minY = Math.min(minY, Math.min(edge.y0, edge.y1));
+      maxY = Math.max(maxY, Math.max(edge.y0, edge.y1));
+    }
+
+    boolean overlaps (Region region) {
+      return minX <= region.maxX && region.minX <= maxX && minY <= region.maxY && region.minY <= maxY;
+    }
+
+    boolean overlaps (Edge edge) {
+      return minX <= edge.x1 && edge.x0 <= maxX && minY <= Math.max(edge.y0, edge.y1) &&
+             Math.min(edge.y0, edge.y1) <= maxY;
+    }
+  }
+
+  /**
+   * Compute the union of a List of shapes
+   * @param shapes List of Shape objects (in inches)
+   * @return Path2D.Double enclosing the area inside any of the shapes
+   */
+  static Path2D.Double union (List<? extends Shape> shapes) {
+    if (shapes.isEmpty()) {
+      return new Path2D.Double();
+    }
+    // Sort by x so each sub-union holds shapes near each other, which often don't overlap the other half
+    List<Shape> sorted = new ArrayList<>(shapes);
+    sorted.sort(Comparator.comparingDouble(shape -> shape.getBounds2D().getCenterX()));
+    try {
+      Region region = ForkJoinPool.commonPool().invoke(new UnionTask(sorted, 0, sorted.size()));
+      if (!region.simple) {
+        // Single shape, so union it with nothing to remove overlaps and self crossings
+        region = combine(region, new Region(new ArrayList<>(), PathIterator.WIND_NON_ZERO, true), UNION);
+      }
+      return toShape(region);
+    } catch (CrossingsLeftException ex) {
+      return new Path2D.Double(unionWithArea(shapes));
+    }
+  }
+
+  /**
+   * Subtract a List of shapes from a shape
+   * @param base Shape to subtract from (in inches)
+   * @param shapes List of Shape objects to subtract (in inches)
+   * @return Path2D.Double enclosing the area inside base, but not inside any of the shapes
+   */
+  static Path2D.Double subtract (Shape base, List<? extends Shape> shapes) {
+    try {
+      Region others = ForkJoinPool.commonPool().invoke(new UnionTask(new ArrayList<>(shapes), 0, shapes.size()));
+      return toShape(combine(getRegion(base), others, DIFFERENCE));
+    } catch (CrossingsLeftException ex) {
+      Area area = new Area(base);
+      area.subtract(unionWithArea(shapes));
+      return new Path2D.Double(area);
+    }
+  }
+
+  /**
+   * Perform a boolean operation on two shapes
+   * @param a first Shape (in inches)
+   * @param b second Shape (in inches)
+   * @param op UNION, INTERSECTION, DIFFERENCE (a - b), or XOR
+   * @return Path2D.Double enclosing the result
+   */
+  static Path2D.Double apply (Shape a, Shape b, int op) {
+    try {
+      return toShape(combine(getRegion(a), getRegion(b), op));
+    } catch (CrossingsLeftException ex) {
+      Area area = new Area(a);
+      switch (op) {
+        case UNION:
+          area.add(new Area(b));
+          break;
+        case INTERSECTION:
+          area.intersect(new Area(b));
+          break;
+        case DIFFERENCE:
+          area.subtract(new Area(b));
+          break;
+        default:
+          area.exclusiveOr(new Area(b));
+          break;
+      }
+      return new Path2D.Double(area);
+    }
+  }
+
+  /**
+   * Remove self crossings and overlaps from a shape by filling it with a winding rule
+   * @param shape Shape (in inches)
+   * @param rule PathIterator.WIND_NON_ZERO, PathIterator.WIND_EVEN_ODD, or WIND_POSITIVE
+   * @return Path2D.Double with contours that don't cross, each with the inside on its left
+   */
+  static Path2D.Double simplify (Shape shape, int rule) {
+    Region region = new Region(getRegion(shape).edges, rule, false);
+    try {
+      return toShape(combine(region, new Region(new ArrayList<>(), PathIterator.WIND_NON_ZERO, true), UNION));
+    } catch (CrossingsLeftException ex) {
+      if (rule == WIND_POSITIVE) {
+        throw ex;
+      }
+      Path2D.Double path = new Path2D.Double(rule);
+      path.append(shape, false);
+      return new Path2D.Double(new Area(path));
+    }
+  }
+
+  /**
+   * Computes the union of the shapes from lo up to hi by splitting them in half and computing the union of each
+   * half, in parallel if there are more than THRESHOLD shapes
+   */
+  private static class UnionTask extends RecursiveTask<Region> {
+    private static final long serialVersionUID = 5812273618840327461L;
+    private final List<Shape> shapes;
+    private final int         lo, hi;
+
+    UnionTask (List<Shape> shapes, int lo, int hi) {
+      this.shapes = shapes;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected Region compute () {
+      if (hi - lo == 0) {
+        return new Region(new ArrayList<>(), PathIterator.WIND_NON_ZERO, true);
+      } else if (hi - lo == 1) {
+        return getRegion(shapes.get(lo));
+      }
+      int mid = (lo + hi) >>> 1;
+      UnionTask left = new UnionTask(shapes, lo, mid);
+      UnionTask right = new UnionTask(shapes, mid, hi);
+      if (hi - lo <= THRESHOLD) {
+        return combine(left.compute(), right.compute(), UNION);
+      }
+      right.fork();
+      Region first = left.compute();
+      return combine(first, right.join(), UNION);
+    }
+  }
+
+  /*
+   * * * * * * * Conversion to and from Shape * * * * * * * *
+   */
+
+  /**
+   * Flatten a Shape into a Region.  Open subpaths are closed, as they are when filling a Shape.
+   */
+  private static Region getRegion (Shape shape) {
+    List<Edge> edges = new ArrayList<>();
+    PathIterator pi = shape.getPathIterator(null);
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (; !pi.isDone(); pi.next()) {
+      switch (pi.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          addCurve(edges, new double[] {lastX, lastY, startX, startY});
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          addCurve(edges, new double[] {lastX, lastY, lastX = coords[0], lastY = coords[1]});
+          break;
+        case PathIterator.SEG_QUADTO:
+          addCurve(edges, new double[] {lastX, lastY, coords[0], coords[1], lastX = coords[2], lastY = coords[3]});
+          break;
+        case PathIterator.SEG_CUBICTO:
+          addCurve(edges, new double[] {lastX, lastY, coords[0], coords[1], coords[2], coords[3],
+                                        lastX = coords[4], lastY = coords[5]});
+          break;
+        case PathIterator.SEG_CLOSE:
+          addCurve(edges, new double[] {lastX, lastY, lastX = startX, lastY = startY});
+          break;
+      }
+    }
+    addCurve(edges, new double[] {lastX, lastY, startX, startY});
+    return new Region(edges, pi.getWindingRule(), false);
+  }
+
+  /**
+   * Flatten a curve into edges using even steps of t, with the number of steps from Wang's formula, which bounds
+   * the distance between a Bezier curve and its chords by the size of its second differences
+   */
+  private static void addCurve (List<Edge> edges, double[] pts) {
+    int degree = pts.length / 2 - 1;
+    if (degree == 1 && pts[0] == pts[2] && pts[1] == pts[3]) {
+      return;
+    }
+    int steps = 1;
+    if (degree > 1) {
+      double max = 0;
+      for (int ii = 0; ii < degree - 1; ii++) {
+        int pp = ii * 2;
+        double dx = pts[pp] - 2 * pts[pp + 2] + pts[pp + 4], dy = pts[pp + 1] - 2 * pts[pp + 3] + pts[pp + 5];
+        max = Math.max(max, Math.hypot(dx, dy));
+      }
+      steps = Math.max(1, (int) Math.ceil(Math.sqrt(degree * (degree - 1) * max / (8 * FLATNESS))));
+    }
+    Curve curve = new Curve(pts);
+    double[] point = new double[2];
+    long lastX = Math.round(pts[0] * SCALE), lastY = Math.round(pts[1] * SCALE);
+    double lastT = 0;
+    for (int ii = 1; ii <= steps; ii++) {
+      double t = (double) ii / steps;
+      if (ii == steps) {
+        point[0] = pts[pts.length - 2];
+        point[1] = pts[pts.length - 1];
+      } else {
+        getPoint(pts, t, point);
+      }
+      long x = Math.round(point[0] * SCALE), y = Math.round(point[1] * SCALE);
+      if (x != lastX || y != lastY) {
+        if (x > lastX || x == lastX && y > lastY) {
+          edges.add(new Edge(lastX, lastY, x, y, curve, lastT, t, 1, 0));
+        } else {
+          edges.add(new Edge(x, y, lastX, lastY, curve, t, lastT, -1, 0));
+        }
+        lastX = x;
+        lastY = y;
+        lastT = t;
+      }
+    }
+  }
+
+  /**
+   * Chain the edges of a simple Region into contours
+   */
+  private static Path2D.Double toShape (Region region) {
+    Path2D.Double path = new Path2D.Double(PathIterator.WIND_NON_ZERO);
+    int count = region.edges.size();
+    // Point each edge so the inside is on its left, then sort by where they start
+    Edge[] edges = region.edges.toArray(new Edge[0]);
+    Integer[] order = new Integer[count];
+    long[] sx = new long[count], sy = new long[count], ex = new long[count], ey = new long[count];
+    for (int ii = 0; ii < count; ii++) {
+      Edge edge = edges[ii];
+      boolean forward = edge.windA > 0;
+      sx[ii] = forward ? edge.x0 : edge.x1;
+      sy[ii] = forward ? edge.y0 : edge.y1;
+      ex[ii] = forward ? edge.x1 : edge.x0;
+      ey[ii] = forward ? edge.y1 : edge.y0;
+      order[ii] = ii;
+    }
+    Arrays.sort(order, (a, b) -> sx[a] != sx[b] ? Long.compare(sx[a], sx[b]) : Long.compare(sy[a], sy[b]));
+    long[] startX = new long[count], startY = new long[count];
+    for (int ii = 0; ii < count; ii++) {
+      startX[ii] = sx[order[ii]];
+      startY[ii] = sy[order[ii]];
+    }
+    boolean[] used = new boolean[count];
+    for (int first = 0; first < count; first++) {
+      if (used[order[first]]) {
+        continue;
+      }
+      int cur = order[first];
+      path.moveTo(sx[cur] / SCALE, sy[cur] / SCALE);
+      // Edges are added as runs which follow one curve, or one straight line
+      Curve runCurve = null;
+      double runStart = 0, runEnd = 0;
+      long runX = 0, runY = 0, lineX = 0, lineY = 0;
+      while (cur >= 0) {
+        used[cur] = true;
+        Edge edge = edges[cur];
+        boolean forward = edge.windA > 0;
+        double ta = forward ? edge.t0 : edge.t1, tb = forward ? edge.t1 : edge.t0;
+        boolean isLine = edge.curve.pts.length == 4;
+        if (runCurve != null && edge.curve == runCurve && ta == runEnd && (tb > ta) == (runEnd > runStart)) {
+          runEnd = tb;
+        } else if (runCurve != null && isLine && runCurve.pts.length == 4 &&
+                   (runX - lineX) * (ey[cur] - lineY) == (runY - lineY) * (ex[cur] - lineX) &&
+                   (runX - lineX) * (ex[cur] - runX) + (runY - lineY) * (ey[cur] - runY) > 0) {
+          runCurve = edge.curve;                              // Continues straight line, such as a shared edge
+        } else {
+          if (runCurve != null) {
+            addRun(path, runCurve, runStart, runEnd, runX, runY);
+          }
+          runCurve = edge.curve;
+          runStart = ta;
+          runEnd = tb;
+          lineX = sx[cur];
+          lineY = sy[cur];
+        }
+        runX = ex[cur];
+        runY = ey[cur];
+        // Continue with the edge that turns most to the left, which keeps contours that touch at a point separate
+        int next = -1;
+        double bestTurn = -Math.PI * 2;
+        double dx = ex[cur] - sx[cur], dy = ey[cur] - sy[cur];
+        for (int ii = findStart(startX, startY, ex[cur], ey[cur]); ii < count; ii++) {
+          if (startX[ii] != ex[cur] || startY[ii] != ey[cur]) {
+            break;
+          }
+          int cand = order[ii];
+          if (!used[cand]) {
+            double nx = ex[cand] - sx[cand], ny = ey[cand] - sy[cand];
+            double turn = Math.atan2(dx * ny - dy * nx, dx * nx + dy * ny);
+            if (turn > bestTurn) {
+              bestTurn = turn;
+              next = cand;
+            }
+          }
+        }
+        cur = next;
+      }
+      addRun(path, runCurve, runStart, runEnd, runX, runY);
+      path.closePath();
+    }
+    return path;
+  }
+
+  // Binary search for the first point in sorted arrays of x, y that is at, or after x, y
+  private static int findStart (long[] xs, long[] ys, long x, long y) {
+    int lo = 0, hi = xs.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (xs[mid] < x || xs[mid] == x && ys[mid] < y) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Add the piece of curve from t = ta to t = tb, ending at x, y (grid units)
+   */
+  private static void addRun (Path2D.Double path, Curve curve, double ta, double tb, long x, long y) {
+    double[] pts = curve.pts;
+    if (pts.length == 4) {
+      path.lineTo(x / SCALE, y / SCALE);
+      return;
+    }
+    // Split curve at tb and keep the first piece, then split that where ta is and keep the second piece
+    boolean reverse = ta > tb;
+    double lo = Math.min(ta, tb), hi = Math.max(ta, tb);
+    double[] sub = hi < 1 ? splitCurve(pts, hi, true) : pts;
+    sub = lo > 0 ? splitCurve(sub, lo / hi, false) : sub;
+    int last = sub.length - 2;
+    if (sub.length == 6) {
+      path.quadTo(sub[2], sub[3], x / SCALE, y / SCALE);
+    } else if (reverse) {
+      path.curveTo(sub[last - 2], sub[last - 1], sub[2], sub[3], x / SCALE, y / SCALE);
+    } else {
+      path.curveTo(sub[2], sub[3], sub[4], sub[5], x / SCALE, y / SCALE);
+    }
+  }
+
+  /**
+   * Split a Bezier curve at t using de Casteljau's algorithm
+   * @param pts x, y of start, control points and end
+   * @param t where to split the curve
+   * @param first if true return the piece before t, else the piece after it
+   * @return x, y of start, control points and end of the piece
+   */
+  private static double[] splitCurve (double[] pts, double t, boolean first) {
+    int count = pts.length / 2;
+    double[] work = pts.clone();
+    double[] piece = new double[pts.length];
+    for (int level = 0; level < count; level++) {
+      int last = count - 1 - level;
+      int pp = first ? level * 2 : last * 2;
+      int ww = first ? 0 : last * 2;
+      piece[pp] = work[ww];
+      piece[pp + 1] = work[ww + 1];
+      for (int ii = 0; ii < last * 2; ii++) {
+        work[ii] += (work[ii + 2] - work[ii]) * t;
+      }
+    }
+    return piece;
+  }
+
+  private static void getPoint (double[] pts, double t, double[] point) {
+    double[] work = pts.clone();
+    for (int last = pts.length / 2 - 1; last > 0; last--) {
+      for (int ii = 0; ii < last * 2; ii++) {
+        work[ii] += (work[ii + 2] - work[ii]) * t;
+      }
+    }
+    point[0] = work[0];
+    point[1] = work[1];
+  }
+
+  /*
+   * * * * * * * Boolean Operation * * * * * * * *
+   */
+
+  /**
+   * Perform a boolean operation on two Regions
+   * @param a first Region
+   * @param b second Region
+   * @param op UNION, INTERSECTION, DIFFERENCE (a - b), or XOR
+   * @return simple Region enclosing the result
+   */
+  private static Region combine (Region a, Region b, int op) {
+    if (a.simple && b.simple && !a.overlaps(b)) {
+      // Regions are apart, so there's nothing to split, or classify
+      List<Edge> edges = new ArrayList<>();
+      if (op != INTERSECTION) {
+        edges.addAll(a.edges);
+        if (op != DIFFERENCE) {
+          edges.addAll(b.edges);
+        }
+      }
+      return new Region(edges, PathIterator.WIND_NON_ZERO, true);
+    }
+    // When both Regions are simple, edges outside the slab where their x ranges overlap are outside the other
+    // Region, so they are kept or dropped as is, and only edges in the slab need to be split and swept
+    boolean simple = a.simple && b.simple;
+    long slabMin = Math.max(a.minX, b.minX) - 2, slabMax = Math.min(a.maxX, b.maxX) + 2;
+    List<Edge> result = new ArrayList<>();
+    List<Edge> edges = new ArrayList<>(a.edges.size() + b.edges.size());
+    for (Edge edge : a.edges) {
+      if (simple && (edge.x1 < slabMin || edge.x0 > slabMax)) {
+        if (op != INTERSECTION) {
+          result.add(edge);
+        }
+      } else {
+        edges.add(edge.copy(edge.windA, 0));
+      }
+    }
+    for (Edge edge : b.edges) {
+      if (simple && (edge.x1 < slabMin || edge.x0 > slabMax)) {
+        if (op == UNION || op == XOR) {
+          result.add(edge);
+        }
+      } else {
+        edges.add(edge.copy(0, edge.windA));
+      }
+    }
+    edges = splitEdges(edges, simple);
+    sweep(edges, simple ? slabMin : Long.MIN_VALUE);
+    for (Edge edge : edges) {
+      boolean below = isInside(op, a.rule, edge.belowA, b.rule, edge.belowB);
+      boolean above = isInside(op, a.rule, edge.belowA + edge.windA, b.rule, edge.belowB + edge.windB);
+      if (below != above) {
+        result.add(edge.copy(above ? 1 : -1, 0));
+      }
+    }
+    return new Region(result, PathIterator.WIND_NON_ZERO, true);
+  }
+
+  private static boolean isInside (int op, int ruleA, int windA, int ruleB, int windB) {
+    boolean inA = isInside(ruleA, windA), inB = isInside(ruleB, windB);
+    switch (op) {
+      case UNION:
+        return inA || inB;
+      case INTERSECTION:
+        return inA && inB;
+      case DIFFERENCE:
+        return inA && !inB;
+      default:
+        return inA != inB;
+    }
+  }
+
+  private static boolean isInside (int rule, int wind) {
+    switch (rule) {
+      case PathIterator.WIND_EVEN_ODD:
+        return (wind & 1) != 0;
+      case WIND_POSITIVE:
+        return wind > 0;
+      default:
+        return wind != 0;
+    }
+  }
+
+  /**
+   * Split edges where they cross, or where the end of one touches another, then merge edges that overlap.
+   * Crossings are rounded to the nearest grid point, which bends the edges a little, so repeat until no more
+   * crossings are found, only checking the new pieces after the first pass.
+   * @param edges List of edges from both operands
+   * @param simple if true, edges of the same operand are known not to cross, so aren't checked in the first pass
+   * @return List of edges which only meet at their ends
+   * @throws CrossingsLeftException if crossings are still found in the last of MAX_PASSES passes
+   */
+  private static List<Edge> splitEdges (List<Edge> edges, boolean simple) {
+    int pass = 0;
+    boolean found = true;
+    if (simple) {
+      // Only check edges of the first operand against edges of the second
+      List<Edge> others = new ArrayList<>();
+      Region bounds = new Region(others, PathIterator.WIND_NON_ZERO, true);
+      for (Edge edge : edges) {
+        if (edge.windA == 0) {
+          others.add(edge);
+          bounds.add(edge);
+        }
+      }
+      RTree tree = new RTree(others);
+      found = false;
+      for (Edge edge : edges) {
+        if (edge.windA != 0 && bounds.overlaps(edge)) {
+          for (int jj : tree.search(edge, false)) {
+            found |= intersect(edge, others.get(jj));
+          }
+        }
+      }
+      pass = 1;
+      if (found) {
+        edges = applyCuts(edges);
+      }
+    }
+    for (; found && pass < MAX_PASSES; pass++) {
+      RTree tree = new RTree(edges);
+      found = false;
+      for (int ii = 0; ii < edges.size(); ii++) {
+        Edge edge = edges.get(ii);
+        if (edge.dirty) {
+          for (int jj : tree.search(edge, false)) {
+            Edge other = edges.get(jj);
+            if (jj != ii && !(other.dirty && jj < ii)) {
+              found |= intersect(edge, other);
+            }
+          }
+        }
+      }
+      if (found) {
+        edges = applyCuts(edges);
+      }
+    }
+    if (found) {
+      throw new CrossingsLeftException();
+    }
+    // Merge overlapping edges, and drop those that don't change the winding of either operand
+    edges.sort((a, b) -> a.x0 != b.x0 ? Long.compare(a.x0, b.x0) : a.y0 != b.y0 ? Long.compare(a.y0, b.y0) :
+                         a.x1 != b.x1 ? Long.compare(a.x1, b.x1) : Long.compare(a.y1, b.y1));
+    List<Edge> merged = new ArrayList<>(edges.size());
+    Edge last = null;
+    for (Edge edge : edges) {
+      if (last != null && edge.x0 == last.x0 && edge.y0 == last.y0 && edge.x1 == last.x1 && edge.y1 == last.y1) {
+        last.windA += edge.windA;
+        last.windB += edge.windB;
+      } else {
+        if (last != null && (last.windA != 0 || last.windB != 0)) {
+          merged.add(last);
+        }
+        last = edge;
+      }
+    }
+    if (last != null && (last.windA != 0 || last.windB != 0)) {
+      merged.add(last);
+    }
+    return merged;
+  }
+
+  /**
+   * Find where two edges cross, or touch and add cuts there
+   * @return true if a cut was added
+   */
+  private static boolean intersect (Edge e, Edge f) {
+    long d1 = orient(e, f.x0, f.y0), d2 = orient(e, f.x1, f.y1);
+    long d3 = orient(f, e.x0, e.y0), d4 = orient(f, e.x1, e.y1);
+    if (d1 == 0 && d2 == 0) {
+      // Collinear, so split each where the other's ends are inside it
+      return cutInside(e, f.x0, f.y0) | cutInside(e, f.x1, f.y1) | cutInside(f, e.x0, e.y0) | cutInside(f, e.x1, e.y1);
+    } else if (Long.signum(d1) * Long.signum(d2) < 0 && Long.signum(d3) * Long.signum(d4) < 0) {
+      double s = d3 / ((double) d3 - d4);
+      long[] pt = {Math.round(e.x0 + (e.x1 - e.x0) * s), Math.round(e.y0 + (e.y1 - e.y0) * s)};
+      // If rounding moved the crossing past the end of an edge, the edges meet at that end instead
+      clampToEdge(pt, e);
+      clampToEdge(pt, f);
+      return cutInside(e, pt[0], pt[1]) | cutInside(f, pt[0], pt[1]);
+    }
+    // End of one edge touching the other
+    boolean found = d1 == 0 && cutInside(e, f.x0, f.y0);
+    found |= d2 == 0 && cutInside(e, f.x1, f.y1);
+    found |= d3 == 0 && cutInside(f, e.x0, e.y0);
+    found |= d4 == 0 && cutInside(f, e.x1, e.y1);
+    return found;
+  }
+
+  // Move point to the nearest end of edge if it's not between its ends (ordered by x, then y)
+  private static void clampToEdge (long[] pt, Edge edge) {
+    if (pt[0] < edge.x0 || pt[0] == edge.x0 && pt[1] < edge.y0) {
+      pt[0] = edge.x0;
+      pt[1] = edge.y0;
+    } else if (pt[0] > edge.x1 || pt[0] == edge.x1 && pt[1] > edge.y1) {
+      pt[0] = edge.x1;
+      pt[1] = edge.y1;
+    }
+  }
+
+  // Add cut to edge if x, y is between its ends (ordered by x, then y)
+  private static boolean cutInside (Edge edge, long x, long y) {
+    if ((x > edge.x0 || x == edge.x0 && y > edge.y0) && (x < edge.x1 || x == edge.x1 && y < edge.y1)) {
+      edge.addCut(x, y);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return > 0 if x, y is left of (above) edge, < 0 if right of (below) it, or 0 if on its line
+   */
+  private static long orient (Edge edge, long x, long y) {
+    return (edge.x1 - edge.x0) * (y - edge.y0) - (edge.y1 - edge.y0) * (x - edge.x0);
+  }
+
+  /**
+   * Replace edges that have cuts with the pieces between the cuts
+   */
+  private static List<Edge> applyCuts (List<Edge> edges) {
+    List<Edge> pieces = new ArrayList<>(edges.size() + edges.size() / 4);
+    for (Edge edge : edges) {
+      if (edge.numCuts == 0) {
+        edge.dirty = false;
+        pieces.add(edge);
+        continue;
+      }
+      // Sort cuts from left end to right end
+      long[] cuts = edge.cuts;
+      for (int ii = 1; ii < edge.numCuts; ii++) {
+        for (int jj = ii; jj > 0; jj--) {
+          int pp = jj * 2;
+          if (cuts[pp - 2] < cuts[pp] || cuts[pp - 2] == cuts[pp] && cuts[pp - 1] <= cuts[pp + 1]) {
+            break;
+          }
+          long tx = cuts[pp], ty = cuts[pp + 1];
+          cuts[pp] = cuts[pp - 2];
+          cuts[pp + 1] = cuts[pp - 1];
+          cuts[pp - 2] = tx;
+          cuts[pp - 1] = ty;
+        }
+      }
+      double len = Math.hypot(edge.x1 - edge.x0, edge.y1 - edge.y0);
+      long lastX = edge.x0, lastY = edge.y0;
+      double lastT = edge.t0;
+      for (int ii = 0; ii < edge.numCuts; ii++) {
+        long x = cuts[ii * 2], y = cuts[ii * 2 + 1];
+        if (x != lastX || y != lastY) {
+          double t = edge.t0 + (edge.t1 - edge.t0) * Math.hypot(x - edge.x0, y - edge.y0) / len;
+          pieces.add(new Edge(lastX, lastY, x, y, edge.curve, lastT, t, edge.windA, edge.windB));
+          lastX = x;
+          lastY = y;
+          lastT = t;
+        }
+      }
+      pieces.add(new Edge(lastX, lastY, edge.x1, edge.y1, edge.curve, lastT, edge.t1, edge.windA, edge.windB));
+    }
+    return pieces;
+  }
+
+  /**
+   * Sweep a line across edges that only meet at their ends to find the winding numbers just below each edge.
+   * Edges are added to the sweep line's TreeSet at their left end and removed at their right end, with edges
+   * that end at a point removed before the edges that start there are added (lowest first).
+   * @param edges List of edges
+   * @param start x where the sweep starts, as the edges that cross it are all the edges left of it that matter
+   */
+  private static void sweep (List<Edge> edges, long start) {
+    int count = edges.size();
+    List<Integer> eventList = new ArrayList<>(count * 2);     // Edge index * 2, + 1 for left end
+    List<Edge> crossing = new ArrayList<>();
+    for (int ii = 0; ii < count; ii++) {
+      Edge edge = edges.get(ii);
+      edge.id = ii;
+      eventList.add(ii * 2);
+      if (edge.x0 < start) {
+        crossing.add(edge);
+      } else {
+        eventList.add(ii * 2 + 1);
+      }
+    }
+    Integer[] events = eventList.toArray(new Integer[0]);
+    Arrays.sort(events, (a, b) -> {
+      Edge ea = edges.get(a >> 1), eb = edges.get(b >> 1);
+      boolean leftA = (a & 1) != 0, leftB = (b & 1) != 0;
+      long ax = leftA ? ea.x0 : ea.x1, ay = leftA ? ea.y0 : ea.y1;
+      long bx = leftB ? eb.x0 : eb.x1, by = leftB ? eb.y0 : eb.y1;
+      if (ax != bx) {
+        return Long.compare(ax, bx);
+      } else if (ay != by) {
+        return Long.compare(ay, by);
+      } else if (leftA != leftB) {
+        return leftA ? 1 : -1;
+      } else if (leftA && ea != eb) {
+        return orient(ea, eb.x1, eb.y1) > 0 ? -1 : 1;
+      }
+      return 0;
+    });
+    // Add edges that cross the start of the sweep from bottom to top
+    TreeSet<Edge> status = new TreeSet<>(PolygonClipper::compareEdges);
+    crossing.sort(PolygonClipper::compareEdges);
+    for (Edge edge : crossing) {
+      Edge below = status.isEmpty() ? null : status.last();
+      status.add(edge);
+      if (below != null) {
+        edge.belowA = below.belowA + below.windA;
+        edge.belowB = below.belowB + below.windB;
+      }
+    }
+    for (Integer event : events) {
+      Edge edge = edges.get(event >> 1);
+      if ((event & 1) != 0) {
+        status.add(edge);
+        Edge below = status.lower(edge);
+        if (below != null) {
+          edge.belowA = below.belowA + below.windA;
+          edge.belowB = below.belowB + below.windB;
+        }
+      } else if (!status.remove(edge)) {
+        throw new CrossingsLeftException();                   // Order was upset by a crossing that's left
+      }
+    }
+  }
+
+  /**
+   * Compare the order of two edges on the sweep line, from bottom to top, by checking which side of the edge that
+   * was added first the other edge's left end, or if they share a left end, its right end is on
+   */
+  private static int compareEdges (Edge s, Edge t) {
+    if (s == t) {
+      return 0;
+    }
+    int sign = 1;
+    if (t.x0 < s.x0 || t.x0 == s.x0 && t.y0 < s.y0) {
+      Edge tmp = s;
+      s = t;
+      t = tmp;
+      sign = -1;
+    }
+    long side = s.x0 == t.x0 && s.y0 == t.y0 ? 0 : orient(s, t.x0, t.y0);
+    if (side == 0) {
+      side = orient(s, t.x1, t.y1);
+    }
+    if (side == 0) {
+      return sign * Integer.compare(s.id, t.id);
+    }
+    return side > 0 ? -sign : sign;
+  }
+
+  /*
+   * * * * * * * Benchmark * * * * * * * *
+   */
+
+  /**
+   * Chain of overlapping rounded rectangles and circles, each touching the next, as when a design's parts are
+   * combined into one outline
+   */
+  private static List<Shape> getBenchmarkShapes (int count) {
+    List<Shape> shapes = new ArrayList<>();
+    int cols = (int) Math.ceil(Math.sqrt(count));
+    for (int ii = 0; ii < count; ii++) {
+      double x = (ii % cols) * .4, y = (ii / cols) * .4;
+      if ((ii & 1) == 0) {
+        shapes.add(new java.awt.geom.RoundRectangle2D.Double(x, y, .6, .3, .1, .1));
+      } else {
+        shapes.add(new java.awt.geom.Ellipse2D.Double(x, y - .1, .5, .5));
+      }
+    }
+    return shapes;
+  }
+
+  /**
+   * Compare the time to union shapes one at a time with Area, to union them with PolygonClipper, which is used to
+   * pick AREA_MAX.  Each time is the best of 3 runs.  Optional argument sets the max number of shapes (default 1280).
+   */
+  public static void main (String[] args) {
+    int max = args.length > 0 ? Integer.parseInt(args[0]) : 1280;
+    for (int ii = 0; ii < 5; ii++) {
+      // Warm up JIT
+      union(getBenchmarkShapes(100));
+      unionWithArea(getBenchmarkShapes(100));
+    }
+    // Counts are closer together around AREA_MAX
+    int[] counts = {10, 20, 40, 80, 120, 160, 200, 240, 280, 320, 640, 1280, 2560, 5120};
+    for (int count : counts) {
+      if (count > max) {
+        break;
+      }
+      List<Shape> shapes = getBenchmarkShapes(count);
+      long areaTime = Long.MAX_VALUE, clipTime = Long.MAX_VALUE;
+      for (int ii = 0; ii < 3; ii++) {
+        long start = System.nanoTime();
+        unionWithArea(shapes);
+        areaTime = Math.min(areaTime, System.nanoTime() - start);
+        start = System.nanoTime();
+        union(shapes);
+        clipTime = Math.min(clipTime, System.nanoTime() - start);
+      }
+      System.out.printf("%5d shapes: Area %7.1f ms, PolygonClipper %7.1f ms%n", count, areaTime / 1e6, clipTime / 1e6);
+    }
+  }
+
+  private static Area unionWithArea (List<? extends Shape> shapes) {
+    Area area = new Area();
+    for (Shape shape : shapes) {
+      area.add(new Area(shape));
+    }
+    return area;
+  }
+}
@@ -0,0 +1,220 @@
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * PolylineSet: Compact set of polylines, such as the flattened outline of a Shape, where the points of all the
+ * polylines are packed into a single array of x, y pairs and each polyline is a range of points in that array.
+ * Replaces lists of Line2D.Double arrays, which hold each point twice in a separate object per segment.
+ *
+ * Polylines are read by index, so callers can loop over them without allocating objects, such as:
+ *
+ *    for (int pp = 0; pp < set.size(); pp++) {
+ *      for (int ii = set.getStart(pp); ii < set.getEnd(pp); ii++) {
+ *        double x = set.getX(ii), y = set.getY(ii);
+ *
+ * Each polyline has at least two points, and a closed polyline ends with a copy of its first point.
+ */
+
+class PolylineSet {
+  private double[]  coords = new double[32];            // x, y of each point
+  private int[]     starts = new int[8];                // Index of the first point of each polyline, then count
+  private int       points, lines;
+  private static final int  MAX_DEPTH = 24;             // Guards against NaN, or huge coords (2^24 pieces per curve)
+
+  PolylineSet () { }
+
+  /**
+   * Flatten a Shape into a PolylineSet.  Curves are split in half until each piece is within flatten of its
+   * chord, so gentle curves get few segments and tight ones get more, with no fixed limit on the depth.
+   * @param shape Shape to flatten (usually in inches)
+   * @param scale used to scale from inches to the render resolution, such as Screen or Laser DPI.
+   * @param flatten max distance between a curve and its line segments (in scaled units)
+   * @return PolylineSet with a polyline for each subpath of shape
+   */
+  static PolylineSet fromShape (Shape shape, double scale, double flatten) {
+    PolylineSet set = new PolylineSet();
+    AffineTransform at = scale != 1.0 ? AffineTransform.getScaleInstance(scale, scale) : null;
+    PathIterator pi = shape.getPathIterator(at);
+    double[] coords = new double[6];
+    double firstX = 0, firstY = 0, lastX = 0, lastY = 0;
+    double tolSq = flatten * flatten;
+    for (; !pi.isDone(); pi.next()) {
+      switch (pi.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          set.moveTo(firstX = lastX = coords[0], firstY = lastY = coords[1]);
+          break;
+        case PathIterator.SEG_LINETO:
+          set.lineTo(lastX = coords[0], lastY = coords[1]);
+          break;
+        case PathIterator.SEG_QUADTO:
+          set.addQuad(lastX, lastY, coords[0], coords[1], lastX = coords[2], lastY = coords[3], tolSq, 0);
+          break;
+        case PathIterator.SEG_CUBICTO:
+          set.addCubic(lastX, lastY, coords[0], coords[1], coords[2], coords[3], lastX = coords[4], lastY = coords[5],
+                       tolSq, 0);
+          break;
+        case PathIterator.SEG_CLOSE:
+          if (lastX != firstX || lastY != firstY) {
+            set.lineTo(lastX = firstX, lastY = firstY);
+          }
+          break;
+      }
+    }
+    set.trim();
+    return set;
+  }
+
+  /*
+   * Add a quadratic curve from x0, y0 (already added) to x2, y2.  The curve's max distance from its chord is a
+   * quarter of the distance from the control point to the chord's midpoint, so split until that's within tolerance.
+   */
+  private void addQuad (double x0, double y0, double cx, double cy, double x2, double y2, double tolSq, int depth) {
+    double dx = x0 - 2 * cx + x2, dy = y0 - 2 * cy + y2;
+    if (depth >= MAX_DEPTH || dx * dx + dy * dy <= 16 * tolSq) {
+      lineTo(x2, y2);
+      return;
+    }
+    double ax = (x0 + cx) / 2, ay = (y0 + cy) / 2;
+    double bx = (cx + x2) / 2, by = (cy + y2) / 2;
+    double mx = (ax + bx) / 2, my = (ay + by) / 2;
+    addQuad(x0, y0, ax, ay, mx, my, tolSq, depth + 1);
+    addQuad(mx, my, bx, by, x2, y2, tolSq, depth + 1);
+  }
+
+  /*
+   * Add a cubic curve from x0, y0 (already added) to x3, y3.  Uses the bound on a cubic's distance from its chord
+   * of sqrt(max(ux^2, vx^2) + max(uy^2, vy^2)) / 4, where u = 3c1 - 2p0 - p3 and v = 3c2 - p0 - 2p3, and splits
+   * at t = .5 until it's within tolerance.
+   */
+  private void addCubic (double x0, double y0, double c1x, double c1y, double c2x, double c2y, double x3, double y3,
+                         double tolSq, int depth) {
+    double ux = 3 * c1x - 2 * x0 - x3, uy = 3 * c1y - 2 * y0 - y3;
+    double vx = 3 * c2x - x0 - 2 * x3, vy = 3 * c2y - y0 - 2 * y3;
+    if (depth >= MAX_DEPTH || Math.max(ux * ux, vx * vx) + Math.max(uy * uy, vy * vy) <= 16 * tolSq) {
+      lineTo(x3, y3);
+      return;
+    }
+    double ax = (x0 + c1x) / 2, ay = (y0 + c1y) / 2;
+    double bx = (c1x + c2x) / 2, by = (c1y + c2y) / 2;
+    double cx = (c2x + x3) / 2, cy = (c2y + y3) / 2;
+    double abx = (ax + bx) / 2, aby = (ay + by) / 2;
+    double bcx = (bx + cx) / 2, bcy = (by + cy) / 2;
+    double mx = (abx + bcx) / 2, my = (aby + bcy) / 2;
+    addCubic(x0, y0, ax, ay, abx, aby, mx, my, tolSq, depth + 1);
+    addCubic(mx, my, bcx, bcy, cx, cy, x3, y3, tolSq, depth + 1);
+  }
+
+  /**
+   * Start a new polyline.  If the last polyline has only one point, it's replaced.
+   */
+  void moveTo (double x, double y) {
+    trim();
+    if (lines + 2 > starts.length) {
+      starts = Arrays.copyOf(starts, starts.length * 2);
+    }
+    starts[lines++] = points;
+    starts[lines] = points;
+    addPoint(x, y);
+  }
+
+  /**
+   * Add a point to the current polyline, or start one at 0, 0 if there is none
+   */
+  void lineTo (double x, double y) {
+    if (lines == 0) {
+      moveTo(0, 0);
+    }
+    addPoint(x, y);
+  }
+
+  /**
+   * Append translated copies of the polylines in another PolylineSet
+   * @param set PolylineSet to copy
+   * @param dx x offset added to each point
+   * @param dy y offset added to each point
+   */
+  void append (PolylineSet set, double dx, double dy) {
+    for (int pp = 0; pp < set.size(); pp++) {
+      int start = set.getStart(pp), end = set.getEnd(pp);
+      moveTo(set.getX(start) + dx, set.getY(start) + dy);
+      for (int ii = start + 1; ii < end; ii++) {
+        lineTo(set.getX(ii) + dx, set.getY(ii) + dy);
+      }
+    }
+  }
+
+  private void addPoint (double x, double y) {
+    if (points * 2 + 2 > coords.length) {
+      coords = Arrays.copyOf(coords, coords.length * 2);
+    }
+    coords[points * 2] = x;
+    coords[points * 2 + 1] = y;
+    starts[lines] = ++points;
+  }
+
+  // Drop the last polyline if it has only one point
+  private void trim () {
+    if (lines > 0 && points - starts[lines - 1] < 2) {
+      points = starts[--lines];
+    }
+  }
+
+  /**
+   * @return number of polylines
+   */
+  int size () {
+    return points - (lines > 0 ? starts[lines - 1] : 0) < 2 ? Math.max(0, lines - 1) : lines;
+  }
+
+  /**
+   * @return index of the first point of polyline
+   */
+  int getStart (int polyline) {
+    return starts[polyline];
+  }
+
+  /**
+   * @return index after the last point of polyline
+   */
+  int getEnd (int polyline) {
+    return starts[polyline + 1];
+  }
+
+  double getX (int point) {
+    return coords[point * 2];
+  }
+
+  double getY (int point) {
+    return coords[point * 2 + 1];
+  }
+
+  /**
+   * @return true if polyline ends where it starts
+   */
+  boolean isClosed (int polyline) {
+    int first = starts[polyline], last = starts[polyline + 1] - 1;
+    return coords[first * 2] == coords[last * 2] && coords[first * 2 + 1] == coords[last * 2 + 1];
+  }
+
+  /**
+   * Check if a location is within a distance of any segment
+   * @param x x coordinate of location
+   * @param y y coordinate of location
+   * @param dist max distance
+   * @return true if a segment is closer than dist
+   */
+  boolean isNear (double x, double y, double dist) {
+    double distSq = dist * dist;
+    for (int pp = 0; pp < size(); pp++) {
+      for (int ii = starts[pp] + 1; ii < starts[pp + 1]; ii++) {
+        if (Line2D.ptSegDistSq(coords[ii * 2 - 2], coords[ii * 2 - 1], coords[ii * 2], coords[ii * 2 + 1], x, y) < distSq) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
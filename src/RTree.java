@@ -0,0 +1,122 @@
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * RTree: Static R-tree of rectangles, bulk loaded using Sort-Tile-Recursive packing, that finds the rectangles
+ * which intersect, or contain a query rectangle in O(log n) time plus the number of matches.  Rectangles are
+ * identified by their index in the List passed to the constructor.
+ *
+ * The tree is stored as flat arrays of bounds, one per level, where node jj of a level covers the nodes, or
+ * rectangles from jj * NODE_SIZE up to (jj + 1) * NODE_SIZE of the level below it.
+ *
+ * Ref: https://en.wikipedia.org/wiki/R-tree
+ * Ref: Leutenegger, Lopez & Edgington, "STR: A Simple and Efficient Algorithm for R-Tree Packing" (1997)
+ */
+
+class RTree {
+  private static final int  NODE_SIZE = 16;
+  private final double[][]  levels;             // minX, minY, maxX, maxY of each node, leaves at level 0
+  private final int[]       ids;                // Index of rectangle held by each leaf
+
+  RTree (List<? extends Rectangle2D> rects) {
+    int count = rects.size();
+    // Sort into vertical slices by center x, then sort each slice by center y
+    Integer[] order = new Integer[count];
+    double[] cx = new double[count], cy = new double[count];
+    for (int ii = 0; ii < count; ii++) {
+      order[ii] = ii;
+      cx[ii] = rects.get(ii).getCenterX();
+      cy[ii] = rects.get(ii).getCenterY();
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(cx[a], cx[b]));
+    int leaves = (count + NODE_SIZE - 1) / NODE_SIZE;
+    int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+    for (int ii = 0; ii < count; ii += sliceSize) {
+      Arrays.sort(order, ii, Math.min(ii + sliceSize, count), (a, b) -> Double.compare(cy[a], cy[b]));
+    }
+    ids = new int[count];
+    double[] leaf = new double[count * 4];
+    for (int ii = 0; ii < count; ii++) {
+      Rectangle2D rect = rects.get(order[ii]);
+      ids[ii] = order[ii];
+      leaf[ii * 4] = rect.getMinX();
+      leaf[ii * 4 + 1] = rect.getMinY();
+      leaf[ii * 4 + 2] = rect.getMaxX();
+      leaf[ii * 4 + 3] = rect.getMaxY();
+    }
+    // Build upper levels until a level has a single node
+    int depth = 1;
+    for (int size = count; size > 1; size = (size + NODE_SIZE - 1) / NODE_SIZE) {
+      depth++;
+    }
+    levels = new double[depth][];
+    levels[0] = leaf;
+    for (int level = 1; level < depth; level++) {
+      double[] below = levels[level - 1];
+      int belowCount = below.length / 4;
+      double[] nodes = new double[(belowCount + NODE_SIZE - 1) / NODE_SIZE * 4];
+      for (int jj = 0; jj < nodes.length / 4; jj++) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int kk = jj * NODE_SIZE; kk < Math.min((jj + 1) * NODE_SIZE, belowCount); kk++) {
+          minX = Math.min(minX, below[kk * 4]);
+          minY = Math.min(minY, below[kk * 4 + 1]);
+          maxX = Math.max(maxX, below[kk * 4 + 2]);
+          maxY = Math.max(maxY, below[kk * 4 + 3]);
+        }
+        nodes[jj * 4] = minX;
+        nodes[jj * 4 + 1] = minY;
+        nodes[jj * 4 + 2] = maxX;
+        nodes[jj * 4 + 3] = maxY;
+      }
+      levels[level] = nodes;
+    }
+  }
+
+  /**
+   * Find the rectangles that intersect, or contain a query rectangle
+   * @param area query rectangle
+   * @param containing if true, only find rectangles that contain area, else find all that intersect it
+   * @return indices of rectangles found (in no particular order)
+   */
+  int[] search (Rectangle2D area, boolean containing) {
+    int[] found = new int[16];
+    int count = 0;
+    if (ids.length == 0) {
+      return new int[0];
+    }
+    double minX = area.getMinX(), minY = area.getMinY(), maxX = area.getMaxX(), maxY = area.getMaxY();
+    // Iterative depth first search using a stack of (level, node) pairs
+    int[] stack = new int[levels.length * NODE_SIZE * 2];
+    int sp = 0;
+    stack[sp++] = levels.length - 1;
+    stack[sp++] = 0;
+    while (sp > 0) {
+      int node = stack[--sp];
+      int level = stack[--sp];
+      double[] box = levels[level];
+      int bb = node * 4;
+      boolean match;
+      if (containing) {
+        match = box[bb] <= minX && box[bb + 1] <= minY && box[bb + 2] >= maxX && box[bb + 3] >= maxY;
+      } else {
+        match = box[bb] <= maxX && box[bb + 1] <= maxY && box[bb + 2] >= minX && box[bb + 3] >= minY;
+      }
+      if (match) {
+        if (level == 0) {
+          if (count == found.length) {
+            found = Arrays.copyOf(found, count * 2);
+          }
+          found[count++] = ids[node];
+        } else {
+          int children = levels[level - 1].length / 4;
+          for (int kk = node * NODE_SIZE; kk < Math.min((node + 1) * NODE_SIZE, children); kk++) {
+            stack[sp++] = level - 1;
+            stack[sp++] = kk;
+          }
+        }
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+}
@@ -0,0 +1,204 @@
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * RasterTracer: Converts a raster image (such as a logo, or line art) into vector outlines.  The image is
+ * first thresholded into ink and background, then marching squares is run over it to generate the edge
+ * segments that separate ink from background.  Both steps work on independent tiles of the image in
+ * parallel.  The segments are then linked into closed contours and smoothed into cubic Bezier curves by
+ * BezierFitter (also in parallel, one contour per task).
+ *
+ * Segments are oriented so that ink is always on the same side, so each edge midpoint starts exactly one
+ * segment, which makes linking a simple lookup.  Diagonal (saddle) cases are treated as not connected.
+ *
+ * Ref: https://en.wikipedia.org/wiki/Marching_squares
+ */
+
+public class RasterTracer {
+  private static final int    TILE_SIZE = 256;
+  // Segments for each marching squares case as {startEdge, endEdge} pairs, where edges are 0 = top,
+  // 1 = right, 2 = bottom, 3 = left and the case index is tl * 8 + tr * 4 + br * 2 + bl (1 = ink)
+  private static final int[][] CASES = {
+    {}, {3, 2}, {2, 1}, {3, 1}, {1, 0}, {1, 0, 3, 2}, {2, 0}, {3, 0},
+    {0, 3}, {0, 2}, {0, 3, 2, 1}, {0, 1}, {1, 3}, {1, 2}, {2, 3}, {}
+  };
+
+  /**
+   * Trace the outlines of the dark areas of an image
+   * @param img image to trace
+   * @param threshold brightness (0-255) below which a pixel is considered ink (transparent pixels never are)
+   * @param tolerance maximum distance (in pixels) of the fitted curves from the traced outline
+   * @param minArea contours enclosing less than this many pixels are dropped as specks
+   * @return Path2D.Double in pixel coordinates containing one closed subpath per contour
+   */
+  static Path2D.Double trace (BufferedImage img, int threshold, double tolerance, double minArea) {
+    int wid = img.getWidth();
+    int hyt = img.getHeight();
+    // Threshold image into padded mask with a one pixel border of background all around it
+    int pw = wid + 2;
+    int ph = hyt + 2;
+    boolean[] ink = new boolean[pw * ph];
+    int bands = (hyt + TILE_SIZE - 1) / TILE_SIZE;
+    IntStream.range(0, bands).parallel().forEach(band -> {
+      int[] row = new int[wid];
+      for (int yy = band * TILE_SIZE; yy < Math.min(hyt, (band + 1) * TILE_SIZE); yy++) {
+        img.getRGB(0, yy, wid, 1, row, 0, wid);
+        int base = (yy + 1) * pw + 1;
+        for (int xx = 0; xx < wid; xx++) {
+          int argb = row[xx];
+          int lum = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+          ink[base + xx] = (argb >>> 24) >= 128 && lum < threshold;
+        }
+      }
+    });
+    // Run marching squares over the cells between padded pixel centers, one tile per task.  Edge ids
+    // number the horizontal edges first, then the vertical edges.
+    int cw = pw - 1;
+    int hCount = ph * cw;
+    int tilesX = (cw + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesY = (ph - 1 + TILE_SIZE - 1) / TILE_SIZE;
+    int[][] tileSegs = new int[tilesX * tilesY][];
+    IntStream.range(0, tileSegs.length).parallel().forEach(tile -> {
+      int x0 = (tile % tilesX) * TILE_SIZE;
+      int y0 = (tile / tilesX) * TILE_SIZE;
+      int[] segs = new int[64];
+      int count = 0;
+      for (int cy = y0; cy < Math.min(ph - 1, y0 + TILE_SIZE); cy++) {
+        for (int cx = x0; cx < Math.min(cw, x0 + TILE_SIZE); cx++) {
+          int idx = cy * pw + cx;
+          int code = (ink[idx] ? 8 : 0) | (ink[idx + 1] ? 4 : 0) | (ink[idx + pw + 1] ? 2 : 0) | (ink[idx + pw] ? 1 : 0);
+          int[] cs = CASES[code];
+          for (int ii = 0; ii < cs.length; ii++) {
+            if (count == segs.length) {
+              int[] tmp = new int[segs.length * 2];
+              System.arraycopy(segs, 0, tmp, 0, count);
+              segs = tmp;
+            }
+            int edge = cs[ii];
+            segs[count++] = edge == 0 ? cy * cw + cx : edge == 2 ? (cy + 1) * cw + cx :
+                            hCount + cy * pw + (edge == 1 ? cx + 1 : cx);
+          }
+        }
+      }
+      int[] tmp = new int[count];
+      System.arraycopy(segs, 0, tmp, 0, count);
+      tileSegs[tile] = tmp;
+    });
+    // Index segments by their starting edge
+    int total = 0;
+    for (int[] segs : tileSegs) {
+      total += segs.length / 2;
+    }
+    EdgeMap next = new EdgeMap(total);
+    for (int[] segs : tileSegs) {
+      for (int ii = 0; ii < segs.length; ii += 2) {
+        next.put(segs[ii], segs[ii + 1]);
+      }
+    }
+    // Link segments into closed contours
+    List<double[]> contours = new ArrayList<>();
+    for (int[] segs : tileSegs) {
+      for (int ii = 0; ii < segs.length; ii += 2) {
+        int start = segs[ii];
+        if (next.isUsed(start)) {
+          continue;
+        }
+        double[] pts = new double[64];
+        int count = 0;
+        int edge = start;
+        do {
+          next.markUsed(edge);
+          if (count + 2 > pts.length) {
+            double[] tmp = new double[pts.length * 2];
+            System.arraycopy(pts, 0, tmp, 0, count);
+            pts = tmp;
+          }
+          // Convert edge midpoint from padded cell coordinates to image pixel coordinates
+          if (edge < hCount) {
+            pts[count++] = edge % cw;
+            pts[count++] = edge / cw - 0.5;
+          } else {
+            pts[count++] = (edge - hCount) % pw - 0.5;
+            pts[count++] = (edge - hCount) / pw;
+          }
+          edge = next.get(edge);
+        } while (edge != start && edge >= 0);
+        if (Math.abs(signedArea(pts, count / 2)) >= minArea) {
+          double[] tmp = new double[count];
+          System.arraycopy(pts, 0, tmp, 0, count);
+          contours.add(tmp);
+        }
+      }
+    }
+    // Fit curves to each contour in parallel, then combine them in their original order
+    Path2D.Double[] fitted = new Path2D.Double[contours.size()];
+    IntStream.range(0, fitted.length).parallel().forEach(ii -> {
+      double[] pts = contours.get(ii);
+      fitted[ii] = new Path2D.Double();
+      BezierFitter.fitPolyline(pts, pts.length / 2, true, tolerance, 1.5, fitted[ii]);
+    });
+    Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+    for (Path2D.Double contour : fitted) {
+      path.append(contour, false);
+    }
+    return path;
+  }
+
+  private static double signedArea (double[] pts, int count) {
+    double area = 0;
+    for (int ii = 0, jj = count - 1; ii < count; jj = ii++) {
+      area += pts[jj * 2] * pts[ii * 2 + 1] - pts[ii * 2] * pts[jj * 2 + 1];
+    }
+    return area / 2;
+  }
+
+  /**
+   * Open addressing hash map from a segment's start edge to its end edge that also tracks which segments
+   * have already been linked into a contour (avoids boxing millions of Integer keys on large images)
+   */
+  private static class EdgeMap {
+    private final int[]     keys, vals;
+    private final boolean[] used;
+    private final int       mask;
+
+    EdgeMap (int count) {
+      int size = Integer.highestOneBit(Math.max(count, 8) * 2) * 2;
+      keys = new int[size];
+      vals = new int[size];
+      used = new boolean[size];
+      mask = size - 1;
+      Arrays.fill(keys, -1);
+    }
+
+    private int slot (int key) {
+      int idx = (key * 0x9E3779B1) >>> 7 & mask;
+      while (keys[idx] != key && keys[idx] != -1) {
+        idx = (idx + 1) & mask;
+      }
+      return idx;
+    }
+
+    void put (int key, int val) {
+      int idx = slot(key);
+      keys[idx] = key;
+      vals[idx] = val;
+    }
+
+    int get (int key) {
+      int idx = slot(key);
+      return keys[idx] == key ? vals[idx] : -1;
+    }
+
+    boolean isUsed (int key) {
+      return used[slot(key)];
+    }
+
+    void markUsed (int key) {
+      used[slot(key)] = true;
+    }
+  }
+}
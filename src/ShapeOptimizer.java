@@ -2,26 +2,23 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.*;
 import java.util.List;
-import java.util.Map;
 
 /**
  * ShapeOptimizer: This code tries to reconnected disconnected line and spline segments into a
  * continuous path.  This code is invoked by manually selecting a set of shapes and then using
- * the Edit menu item "Combine Selected Paths".  After processing, all selected shapes are put
- * into a group with both newly-reconnected paths and paths that could not be connected.
+ * the Edit menu item "Combine Selected Paths", and when importing DXF and SVG files, so imported
+ * drawings made of many separate segments are cut as a few continuous paths.
  *
- * Limitations: the code assumes that the starting and ending points of the segments to reconnect
- * match identically (to float level precision) in order to figure out when the starting point of
- * a given segment can be connected to the ending point of another segment.  However, it does try
- * to reconnect segements that match end to end, or start to start by flipping the start and end
- * points, as needed.
+ * Segment end points are joined if they are within a snap tolerance of each other, so points that
+ * differ only by rounding errors are joined.  The code also reconnects segments that match end to
+ * end, or start to start by flipping the start and end points, as needed.
  */
 
 public class ShapeOptimizer {
+  static final double DEFAULT_TOLERANCE = 0.0001;     // Max gap between end points that are joined (inches)
+
   static class ShapeSeg {
     int       type;
     double    sx, sy, ex, ey;
@@ -86,153 +83,280 @@ public class ShapeOptimizer {
       }
     }
 
-    Point2D.Float getStart () {
-      return new Point2D.Float((float) sx, (float) sy);
+    // Move end point of segment
+    void setEnd (double x, double y) {
+      ex = x;
+      ey = y;
+      coords[type * 2 - 2] = x;
+      coords[type * 2 - 1] = y;
     }
+  }
+
+  /**
+   * Merges points that are within tolerance of each other into shared vertices.  Points are hashed into grid
+   * cells the size of tolerance, so finding a match only checks the 3x3 block of cells around a point.
+   */
+  static class VertexHash {
+    private final double              tolerance, cellSize;
+    private final Map<Long,Integer>   cells = new HashMap<>();   // Newest vertex in each cell
+    private double[]                  xs = new double[256], ys = new double[256];
+    private int[]                     next = new int[256];        // Next vertex in the same cell, or -1
+    private int                       count;
 
-    Point2D.Float getEnd () {
-      return new Point2D.Float((float) ex, (float) ey);
+    VertexHash (double tolerance) {
+      this.tolerance = tolerance;
+      cellSize = Math.max(tolerance, 1e-9);
     }
-  }
 
-  static class Vert {
-    List<ShapeSeg>  segs = new ArrayList<>();
+    private static long getKey (long cx, long cy) {
+      return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+    }
 
-    ShapeSeg getSeg (ShapeSeg from, Point2D.Float vert) {
-      for (ShapeSeg seg : segs) {
-        if (seg == from) {
-          // Don't connect to self
-          continue;
-        }
-        Point2D.Float start = seg.getStart();
-        if (!seg.used && start.equals(vert)) {
-          segs.remove(seg);
-          return seg;
-        }
-        Point2D.Float end = seg.getEnd();
-        if (!seg.used && end.equals(vert)) {
-          seg.flip();
-          segs.remove(seg);
-          return seg;
+    /**
+     * Get the vertex for a point, which is an existing vertex within tolerance, or a new vertex
+     * @return index of vertex
+     */
+    int getVertex (double x, double y) {
+      long cx = (long) Math.floor(x / cellSize);
+      long cy = (long) Math.floor(y / cellSize);
+      double tol2 = tolerance * tolerance;
+      for (long ii = cx - 1; ii <= cx + 1; ii++) {
+        for (long jj = cy - 1; jj <= cy + 1; jj++) {
+          Integer head = cells.get(getKey(ii, jj));
+          for (int vv = head != null ? head : -1; vv >= 0; vv = next[vv]) {
+            double dx = xs[vv] - x;
+            double dy = ys[vv] - y;
+            if (dx * dx + dy * dy <= tol2) {
+              return vv;
+            }
+          }
         }
       }
-      return null;
+      if (count == xs.length) {
+        xs = Arrays.copyOf(xs, count * 2);
+        ys = Arrays.copyOf(ys, count * 2);
+        next = Arrays.copyOf(next, count * 2);
+      }
+      xs[count] = x;
+      ys[count] = y;
+      Integer head = cells.put(getKey(cx, cy), count);
+      next[count] = head != null ? head : -1;
+      return count++;
+    }
+
+    int size () {
+      return count;
     }
   }
 
   /**
-   * Experimental code designed to connect a set line segments into a continous path
-   * Note: this code can only connect line segments when the end points have identical 'float' precision
-   * x and y coordinates.
-   * @param shape Shape onject containing the line segments to analyze
+   * Connect a set of line and curve segments into continuous paths using DEFAULT_TOLERANCE
+   * @param shape Shape object containing the segments to analyze
    * @return List of Shape objects (some may be rebuilt into continuous paths)
    */
   static List<Shape> optimizeShape (Shape shape) {
+    return optimizeShape(shape, DEFAULT_TOLERANCE);
+  }
+
+  /**
+   * Connect a set of line and curve segments into continuous paths.  Segment end points within tolerance of
+   * each other are merged into shared vertices using a VertexHash, then paths are traced through the vertices,
+   * starting from vertices where an odd number of segments meet (the ends of open paths), so each path is as
+   * long as possible.  Tracing uses each segment once, so the time taken is close to linear in the number of
+   * segments.  Subpaths that are already closed are passed through unchanged.
+   * @param shape Shape object containing the segments to analyze
+   * @param tolerance max distance between end points that are joined (in the Shape's units)
+   * @return List of Shape objects (some may be rebuilt into continuous paths)
+   */
+  static List<Shape> optimizeShape (Shape shape, double tolerance) {
+    List<Shape> out = new ArrayList<>();
     List<ShapeSeg> segs = new ArrayList<>();
-    // Break Shape into List of ShapeSeg objects
+    // Break Shape into List of ShapeSeg objects, but keep closed subpaths as they are
     PathIterator pi = shape.getPathIterator(new AffineTransform());
-    double ex = 0, ey = 0;
+    List<ShapeSeg> subpath = new ArrayList<>();
+    double ex = 0, ey = 0, mx = 0, my = 0;
     while (!pi.isDone()) {
       double[] coords = new double[6];      // p1.x, p1.y, p2.x, p2.y, p3.x, p3.y
       int type = pi.currentSegment(coords);
       switch (type) {
         case PathIterator.SEG_MOVETO:
-          ex = coords[0];
-          ey = coords[1];
+          segs.addAll(subpath);
+          subpath.clear();
+          ex = mx = coords[0];
+          ey = my = coords[1];
           break;
         case PathIterator.SEG_LINETO:
-          // lineTo(coords[0], coords[1]);
-          segs.add(new ShapeSeg(type, ex, ey, coords));
+          subpath.add(new ShapeSeg(type, ex, ey, coords));
           ex = coords[0];
           ey = coords[1];
           break;
         case PathIterator.SEG_QUADTO:
-          // quadTo(coords[0], coords[1], coords[2], coords[3]);
-          segs.add(new ShapeSeg(type, ex, ey, coords));
+          subpath.add(new ShapeSeg(type, ex, ey, coords));
           ex = coords[2];
           ey = coords[3];
           break;
         case PathIterator.SEG_CUBICTO:
-          // curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
-          segs.add(new ShapeSeg(type, ex, ey, coords));
+          subpath.add(new ShapeSeg(type, ex, ey, coords));
           ex = coords[4];
           ey = coords[5];
           break;
         case PathIterator.SEG_CLOSE:
-          // closePath();
+          if (subpath.size() > 0) {
+            Path2D.Double path = new Path2D.Double();
+            path.moveTo(subpath.get(0).sx, subpath.get(0).sy);
+            for (ShapeSeg seg : subpath) {
+              appendSeg(path, seg);
+            }
+            path.closePath();
+            out.add(path);
+            subpath.clear();
+          }
+          ex = mx;
+          ey = my;
           break;
       }
       pi.next();
     }
-    // Build Map of vertices with a list of segment (key is float precision)
-    Map<Point2D.Float,Vert> verts = new HashMap<>();
-    for (ShapeSeg seg : segs) {
-      // Insert starting point
-      Point2D.Float start = seg.getStart();
-      Vert vert = verts.get(start);
-      if (vert == null) {
-        verts.put(start, vert = new Vert());
-      }
-      vert.segs.add(seg);
-      // Insert ending point
-      Point2D.Float end = seg.getEnd();
-      vert = verts.get(end);
-      if (vert == null) {
-        verts.put(end, vert = new Vert());
-      }
-      vert.segs.add(seg);
-    }
-    // Scan for connected segments and organize into sequences
-    List<ShapeSeg> opts = new ArrayList<>();
-    for (ShapeSeg seg : segs) {
-      if (!seg.used) {
-        Point2D.Float end = seg.getEnd();
-        Vert vert = verts.get(end);
-        ShapeSeg con = vert.getSeg(seg, end);
-        if (con != null) {
-          opts.add(seg);
-          seg.used = true;
-          while (con != null && !con.used) {
-            con.used = true;
-            opts.add(con);
-            end = con.getEnd();
-            vert = verts.get(end);
-            con = vert.getSeg(con, end);
+    segs.addAll(subpath);
+    // Merge end points into vertices and list the segments that meet at each vertex
+    VertexHash hash = new VertexHash(tolerance);
+    int[] segStart = new int[segs.size()];
+    int[] segEnd = new int[segs.size()];
+    for (int ii = 0; ii < segs.size(); ii++) {
+      ShapeSeg seg = segs.get(ii);
+      segStart[ii] = hash.getVertex(seg.sx, seg.sy);
+      segEnd[ii] = hash.getVertex(seg.ex, seg.ey);
+    }
+    int verts = hash.size();
+    int[] first = new int[verts + 1];                   // Index in adjacent of first segment at each vertex
+    for (int ii = 0; ii < segs.size(); ii++) {
+      first[segStart[ii] + 1]++;
+      first[segEnd[ii] + 1]++;
+    }
+    for (int ii = 0; ii < verts; ii++) {
+      first[ii + 1] += first[ii];
+    }
+    int[] adjacent = new int[first[verts]];
+    int[] fill = Arrays.copyOf(first, verts);
+    for (int ii = 0; ii < segs.size(); ii++) {
+      adjacent[fill[segStart[ii]]++] = ii;
+      adjacent[fill[segEnd[ii]]++] = ii;
+    }
+    // Trace paths, first from the ends of open paths, then around loops
+    int[] cursor = Arrays.copyOf(first, verts);         // Next segment to check at each vertex
+    for (int pass = 0; pass < 2; pass++) {
+      for (int vv = 0; vv < verts; vv++) {
+        int degree = first[vv + 1] - first[vv];
+        if (pass == 1 || (degree & 1) == 1) {
+          while (cursor[vv] < first[vv + 1]) {
+            Path2D.Double path = tracePath(segs, segStart, segEnd, first, adjacent, cursor, hash, vv);
+            if (path != null) {
+              out.add(path);
+            }
           }
-        } else {
-          opts.add(seg);
-          seg.used = true;
         }
       }
     }
-    segs = opts;
-    List<Shape> out = new ArrayList<>();
-    // Combine list of reorganized ShapeSeg objects into a List of Shape objects
-    Path2D.Double path = new Path2D.Double();
-    ex = Double.MAX_VALUE; ey = Double.MAX_VALUE;
-    for (ShapeSeg seg : segs) {
-      if ((float) seg.sx != (float) ex || (float) seg.sy != (float) ey) {
+    return out;
+  }
+
+  /**
+   * Trace a path through unused segments starting at a vertex
+   * @return path, or null if no unused segments meet at the vertex
+   */
+  private static Path2D.Double tracePath (List<ShapeSeg> segs, int[] segStart, int[] segEnd, int[] first,
+                                          int[] adjacent, int[] cursor, VertexHash hash, int start) {
+    Path2D.Double path = null;
+    int vert = start;
+    while (true) {
+      // Find next unused segment at vertex
+      ShapeSeg seg = null;
+      int idx = -1;
+      while (cursor[vert] < first[vert + 1]) {
+        idx = adjacent[cursor[vert]++];
+        if (!segs.get(idx).used) {
+          seg = segs.get(idx);
+          break;
+        }
+      }
+      if (seg == null) {
+        break;
+      }
+      seg.used = true;
+      if (segStart[idx] != vert) {
+        seg.flip();
+        int tmp = segStart[idx];
+        segStart[idx] = segEnd[idx];
+        segEnd[idx] = tmp;
+      }
+      // Snap segment's ends to their vertices so joined segments meet exactly
+      seg.sx = hash.xs[segStart[idx]];
+      seg.sy = hash.ys[segStart[idx]];
+      seg.setEnd(hash.xs[segEnd[idx]], hash.ys[segEnd[idx]]);
+      if (path == null) {
         path = new Path2D.Double();
-        out.add(path);
-        path.moveTo(ex = seg.sx, ey = seg.sy);
+        path.moveTo(seg.sx, seg.sy);
       }
-      switch (seg.type) {
-        case PathIterator.SEG_LINETO:   // 1
-          path.lineTo(ex = seg.coords[0], ey = seg.coords[1]);
-          break;
-        case PathIterator.SEG_QUADTO:   // 2
-          path.quadTo(seg.coords[0], seg.coords[1], ex = seg.coords[2], ey = seg.coords[3]);
-          break;
-        case PathIterator.SEG_CUBICTO:  // 3
-          path.curveTo(seg.coords[0], seg.coords[1], seg.coords[2], seg.coords[3], ex = seg.coords[4], ey = seg.coords[5]);
-          break;
-        case PathIterator.SEG_CLOSE:    // 4
-          // Close and write out the current curve
-          path.closePath();
-          break;
+      appendSeg(path, seg);
+      vert = segEnd[idx];
+    }
+    if (path != null && vert == start) {
+      path.closePath();
+    }
+    return path;
+  }
+
+  private static void appendSeg (Path2D.Double path, ShapeSeg seg) {
+    switch (seg.type) {
+      case PathIterator.SEG_LINETO:   // 1
+        path.lineTo(seg.coords[0], seg.coords[1]);
+        break;
+      case PathIterator.SEG_QUADTO:   // 2
+        path.quadTo(seg.coords[0], seg.coords[1], seg.coords[2], seg.coords[3]);
+        break;
+      case PathIterator.SEG_CUBICTO:  // 3
+        path.curveTo(seg.coords[0], seg.coords[1], seg.coords[2], seg.coords[3], seg.coords[4], seg.coords[5]);
+        break;
+    }
+  }
+
+  /**
+   * Join the open paths in a set of Shapes, such as the LINE and ARC entities of a DXF file, into continuous
+   * paths.  Shapes made only of closed subpaths, such as circles and text, are left as they are.
+   * @param shapes Shapes to join
+   * @param tolerance max distance between end points that are joined
+   * @return Shapes with open paths joined
+   */
+  static Shape[] joinShapes (Shape[] shapes, double tolerance) {
+    List<Shape> out = new ArrayList<>();
+    Path2D.Double open = new Path2D.Double();
+    for (Shape shape : shapes) {
+      if (isClosed(shape)) {
+        out.add(shape);
+      } else {
+        open.append(shape.getPathIterator(null), false);
       }
     }
-    return out;
+    out.addAll(optimizeShape(open, tolerance));
+    return out.toArray(new Shape[0]);
+  }
+
+  private static boolean isClosed (Shape shape) {
+    PathIterator pi = shape.getPathIterator(null);
+    double[] coords = new double[6];
+    boolean closed = true;
+    while (!pi.isDone()) {
+      int type = pi.currentSegment(coords);
+      if (type == PathIterator.SEG_MOVETO) {
+        if (!closed) {
+          return false;
+        }
+      } else {
+        closed = type == PathIterator.SEG_CLOSE;
+      }
+      pi.next();
+    }
+    return closed;
   }
 
   public static void main (String[] args) {
@@ -249,5 +373,45 @@ public class ShapeOptimizer {
     // Combine segments into continuous path
     List<Shape> list = optimizeShape(path);
     System.out.println(list.size());
+    // Benchmark: polygons broken into shuffled, randomly reversed segments whose ends differ by rounding noise,
+    // like a DXF file made of separate LINE entities
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int sides = 1000;
+    Random rnd = new Random(1);
+    List<double[]> lines = new ArrayList<>();
+    for (int ii = 0; ii < count / sides; ii++) {
+      double cx = (ii % 10) * 3, cy = (ii / 10) * 3;
+      for (int jj = 0; jj < sides; jj++) {
+        double a1 = jj * 2 * Math.PI / sides, a2 = (jj + 1) * 2 * Math.PI / sides;
+        double[] line = {cx + Math.cos(a1), cy + Math.sin(a1), cx + Math.cos(a2), cy + Math.sin(a2)};
+        for (int kk = 0; kk < 4; kk++) {
+          line[kk] += (rnd.nextDouble() - .5) * 1e-6;
+        }
+        lines.add(rnd.nextBoolean() ? line : new double[] {line[2], line[3], line[0], line[1]});
+      }
+    }
+    Collections.shuffle(lines, rnd);
+    path = new Path2D.Double();
+    for (double[] line : lines) {
+      path.moveTo(line[0], line[1]);
+      path.lineTo(line[2], line[3]);
+    }
+    for (double tolerance : new double[] {0, DEFAULT_TOLERANCE}) {
+      long start = System.nanoTime();
+      list = optimizeShape(path, tolerance);
+      int closed = 0;
+      for (Shape shape : list) {
+        double[] coords = new double[6];
+        PathIterator pi = shape.getPathIterator(null);
+        while (!pi.isDone()) {
+          if (pi.currentSegment(coords) == PathIterator.SEG_CLOSE) {
+            closed++;
+          }
+          pi.next();
+        }
+      }
+      System.out.println(lines.size() + " segments, tolerance " + tolerance + ": " + list.size() + " paths (" + closed +
+                         " closed) in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
   }
 }
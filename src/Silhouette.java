@@ -1,3 +1,4 @@
+import org.usb4java.LibUsb;
 import org.usb4java.LibUsbException;
 
 import javax.swing.*;
@@ -5,6 +6,7 @@ import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.geom.*;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.List;
@@ -24,11 +26,17 @@ class Silhouette implements LaserCut.OutputDevice {
   private static List<Cutter>         cutters = new LinkedList<>();
   private static Map<String,Cutter>   devices = new HashMap<>();
   private static String               device = "Curio";
+  private static final double         REFIT_TOLERANCE = 1.0;  // Max deviation of refitted curves (Silhouette units)
+  private static final int            REFIT_MIN_POINTS = 8;   // Min points in a polyline worth refitting
   private static int                  action, pen, pens, speed, pressure, media, landscape;
+  private static boolean              refit, planPath;
   private LaserCut                    laserCut;
   private String                      dUnits;
   private Rectangle2D.Double          workspaceSize;
-  private USBIO                       usb;
+  private static final int            BATCH_PACKETS = 16;     // USB packets per bulk transfer
+  private static final int            ASYNC_TRANSFERS = 2;    // Bulk transfers kept in flight
+  private static final byte[]         STATUS_REQUEST = {0x1B, 0x05};
+  private static final long           STATUS_TIMEOUT = 10000; // Max wait for reply to a status request (ms)
 
   static class Cutter {
     String  name;
@@ -108,6 +116,8 @@ class Silhouette implements LaserCut.OutputDevice {
     pen = getInt("pen", Math.min(1, pens));             // 1 selects left pen, 2 selects right pen
     speed = getInt("speed", 5);                         // Drawing speed (value times 10 is centimeters/second)
     pressure = getInt("pressure", 10);                  // Tool pressure (value times 7 is grams of force, or 7-230 grams)
+    refit = getInt("refit", 1) != 0;                    // Convert dense line segments back into curves
+    planPath = getInt("pathplan", 1) != 0;              // Use PathPlanner to order paths and pick where each starts
   }
 
   // Implement for GRBLBase to define Preferences prefix, such as "mini.laser."
@@ -170,11 +180,11 @@ class Silhouette implements LaserCut.OutputDevice {
         cmds.add("FX" + Math.min(Math.max(pressure, 1), 33));       // Tool pressure (value times 7 is grams of force, or 7-230 grams)
         cmds.add("!" + Math.min(Math.max(speed, 1), 10));           // Drawing speed (value times 10 is centimeters/second)
         cmds.add("J" + Math.min(pen, pens));                        // 1 selects left pen, 2 selects right pen
-        List<LaserCut.CADShape> cadShapes = laserCut.surface.selectLaserItems(true, false);
+        List<LaserCut.CADShape> cadShapes = laserCut.surface.selectLaserItems(true, planPath);
         for (LaserCut.CADShape cadShape : cadShapes) {
           if (!(cadShape instanceof LaserCut.CADRasterImage)) {
             Shape shape = cadShape.getWorkspaceTranslatedShape();
-            cmds.addAll(shapeToSilhouette(shape));
+            cmds.addAll(shapeToSilhouette(shape, refit));
           }
         }
         if (device != null) {
@@ -196,6 +206,8 @@ class Silhouette implements LaserCut.OutputDevice {
           new ParameterDialog.ParmItem("Pen:Left|1:Right|2", Math.min(pen, pens)),
           new ParameterDialog.ParmItem("Speed[1-10]", speed),
           new ParameterDialog.ParmItem("Pressure[1-33]", pressure),
+          new ParameterDialog.ParmItem("Refit Curves{convert dense line segments into Bezier curves}", refit),
+          new ParameterDialog.ParmItem("Use Path Planner", planPath),
       };
       parmSet[3].setEnabled(devices.get(device).pens > 1);
       parmSet[0].addParmListener(parm -> {
@@ -214,7 +226,9 @@ class Silhouette implements LaserCut.OutputDevice {
         putInt("action", action = Integer.parseInt((String) parmSet[idx++].value));
         putInt("pen", pen = Integer.parseInt((String) parmSet[idx++].value));
         putInt("speed", speed = (Integer) parmSet[idx++].value);
-        putInt("pressure", pressure = (Integer) parmSet[idx].value);
+        putInt("pressure", pressure = (Integer) parmSet[idx++].value);
+        putInt("refit", (refit = (Boolean) parmSet[idx++].value) ? 1 : 0);
+        putInt("pathplan", (planPath = (Boolean) parmSet[idx].value) ? 1 : 0);
       }
     });
     silhouetteMenu.add(silhouetteSettings);
@@ -225,11 +239,17 @@ class Silhouette implements LaserCut.OutputDevice {
    * Convert a Shape object into the Silhouette commands needed to draw them
    * Note: each command must be terminated by 0x03 byte ("\u0003")
    * @param shape Shape object to convert
+   * @param refit if true, polylines with many points are refitted with curves to reduce the number of commands
    * @return List of Silhouette command Strings
    */
-  private static List<String> shapeToSilhouette (Shape shape) {
+  static List<String> shapeToSilhouette (Shape shape, boolean refit) {
     AffineTransform at = new AffineTransform();
     at.scale(SCALE, SCALE);
+    if (refit) {
+      shape = BezierFitter.refitPolylines(at.createTransformedShape(shape), REFIT_TOLERANCE, REFIT_TOLERANCE * 2,
+                                          REFIT_MIN_POINTS);
+      at = new AffineTransform();
+    }
     List<String> cmds = new ArrayList<>();
     double firstX = 0;
     double firstY = 0;
@@ -293,7 +313,7 @@ class Silhouette implements LaserCut.OutputDevice {
     private String[]        cmds;
     private JTextArea       monitor;
     private JProgressBar    progress;
-    private boolean         doAbort;
+    private JobSender       sender;
 
     SilhouetteSender (Cutter device, String[] cmds) {
       this.device = device;
@@ -309,7 +329,11 @@ class Silhouette implements LaserCut.OutputDevice {
       add(sPane, BorderLayout.CENTER);
       JButton abort = new JButton("Abort Job");
       add(abort, BorderLayout.SOUTH);
-      abort.addActionListener(ev -> doAbort = true);
+      abort.addActionListener(ev -> {
+        if (sender != null) {
+          sender.abort();
+        }
+      });
       Rectangle loc = getBounds();
       setSize(500, 300);
       setLocation(loc.x + loc.width / 2 - 150, loc.y + loc.height / 2 - 150);
@@ -320,50 +344,24 @@ class Silhouette implements LaserCut.OutputDevice {
     }
 
     public void run () {
+      USBIO usb = null;
       try {
         usb = new USBIO(device.vend, device.prod, device.intFace, device.outEnd, device.inEnd);
-        // Gobble up any leftover responses from a prior command sequence, if any
-        while (usb.receive().length > 0) {
-          try {
-            Thread.sleep(1);
-          } catch (InterruptedException ex) {
-            ex.printStackTrace();
-          }
-        }
-        sendCmd("FQ0");
-        if (getResponse().length() == 0) {
-          showMessageDialog(laserCut, "Empty Tray", "Error", ERROR_MESSAGE);
-          return;
-        }
-        monitor.append(getVersionString() + "\n");
+        sender = new JobSender(usb);
         Rectangle2D.Double dim = getWorkspaceSize();
         monitor.append("Workspace: " + df.format(dim.width) + " x " + df.format(dim.height) + "\n");
-        initDevice();
-        moveHome();
-        StringBuilder buf = new StringBuilder();
-        for (int ii = 0; (ii < cmds.length) && !doAbort; ii++) {
-          String cmd = cmds[ii].trim();
-          monitor.append(cmd + '\n');
-          // Ignore blank lines
-          if (cmd.length() > 0) {
-            if (buf.length() + cmd.length() + 1 > 100) {
-              usb.send(buf.toString().getBytes());
-              buf.setLength(0);
-            } else {
-              buf.append(cmd).append("\u0003");
-            }
+        boolean ready = sender.sendJob(cmds, new JobSender.Monitor() {
+          public void append (String text) {
+            monitor.append(text);
           }
-          progress.setValue(ii);
-        }
-        if (doAbort) {
-          initDevice();
-        } else {
-          // Flush through any remaining commands
-          if (buf.length() > 0) {
-            usb.send(buf.toString().getBytes());
+
+          public void setProgress (int cmdIndex) {
+            progress.setValue(cmdIndex);
           }
+        });
+        if (!ready) {
+          showMessageDialog(laserCut, "Empty Tray", "Error", ERROR_MESSAGE);
         }
-        moveHome();
       } catch (LibUsbException ex) {
         showMessageDialog(laserCut, ex.getMessage(), "Error", ERROR_MESSAGE);
       } catch (Exception ex) {
@@ -378,75 +376,204 @@ class Silhouette implements LaserCut.OutputDevice {
     }
   }
 
-  private void initDevice () {
-    usb.send(new byte[]{0x1B, 0x04});               // Initialize Device
-  }
-
   /**
-   * Returns carriage to home position
+   * Streams a job's commands to a Silhouette through a USBIO object, which can be connected to a real
+   * device, or to a MockSilhouette for testing
    */
-  private void moveHome () {
-    sendCmd("!10");
-    sendCmd("H");
-    doWait();
-  }
+  static class JobSender {
+    private final USBIO       usb;
+    private volatile boolean  doAbort;
+    private String            stats = "";
 
-  private Rectangle2D.Double getWorkArea () {
-    sendCmd("[");                                   // Read Lower Left
-    String[] v1 = getResponse().split(",");
-    double x = v1.length == 2 ? Double.parseDouble(v1[1].trim()) : 0;
-    double y = v1.length == 2 ? Double.parseDouble(v1[0].trim()) : 0;
-    sendCmd("U");                                   // Read Upper Right
-    String[] v2 = getResponse().split(",");
-    double wid = v2.length == 2 ? Double.parseDouble(v2[1].trim()) : 0;
-    double hyt = v2.length == 2 ? Double.parseDouble(v2[0].trim()) : 0;
-    // Note: reverse X/Y axes so tool head moves on X axis
-    return new Rectangle2D.Double(x, y, wid, hyt);
-  }
+    interface Monitor {
+      void append (String text);
 
-  private void sendCmd (String cmd) {
-    usb.send((cmd + "\u0003").getBytes());
-  }
+      void setProgress (int cmdIndex);
+    }
 
-  /**
-   * Query device for version string
-   * @return version string, such as "CURIO V1.20"
-   */
-  private String getVersionString() {
-    sendCmd("FG");
-    return getResponse();
-  }
+    JobSender (USBIO usb) {
+      this.usb = usb;
+    }
 
-  private String getResponse () {
-    byte[] data = usb.receive();
-    if (data.length > 0) {
-      return (new String(data)).substring(0, data.length - 1);
+    /**
+     * Stop sending the current job (can be called from any thread)
+     */
+    void abort () {
+      doAbort = true;
+      usb.cancelAsync();
     }
-    return "";
-  }
 
-  /**
-   * Used by doWait() to get status of plotter
-   * @return '1' if plotter is executing a move or draw command
-   */
-  private byte getStatus () {
-    usb.send(new byte[]{0x1B, 0x05});               // Status Request
-    byte[] data;
-    do {
-      data = usb.receive();
-    } while (data.length == 0);
-    return data[0];
-  }
+    /**
+     * Get transfer metrics for the last job sent
+     * @return String reporting bytes and transfers sent, throughput and device idle time
+     */
+    String getStats () {
+      return stats;
+    }
 
-  /**
-   * Waits until move or draw command is complete and motion is stopped
-   */
-  private void doWait () {
-    while (getStatus() == '1') {
-      try {
+    /**
+     * Initialize the device, send a job, then return the carriage to its home position
+     * @param cmds Silhouette commands (without the terminating 0x03)
+     * @param monitor receives progress updates and the text of the commands as they're sent
+     * @return false if the device's tray is empty, else true
+     */
+    boolean sendJob (String[] cmds, Monitor monitor) throws InterruptedException {
+      doAbort = false;
+      // Gobble up any leftover responses from a prior command sequence, if any
+      while (usb.receive().length > 0) {
         Thread.sleep(1);
-      } catch (InterruptedException ex) {
-        ex.printStackTrace();
+      }
+      sendCmd("FQ0");
+      if (getResponse().length() == 0) {
+        return false;
+      }
+      monitor.append(getVersionString() + "\n");
+      initDevice();
+      moveHome();
+      // Pack commands into bulk transfers that are a multiple of the endpoint's packet size.  When the device's
+      // command buffer is full, it stops accepting data, which holds up sendAsync() once all transfers are in flight
+      int batchSize = usb.getPacketSize() * BATCH_PACKETS;
+      usb.startAsync(ASYNC_TRANSFERS, batchSize);
+      byte[] batch = new byte[batchSize];
+      int count = 0;
+      StringBuilder echo = new StringBuilder();
+      try {
+        for (int ii = 0; (ii < cmds.length) && !doAbort; ii++) {
+          String cmd = cmds[ii].trim();
+          // Ignore blank lines
+          if (cmd.length() > 0) {
+            byte[] data = (cmd + "\u0003").getBytes(StandardCharsets.US_ASCII);
+            if (count > 0 && count + data.length > batch.length) {
+              usb.sendAsync(batch, 0, count);
+              monitor.append(echo.toString());
+              monitor.setProgress(ii);
+              echo.setLength(0);
+              count = 0;
+            }
+            if (data.length > batch.length) {
+              batch = Arrays.copyOf(batch, data.length);
+            }
+            System.arraycopy(data, 0, batch, count, data.length);
+            count += data.length;
+            echo.append(cmd).append('\n');
+          }
+        }
+        if (!doAbort) {
+          // Flush through any remaining commands
+          if (count > 0) {
+            usb.sendAsync(batch, 0, count);
+            monitor.append(echo.toString());
+          }
+          usb.flushAsync();
+        }
+      } catch (LibUsbException ex) {
+        // Transfers and status reads cancelled by "Abort Job" are expected to fail
+        if (!doAbort) {
+          throw ex;
+        }
+      }
+      if (doAbort) {
+        usb.stopAsync();
+        doAbort = false;
+        initDevice();
+      } else {
+        stats = usb.getAsyncStats();
+        monitor.append(stats + "\n");
+        usb.stopAsync();
+        monitor.setProgress(cmds.length);
+      }
+      moveHome();
+      return true;
+    }
+
+    private void initDevice () {
+      usb.send(new byte[]{0x1B, 0x04});             // Initialize Device
+    }
+
+    /**
+     * Returns carriage to home position
+     */
+    private void moveHome () {
+      sendCmd("!10");
+      sendCmd("H");
+      doWait();
+    }
+
+    private Rectangle2D.Double getWorkArea () {
+      sendCmd("[");                                 // Read Lower Left
+      String[] v1 = getResponse().split(",");
+      double x = v1.length == 2 ? Double.parseDouble(v1[1].trim()) : 0;
+      double y = v1.length == 2 ? Double.parseDouble(v1[0].trim()) : 0;
+      sendCmd("U");                                 // Read Upper Right
+      String[] v2 = getResponse().split(",");
+      double wid = v2.length == 2 ? Double.parseDouble(v2[1].trim()) : 0;
+      double hyt = v2.length == 2 ? Double.parseDouble(v2[0].trim()) : 0;
+      // Note: reverse X/Y axes so tool head moves on X axis
+      return new Rectangle2D.Double(x, y, wid, hyt);
+    }
+
+    private void sendCmd (String cmd) {
+      usb.send((cmd + "\u0003").getBytes());
+    }
+
+    /**
+     * Query device for version string
+     * @return version string, such as "CURIO V1.20"
+     */
+    private String getVersionString() {
+      sendCmd("FG");
+      return getResponse();
+    }
+
+    private String getResponse () {
+      byte[] data = usb.receive();
+      if (data.length > 0) {
+        return (new String(data)).substring(0, data.length - 1);
+      }
+      return "";
+    }
+
+    /**
+     * Used by doWait() to get status of plotter
+     * @return '1' if plotter is executing a move or draw command
+     */
+    private byte getStatus () {
+      usb.send(STATUS_REQUEST);
+      return readStatus();
+    }
+
+    /**
+     * Wait for reply to a status request.  Gives up if the job is aborted, as abort() cancels any status request
+     * still queued for async transfer, or if no reply arrives within STATUS_TIMEOUT.
+     * @return '1' if plotter is executing a move or draw command
+     * @throws LibUsbException if aborted, or timed out
+     */
+    private byte readStatus () {
+      long deadline = System.currentTimeMillis() + STATUS_TIMEOUT;
+      while (true) {
+        byte[] data = usb.receive();
+        if (data.length > 0) {
+          return data[0];
+        }
+        if (doAbort) {
+          throw new LibUsbException("Job aborted", LibUsb.ERROR_INTERRUPTED);
+        }
+        if (System.currentTimeMillis() > deadline) {
+          throw new LibUsbException("No status reply from device", LibUsb.ERROR_TIMEOUT);
+        }
+      }
+    }
+
+    /**
+     * Waits until move or draw command is complete and motion is stopped
+     */
+    private void doWait () {
+      while (getStatus() == '1') {
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException ex) {
+          ex.printStackTrace();
+        }
       }
     }
   }
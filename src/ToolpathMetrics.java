@@ -0,0 +1,184 @@
+import java.awt.geom.Point2D;
+import java.awt.geom.PathIterator;
+import java.util.*;
+import java.util.List;
+
+/**
+ * ToolpathMetrics: Measures the toolpath a laser, or cutter follows to cut a List of CADShape objects in the order
+ * given, such as the List returned by PathPlanner.optimize(), or by DrawSurface.selectLaserItems().  Reports the
+ * length of the cuts, the length of the rapid moves between them, the number of times the laser is turned off
+ * and on (or the pen, or blade is lifted), and an estimate of the time the job takes.
+ *
+ * The main() method is a benchmark suite that measures planning time and the resulting toolpath for synthetic
+ * layouts, with and without PathPlanner.optimize(), as the number of shapes grows.
+ */
+
+class ToolpathMetrics {
+  private static final double FLATNESS = 0.001;           // Tolerance used to flatten curves (inches)
+  static final double         CUT_SPEED = 1.0;            // Typical cutting speed (inches/second)
+  static final double         TRAVEL_SPEED = 10.0;        // Typical speed of rapid moves (inches/second)
+  static final double         ACCEL = 100.0;              // Typical acceleration of rapid moves (inches/second^2)
+  static final double         TRANSITION_TIME = 0.01;     // Time to turn laser off and on, or lift pen (seconds)
+  double                      cutLength, travelLength;    // inches
+  double                      travelTime;                 // Time for rapid moves at TRAVEL_SPEED and ACCEL (seconds)
+  int                         shapes, transitions;
+
+  /**
+   * Measure the toolpath for a List of shapes cut in order, starting from 0, 0.  Moves to the start of each
+   * subpath, other than zero length moves, are counted as rapid moves, each of which needs a transition.
+   * @param cadShapes List of CADShape objects in cutting order
+   * @return ToolpathMetrics object holding the results
+   */
+  static ToolpathMetrics measure (List<LaserCut.CADShape> cadShapes) {
+    ToolpathMetrics metrics = new ToolpathMetrics();
+    double x = 0, y = 0, moveX = 0, moveY = 0;
+    double[] coords = new double[6];
+    for (LaserCut.CADShape cadShape : cadShapes) {
+      metrics.shapes++;
+      PathIterator pi = cadShape.getWorkspaceTranslatedShape().getPathIterator(null, FLATNESS);
+      for (; !pi.isDone(); pi.next()) {
+        switch (pi.currentSegment(coords)) {
+          case PathIterator.SEG_MOVETO:
+            double dist = Point2D.distance(x, y, coords[0], coords[1]);
+            if (dist > 1e-9) {
+              metrics.travelLength += dist;
+              metrics.travelTime += getMoveTime(dist, TRAVEL_SPEED, ACCEL);
+              metrics.transitions++;
+            }
+            x = moveX = coords[0];
+            y = moveY = coords[1];
+            break;
+          case PathIterator.SEG_LINETO:
+            metrics.cutLength += Point2D.distance(x, y, coords[0], coords[1]);
+            x = coords[0];
+            y = coords[1];
+            break;
+          case PathIterator.SEG_CLOSE:
+            metrics.cutLength += Point2D.distance(x, y, moveX, moveY);
+            x = moveX;
+            y = moveY;
+            break;
+        }
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Time for a move that accelerates to speed, and then decelerates to a stop (trapezoidal velocity profile)
+   * @param dist length of move
+   * @param speed max speed
+   * @param accel acceleration
+   * @return time in seconds
+   */
+  static double getMoveTime (double dist, double speed, double accel) {
+    double rampDist = speed * speed / accel;              // Distance to accelerate and then decelerate
+    if (dist >= rampDist) {
+      return dist / speed + speed / accel;
+    }
+    return 2 * Math.sqrt(dist / accel);
+  }
+
+  /**
+   * Estimate the time to run the job
+   * @param cutSpeed cutting speed (inches/second)
+   * @return time in seconds
+   */
+  double getEstimatedTime (double cutSpeed) {
+    return cutLength / cutSpeed + travelTime + transitions * TRANSITION_TIME;
+  }
+
+  public String toString () {
+    return String.format("%d shapes, cut %.1f in, travel %.1f in, %d transitions, est. %.1f sec", shapes, cutLength,
+                         travelLength, transitions, getEstimatedTime(CUT_SPEED));
+  }
+
+  /*
+   * * * * * * * Benchmark Suite * * * * * * * *
+   */
+
+  /**
+   * Grid of rectangular parts, each with 4 holes and a small part nested inside, in shuffled order
+   */
+  private static List<LaserCut.CADShape> getNestedGrid (int count, Random rnd) {
+    List<LaserCut.CADShape> shapes = new ArrayList<>();
+    int cols = (int) Math.ceil(Math.sqrt(count / 6.0));
+    for (int ii = 0; shapes.size() < count; ii++) {
+      double x = (ii % cols) * 1.1, y = (ii / cols) * 1.1;
+      shapes.add(new LaserCut.CADRectangle(x, y, 1, 1, .1, 0, false));
+      for (int jj = 0; jj < 4; jj++) {
+        shapes.add(new LaserCut.CADOval(x + .1 + (jj & 1) * .7, y + .1 + (jj >> 1) * .7, .1, .1, 0, false));
+      }
+      shapes.add(new LaserCut.CADRectangle(x + .35, y + .35, .3, .3, 0, 0, false));
+    }
+    Collections.shuffle(shapes, rnd);
+    return shapes.subList(0, count);
+  }
+
+  /**
+   * Circles and rectangles scattered at random
+   */
+  private static List<LaserCut.CADShape> getScatter (int count, Random rnd) {
+    List<LaserCut.CADShape> shapes = new ArrayList<>();
+    double size = Math.sqrt(count) * .5;
+    for (int ii = 0; ii < count; ii++) {
+      double x = rnd.nextDouble() * size, y = rnd.nextDouble() * size;
+      if (rnd.nextBoolean()) {
+        shapes.add(new LaserCut.CADOval(x, y, .2, .2, 0, false));
+      } else {
+        shapes.add(new LaserCut.CADRectangle(x, y, .25, .15, 0, rnd.nextInt(90), false));
+      }
+    }
+    return shapes;
+  }
+
+  /**
+   * Lines of text, one CADText per word, in shuffled order
+   */
+  private static List<LaserCut.CADShape> getText (int count, Random rnd) {
+    String[] words = {"LaserCut", "Boxes", "Gears", "Sign", "Label", "Panel", "Bracket", "Hinge"};
+    List<LaserCut.CADShape> shapes = new ArrayList<>();
+    int cols = (int) Math.ceil(Math.sqrt(count) / 3);
+    for (int ii = 0; ii < count; ii++) {
+      shapes.add(new LaserCut.CADText((ii % cols) * 1.5, (ii / cols) * .4, words[rnd.nextInt(words.length)],
+                                      "Helvetica", "plain", 18, 0, 0, false));
+    }
+    Collections.shuffle(shapes, rnd);
+    return shapes;
+  }
+
+  /**
+   * Run benchmark suite.  Optional argument sets the max number of shapes (default 100000).
+   */
+  public static void main (String[] args) {
+    int max = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    String[] layouts = {"nested grid", "random scatter", "text"};
+    for (String layout : layouts) {
+      System.out.println(layout + ":");
+      for (int count = 10; count <= max; count *= 10) {
+        Random rnd = new Random(count);
+        List<LaserCut.CADShape> shapes;
+        switch (layout) {
+          case "nested grid":
+            shapes = getNestedGrid(count, rnd);
+            break;
+          case "random scatter":
+            shapes = getScatter(count, rnd);
+            break;
+          default:
+            shapes = getText(count, rnd);
+            break;
+        }
+        ToolpathMetrics before = measure(shapes);
+        long start = System.nanoTime();
+        List<LaserCut.CADShape> planned = PathPlanner.optimize(shapes);
+        long time = System.nanoTime() - start;
+        ToolpathMetrics after = measure(planned);
+        System.out.printf("  %6d shapes: plan %6d ms, travel %10.1f -> %9.1f in, transitions %6d -> %6d, " +
+                          "est. time %8.1f -> %8.1f sec%n", count, time / 1000000, before.travelLength,
+                          after.travelLength, before.transitions, after.transitions,
+                          before.getEstimatedTime(CUT_SPEED), after.getEstimatedTime(CUT_SPEED));
+      }
+    }
+  }
+}
@@ -1,64 +1,293 @@
 import org.usb4java.*;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  *  Implements a bulk transfer I/O driver that uses usb4java to communicate with a USB Device
  *  such as a Silhouette Curio, Cameo or Portrait using the Usb4Java Library.
  *
  *  See: http://usb4java.org, and http://usb4java.org/apidocs/index.html for more info
+ *
+ *  The libusb calls are made by USBIO.LibUsbTransport, so a different USBTransport, such as MockSilhouette,
+ *  can be used in its place to test without a device.
  */
 
 class USBIO {
   private static final int  TIMEOUT = 500;
-  private DeviceHandle      handle;
-  private Context           context = new Context();
-  private byte              iFace, outEnd, inEnd;
+  private USBTransport      transport;
+  private ByteBuffer        outBuf = BufferUtils.allocateByteBuffer(4096);    // Reused for all sends
+  private ByteBuffer        inBuf = BufferUtils.allocateByteBuffer(64);
+  // State used by async transfer mode
+  private BlockingQueue<Integer> freeXfers;
+  private ByteBuffer[]      xferBufs;
+  private boolean[]         busy;                 // Transfers submitted, but not yet called back
+  private Thread            eventThread;
+  private volatile boolean  asyncRunning;
+  private boolean           draining, closePending;
+  private volatile int      asyncError;
+  private int               inFlight;
+  private long              bytesSent, xferCount, asyncStart, asyncEnd, idleStart, idleTime;
 
   USBIO (short vendorId, short productId, byte iFace, byte outEnd, byte inEnd) {
-    this.iFace = iFace;
-    this.outEnd = outEnd;
-    this.inEnd = inEnd;
-    int error = LibUsb.init(context);
-    if (error != LibUsb.SUCCESS) {
-      throw new LibUsbException("Unable to initialize libusb", error);
-    }
-    DeviceList list = new DeviceList();
-    if ((error = LibUsb.getDeviceList(context, list)) < 0) {
-      throw new LibUsbException("Unable to get device list", error);
-    }
-    for (Device device : list) {
-      DeviceDescriptor desc = new DeviceDescriptor();
-      LibUsb.getDeviceDescriptor(device, desc);
-      if (desc.idVendor() == vendorId && desc.idProduct() == productId) {
-        handle = new DeviceHandle();
-        if ((error = LibUsb.open(device, handle)) >= 0) {
-          if ((error = LibUsb.claimInterface(handle, iFace)) == LibUsb.SUCCESS) {
-            return;
-          } else {
-            if (LibUsb.detachKernelDriver(handle, iFace) == LibUsb.SUCCESS) {
-              if ((error = LibUsb.claimInterface(handle, iFace)) == LibUsb.SUCCESS) {
-                return;
-              }
-              throw new LibUsbException("Unable to claim interface", error);
-            }
-          }
+    this(new LibUsbTransport(vendorId, productId, iFace, outEnd, inEnd));
+  }
+
+  /**
+   * Create a USBIO that uses a specific transport, such as MockSilhouette
+   * @param transport USBTransport
+   */
+  USBIO (USBTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Get the max packet size of the output endpoint
+   * @return size in bytes
+   */
+  int getPacketSize () {
+    return transport.getPacketSize();
+  }
+
+  void send (byte[] data) {
+    send(data, 0, data.length);
+  }
+
+  /**
+   * Send data in as many bulk transfers as needed
+   * @param data buffer holding data to send
+   * @param off offset to first byte to send
+   * @param len number of bytes to send
+   */
+  void send (byte[] data, int off, int len) {
+    while (len > 0) {
+      int sent = write(data, off, len, TIMEOUT);
+      if (sent == 0) {
+        throw new LibUsbException("Unable to send data", LibUsb.ERROR_TIMEOUT);
+      }
+      off += sent;
+      len -= sent;
+    }
+  }
+
+  /**
+   * Send data as a single bulk transfer, but return if the device stops accepting data (such as when its
+   * command buffer is full) so the caller can decide whether to wait and retry
+   * @param data buffer holding data to send
+   * @param off offset to first byte to send
+   * @param len number of bytes to send
+   * @param timeout max time to wait for the device to accept data (milliseconds)
+   * @return number of bytes actually sent
+   */
+  int write (byte[] data, int off, int len, int timeout) {
+    if (outBuf.capacity() < len) {
+      outBuf = BufferUtils.allocateByteBuffer(Math.max(len, outBuf.capacity() * 2));
+    }
+    outBuf.clear();
+    outBuf.put(data, off, len);
+    outBuf.flip();
+    // Note: the whole capacity of a buffer is sent, so pass a slice covering just the data
+    return transport.write(outBuf.slice(), timeout);
+  }
+
+  /*
+   * * * * * * * Async Transfer Mode * * * * * * * *
+   */
+
+  /**
+   * Switch to async transfer mode where sendAsync() queues data in one of several transfers that are kept in
+   * flight at the same time, so the device always has the next transfer ready to go when it finishes the
+   * current one.  A dedicated thread handles libusb events and recycles completed transfers.
+   * @param count number of transfers (2, or more)
+   * @param size max bytes per transfer
+   */
+  void startAsync (int count, int size) {
+    if (asyncRunning) {
+      return;
+    }
+    if (eventThread != null) {
+      try {
+        eventThread.join();                     // Wait for transfers cancelled by stopAsync() to be freed
+      } catch (InterruptedException ex) {
+        throw new LibUsbException("Interrupted waiting for transfers to drain", LibUsb.ERROR_INTERRUPTED);
+      }
+      eventThread = null;
+    }
+    xferBufs = new ByteBuffer[Math.max(count, 2)];
+    busy = new boolean[xferBufs.length];
+    freeXfers = new ArrayBlockingQueue<>(xferBufs.length);
+    for (int ii = 0; ii < xferBufs.length; ii++) {
+      xferBufs[ii] = BufferUtils.allocateByteBuffer(size);
+      freeXfers.add(ii);
+    }
+    transport.allocTransfers(xferBufs, this::transferDone);
+    asyncError = LibUsb.SUCCESS;
+    inFlight = 0;
+    bytesSent = xferCount = idleTime = 0;
+    asyncStart = asyncEnd = idleStart = 0;
+    asyncRunning = true;
+    eventThread = new Thread(() -> {
+      // Keep handling events after stopAsync() until every cancelled transfer has called back, so none are
+      // freed while libusb still owns them
+      while (asyncRunning || isInFlight()) {
+        int error = transport.handleEvents(100000);                 // 100 ms, in microseconds
+        if (error != LibUsb.SUCCESS && error != LibUsb.ERROR_INTERRUPTED) {
+          asyncError = error;
+        }
+      }
+      transport.freeTransfers();
+      synchronized (this) {
+        draining = false;
+        if (closePending) {
+          transport.close();
         }
       }
+    }, "USBIO Events");
+    eventThread.setDaemon(true);
+    eventThread.start();
+  }
+
+  /**
+   * Called on the event thread when a transfer completes, fails, or is cancelled
+   */
+  private void transferDone (int slot, int status, int actualLength) {
+    synchronized (this) {
+      if (status == LibUsb.TRANSFER_COMPLETED) {
+        bytesSent += actualLength;
+        xferCount++;
+      } else if (asyncError == LibUsb.SUCCESS) {
+        asyncError = status == LibUsb.TRANSFER_CANCELLED ? LibUsb.ERROR_INTERRUPTED : LibUsb.ERROR_IO;
+      }
+      busy[slot] = false;
+      asyncEnd = System.nanoTime();
+      if (--inFlight == 0) {
+        idleStart = asyncEnd;
+      }
+      notifyAll();
     }
-    throw new LibUsbException("Unable to open device", error);
+    freeXfers.add(slot);
   }
 
-  void send (byte[] data) {
-    ByteBuffer outBuf = BufferUtils.allocateByteBuffer(data.length);
-    outBuf.put(data);
-    IntBuffer outNum = IntBuffer.allocate(1);
-    int error;
-    if ((error = LibUsb.bulkTransfer(handle, outEnd, outBuf, outNum, TIMEOUT)) < 0) {
-      throw new LibUsbException("Unable to send data", error);
+  /**
+   * Queue data to send using the next free transfer, blocking until one is available
+   * @param data buffer holding data to send
+   * @param off offset to first byte to send
+   * @param len number of bytes to send (split across transfers, if larger than the transfer size)
+   */
+  void sendAsync (byte[] data, int off, int len) throws InterruptedException {
+    while (len > 0) {
+      int slot = freeXfers.take();
+      checkAsyncError();
+      ByteBuffer buf = xferBufs[slot];
+      int count = Math.min(len, buf.capacity());
+      buf.clear();
+      buf.put(data, off, count);
+      synchronized (this) {
+        long now = System.nanoTime();
+        if (asyncStart == 0) {
+          asyncStart = now;
+        } else if (inFlight == 0) {
+          idleTime += now - idleStart;
+        }
+        inFlight++;
+        busy[slot] = true;
+      }
+      int error = transport.submitTransfer(slot, count);
+      if (error != LibUsb.SUCCESS) {
+        synchronized (this) {
+          inFlight--;
+          busy[slot] = false;
+        }
+        freeXfers.add(slot);
+        throw new LibUsbException("Unable to submit transfer", error);
+      }
+      off += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Wait until all queued transfers have completed
+   */
+  synchronized void flushAsync () throws InterruptedException {
+    while (inFlight > 0) {
+      wait();
+    }
+    checkAsyncError();
+  }
+
+  private void checkAsyncError () {
+    if (asyncError != LibUsb.SUCCESS) {
+      throw new LibUsbException("Async transfer failed", asyncError);
+    }
+  }
+
+  private synchronized boolean isInFlight () {
+    return inFlight > 0;
+  }
+
+  /**
+   * Cancel any transfers in flight, which makes a pending, or later call to sendAsync(), or flushAsync() fail
+   * Note: can be called from any thread, such as to abort a job while the sending thread is blocked
+   */
+  synchronized void cancelAsync () {
+    if (asyncRunning && inFlight > 0) {
+      for (int ii = 0; ii < busy.length; ii++) {
+        if (busy[ii]) {
+          transport.cancelTransfer(ii);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancel any transfers still in flight and leave async transfer mode.  The event thread frees the transfers
+   * once they've all called back, so if a stalled device keeps some past the 1 second wait, they're freed later
+   * (and a later startAsync() waits for them) rather than dropped while libusb still owns them.
+   */
+  void stopAsync () {
+    if (!asyncRunning) {
+      return;
+    }
+    try {
+      cancelAsync();
+      synchronized (this) {
+        if (inFlight > 0) {
+          long limit = System.currentTimeMillis() + 1000;
+          while (inFlight > 0 && System.currentTimeMillis() < limit) {
+            wait(100);
+          }
+        }
+        draining = true;
+        asyncRunning = false;
+      }
+      if (!isInFlight()) {
+        eventThread.join();
+      }
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
     }
+    xferBufs = null;
+  }
+
+  /**
+   * Get metrics for the transfers sent since startAsync() was called
+   * @return String reporting bytes and transfers sent, throughput and time the device was left waiting for data
+   */
+  synchronized String getAsyncStats () {
+    double secs = (asyncEnd - asyncStart) / 1.0e9;
+    return String.format("Sent %d bytes in %d transfers, %.1f KB/sec, idle %.1f ms", bytesSent, xferCount,
+                         secs > 0 ? bytesSent / secs / 1024 : 0.0, idleTime / 1.0e6);
+  }
+
+  synchronized long getBytesSent () {
+    return bytesSent;
+  }
+
+  synchronized long getTransferCount () {
+    return xferCount;
   }
 
   byte[] receive () {
@@ -66,33 +295,139 @@ class USBIO {
   }
 
   byte[] receive (int timeout) {
-    ByteBuffer inBuf = ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN);
-    IntBuffer inNum = IntBuffer.allocate(1);  // Used to get bytes read count
-    if (LibUsb.bulkTransfer(handle, inEnd, inBuf, inNum, timeout) >= 0) {
-      if (inBuf.hasArray()) {
-        return inBuf.array();
-      } else {
-        int cnt = inNum.get(0);
-        byte[] data = new byte[cnt];
-        for (int ii = 0; ii < cnt; ii++) {
-          data[ii] = inBuf.get();
-        }
-        inBuf.clear();
-        return data;
-      }
+    inBuf.clear();
+    int count = transport.read(inBuf, timeout);
+    if (count >= 0) {
+      byte[] data = new byte[count];
+      inBuf.get(data);
+      return data;
     }
     return new byte[0];
   }
 
   void close () {
-    try {
-      int error = LibUsb.releaseInterface(handle, iFace);
+    stopAsync();
+    synchronized (this) {
+      if (draining) {
+        closePending = true;                    // Event thread closes transport once transfers are freed
+        return;
+      }
+    }
+    transport.close();
+  }
+
+  /**
+   * Implements USBTransport using libusb to talk to a real device
+   */
+  static class LibUsbTransport implements USBTransport {
+    private DeviceHandle      handle;
+    private Context           context = new Context();
+    private byte              iFace, outEnd, inEnd;
+    private int               packetSize = 64;
+    private IntBuffer         xferNum = BufferUtils.allocateIntBuffer();      // Used to get bytes transferred count
+    private Transfer[]        xfers;
+
+    LibUsbTransport (short vendorId, short productId, byte iFace, byte outEnd, byte inEnd) {
+      this.iFace = iFace;
+      this.outEnd = outEnd;
+      this.inEnd = inEnd;
+      int error = LibUsb.init(context);
       if (error != LibUsb.SUCCESS) {
-        throw new LibUsbException("Unable to release interface", error);
+        throw new LibUsbException("Unable to initialize libusb", error);
+      }
+      DeviceList list = new DeviceList();
+      if ((error = LibUsb.getDeviceList(context, list)) < 0) {
+        throw new LibUsbException("Unable to get device list", error);
+      }
+      for (Device device : list) {
+        DeviceDescriptor desc = new DeviceDescriptor();
+        LibUsb.getDeviceDescriptor(device, desc);
+        if (desc.idVendor() == vendorId && desc.idProduct() == productId) {
+          handle = new DeviceHandle();
+          if ((error = LibUsb.open(device, handle)) >= 0) {
+            int size = LibUsb.getMaxPacketSize(device, outEnd);
+            if (size > 0) {
+              packetSize = size;
+            }
+            if ((error = LibUsb.claimInterface(handle, iFace)) == LibUsb.SUCCESS) {
+              return;
+            } else {
+              if (LibUsb.detachKernelDriver(handle, iFace) == LibUsb.SUCCESS) {
+                if ((error = LibUsb.claimInterface(handle, iFace)) == LibUsb.SUCCESS) {
+                  return;
+                }
+                throw new LibUsbException("Unable to claim interface", error);
+              }
+            }
+          }
+        }
+      }
+      throw new LibUsbException("Unable to open device", error);
+    }
+
+    public int getPacketSize () {
+      return packetSize;
+    }
+
+    public int write (ByteBuffer data, int timeout) {
+      xferNum.put(0, 0);
+      int error = LibUsb.bulkTransfer(handle, outEnd, data, xferNum, timeout);
+      if (error < 0 && error != LibUsb.ERROR_TIMEOUT) {
+        throw new LibUsbException("Unable to send data", error);
+      }
+      return xferNum.get(0);
+    }
+
+    public int read (ByteBuffer data, int timeout) {
+      xferNum.put(0, 0);
+      int error = LibUsb.bulkTransfer(handle, inEnd, data, xferNum, timeout);
+      return error < 0 ? error : xferNum.get(0);
+    }
+
+    public void allocTransfers (ByteBuffer[] buffers, Callback callback) {
+      xfers = new Transfer[buffers.length];
+      for (int ii = 0; ii < xfers.length; ii++) {
+        int slot = ii;
+        xfers[ii] = LibUsb.allocTransfer(0);
+        if (xfers[ii] == null) {
+          throw new LibUsbException("Unable to allocate transfer", LibUsb.ERROR_NO_MEM);
+        }
+        // Note: timeout of 0 waits until the device accepts all the data, however long it's busy
+        LibUsb.fillBulkTransfer(xfers[ii], handle, outEnd, buffers[ii],
+                                xfer -> callback.transferDone(slot, xfer.status(), xfer.actualLength()), null, 0);
+      }
+    }
+
+    public int submitTransfer (int slot, int length) {
+      xfers[slot].setLength(length);
+      return LibUsb.submitTransfer(xfers[slot]);
+    }
+
+    public void cancelTransfer (int slot) {
+      LibUsb.cancelTransfer(xfers[slot]);
+    }
+
+    public int handleEvents (long timeout) {
+      return LibUsb.handleEventsTimeout(context, timeout);
+    }
+
+    public void freeTransfers () {
+      for (Transfer xfer : xfers) {
+        LibUsb.freeTransfer(xfer);
+      }
+      xfers = null;
+    }
+
+    public void close () {
+      try {
+        int error = LibUsb.releaseInterface(handle, iFace);
+        if (error != LibUsb.SUCCESS) {
+          throw new LibUsbException("Unable to release interface", error);
+        }
+      } finally {
+        LibUsb.close(handle);
+        LibUsb.exit(context);
       }
-    } finally {
-      LibUsb.close(handle);
-      LibUsb.exit(context);
     }
   }
 }
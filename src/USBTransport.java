@@ -0,0 +1,68 @@
+import java.nio.ByteBuffer;
+
+/**
+ *  USBTransport: The low level bulk transfer operations that USBIO is built on.  USBIO.LibUsbTransport
+ *  implements them using libusb to talk to a real device, and MockSilhouette implements them in memory
+ *  so the send pipeline can be tested and benchmarked without hardware.
+ *
+ *  Error and transfer status codes are the ones defined in org.usb4java.LibUsb.
+ */
+
+interface USBTransport {
+  /**
+   * Called when an async transfer completes, fails, or is cancelled
+   */
+  interface Callback {
+    void transferDone (int slot, int status, int actualLength);
+  }
+
+  /**
+   * Get the max packet size of the output endpoint
+   * @return size in bytes
+   */
+  int getPacketSize ();
+
+  /**
+   * Send data using a single bulk transfer
+   * @param data direct buffer holding the data (its whole capacity is sent)
+   * @param timeout max time to wait for device to accept the data (milliseconds)
+   * @return number of bytes actually sent, which is less than capacity if the transfer timed out
+   */
+  int write (ByteBuffer data, int timeout);
+
+  /**
+   * Receive data using a single bulk transfer
+   * @param data direct buffer to hold received data
+   * @param timeout max time to wait for data (milliseconds)
+   * @return number of bytes received, or a negative error code (such as if it timed out)
+   */
+  int read (ByteBuffer data, int timeout);
+
+  /**
+   * Allocate a set of async output transfers, one per buffer, which are then identified by slot number
+   * @param buffers direct buffers used by each transfer
+   * @param callback called by handleEvents() as each submitted transfer completes
+   */
+  void allocTransfers (ByteBuffer[] buffers, Callback callback);
+
+  /**
+   * Submit an async transfer that waits as long as needed for the device to accept the data
+   * @param slot transfer to submit
+   * @param length number of bytes to send from the start of its buffer
+   * @return error code, or 0 if successful
+   */
+  int submitTransfer (int slot, int length);
+
+  void cancelTransfer (int slot);
+
+  /**
+   * Wait for async transfers to complete and call their callbacks
+   * @param timeout max time to wait (microseconds)
+   * @return error code, or 0 if successful
+   */
+  int handleEvents (long timeout);
+
+  void freeTransfers ();
+
+  void close ();
+}
@@ -0,0 +1,200 @@
+import com.t_oster.liblasercut.JobPart;
+import com.t_oster.liblasercut.LaserJob;
+import com.t_oster.liblasercut.PowerSpeedFocusFrequencyProperty;
+import com.t_oster.liblasercut.ProgressListener;
+import com.t_oster.liblasercut.drivers.EpilogZing;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZingCapture: Local stand-in for an Epilog Zing that accepts print jobs on localhost using the same LPD
+ * style protocol that LibLaserCut's EpilogZing driver uses to talk to the real machine.  The data file of
+ * each job (the PJL/PCL bytes the Zing would run) is saved to disk, and the byte counts and transfer time
+ * are reported, so job compile and send performance can be measured without the laser.
+ *
+ * To use, enable "Send to Local Capture Server" in the Zing menu, or point an EpilogZing at 127.0.0.1 and
+ * the capture server's port.
+ *
+ * Ref: https://tools.ietf.org/html/rfc1179 (Line Printer Daemon Protocol)
+ */
+
+public class ZingCapture implements Runnable {
+  static final int                            DEFAULT_PORT = 10515;
+  private final ServerSocket                  server;
+  private final File                          dir;
+  private final LinkedBlockingQueue<Capture>  captures = new LinkedBlockingQueue<>();
+  private volatile boolean                    running = true;
+
+  static class Capture {
+    File    file;
+    int     controlBytes, dataBytes, totalBytes;
+    long    transferTime;                         // Nanoseconds from first command to end of job
+    String  error;
+
+    public String toString () {
+      if (error != null) {
+        return "Capture failed: " + error;
+      }
+      return "Captured " + totalBytes + " bytes (" + dataBytes + " job data, " + controlBytes + " control) in " +
+              String.format("%.1f", transferTime / 1.0e6) + " ms\nSaved to: " + file;
+    }
+  }
+
+  /**
+   * Start a capture server on localhost
+   * @param port port to listen on (0 picks a free port)
+   * @param dir directory where captured job data is saved
+   * @throws IOException if port is not available
+   */
+  ZingCapture (int port, File dir) throws IOException {
+    this.dir = dir;
+    dir.mkdirs();
+    server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    Thread thread = new Thread(this, "Zing Capture");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  int getPort () {
+    return server.getLocalPort();
+  }
+
+  void close () {
+    running = false;
+    try {
+      server.close();
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Wait for the next job to be captured
+   * @param timeout max time to wait in milliseconds
+   * @return Capture describing the job, or null if no job arrived in time
+   */
+  Capture waitForCapture (long timeout) throws InterruptedException {
+    return captures.poll(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  public void run () {
+    while (running) {
+      try (Socket sock = server.accept()) {
+        Capture capture = new Capture();
+        try {
+          receiveJob(sock, capture);
+        } catch (IOException ex) {
+          capture.error = ex.getMessage();
+        }
+        captures.add(capture);
+      } catch (IOException ex) {
+        if (running) {
+          ex.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private void receiveJob (Socket sock, Capture capture) throws IOException {
+    InputStream in = new BufferedInputStream(sock.getInputStream());
+    OutputStream out = sock.getOutputStream();
+    String cmd = readLine(in);
+    long start = System.nanoTime();
+    if (cmd == null || cmd.length() == 0 || cmd.charAt(0) != 2) {
+      throw new IOException("Expected 'receive job' command");
+    }
+    capture.totalBytes += cmd.length() + 1;
+    acknowledge(out);
+    // Read subcommands until client closes the connection
+    while ((cmd = readLine(in)) != null && cmd.length() > 0) {
+      capture.totalBytes += cmd.length() + 1;
+      int space = cmd.indexOf(' ');
+      if ((cmd.charAt(0) != 2 && cmd.charAt(0) != 3) || space < 0) {
+        throw new IOException("Unexpected subcommand: " + (int) cmd.charAt(0));
+      }
+      int count = Integer.parseInt(cmd.substring(1, space));
+      acknowledge(out);
+      byte[] data = new byte[count];
+      new DataInputStream(in).readFully(data);
+      capture.totalBytes += count;
+      if (cmd.charAt(0) == 2) {
+        // Control file is followed by a zero byte
+        in.read();
+        capture.totalBytes++;
+        capture.controlBytes += count;
+      } else {
+        capture.dataBytes += count;
+        capture.file = new File(dir, "zing-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".prn");
+        try (FileOutputStream fOut = new FileOutputStream(capture.file)) {
+          fOut.write(data);
+        }
+      }
+      acknowledge(out);
+    }
+    capture.transferTime = System.nanoTime() - start;
+  }
+
+  private static void acknowledge (OutputStream out) throws IOException {
+    out.write(0);
+    out.flush();
+  }
+
+  private static String readLine (InputStream in) throws IOException {
+    StringBuilder buf = new StringBuilder();
+    int cc;
+    while ((cc = in.read()) != '\n') {
+      if (cc < 0) {
+        return buf.length() > 0 ? buf.toString() : null;
+      }
+      buf.append((char) cc);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Benchmark of end to end compile plus send latency, and job size, using a capture server in place of the
+   * Zing.  Optional argument sets the number of shapes in the test design.
+   */
+  public static void main (String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    List<LaserCut.CADShape> design = ZingLaser.getBenchmarkDesign(count);
+    ZingCapture capture = new ZingCapture(0, new File(System.getProperty("java.io.tmpdir"), "zing-capture"));
+    PowerSpeedFocusFrequencyProperty props = new PowerSpeedFocusFrequencyProperty();
+    JobCache<List<JobPart>> jobCache = new JobCache<>();
+    for (int ii = 0; ii < 3; ii++) {
+      // First pass compiles the job, later passes resend it from the cache
+      long start = System.nanoTime();
+      String key = JobCache.getKey(DrawSurface.getDesignChecksum(design), ZingLaser.getSettingsKey(props), true);
+      List<JobPart> parts = jobCache.get(key);
+      if (parts == null) {
+        parts = new ArrayList<>(ZingLaser.compileJob(design, props, props, props, true, 0).getParts());
+        jobCache.put(key, parts);
+      }
+      LaserJob job = ZingLaser.newJob(parts);
+      long compiled = System.nanoTime();
+      String size = ZingLaser.getJobSize(job);
+      EpilogZing zing = new EpilogZing("127.0.0.1");
+      zing.setPort(capture.getPort());
+      zing.sendJob(job, new ProgressListener() {
+        public void progressChanged (Object obj, int pct) { }
+
+        public void taskChanged (Object obj, String str) { }
+      }, new ArrayList<>());
+      long sent = System.nanoTime();
+      Capture result = capture.waitForCapture(10000);
+      System.out.println(design.size() + " shapes, " + size);
+      System.out.println("  compile: " + (compiled - start) / 1000000 + " ms, send: " + (sent - compiled) / 1000000 +
+                         " ms, total: " + (sent - start) / 1000000 + " ms");
+      System.out.println("  " + result);
+    }
+    capture.close();
+  }
+}
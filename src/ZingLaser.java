@@ -7,15 +7,17 @@ import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ItemEvent;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 
 class ZingLaser implements LaserCut.OutputDevice {
   private static final double               ZING_PPI = 500;
+  private static final double               ZING_FLATNESS = .5;     // Chord tolerance, as points round to whole ZING_PPI units
   private static final int                  ZING_SPEED_DEFAUlT = 55;
   private static final int                  ZING_FREQ_DEFAUlT = 500;
   private static final int                  ZING_CUT_POWER_DEFAUlT = 85;
@@ -25,6 +27,8 @@ class ZingLaser implements LaserCut.OutputDevice {
   private static final Rectangle2D.Double   zing12x12Size = new Rectangle2D.Double(0, 0, 12, 12);
   private LaserCut                          laserCut;
   private String                            dUnits;
+  private ZingCapture                       capture;
+  private final JobCache<List<JobPart>>     jobCache = new JobCache<>();
 
   ZingLaser (LaserCut laserCut) {
     this.laserCut = laserCut;
@@ -43,7 +47,10 @@ class ZingLaser implements LaserCut.OutputDevice {
 
   // Implemented for LaserCut.OutputDevice
   public void closeDevice () {
-    // Nothing to do
+    if (capture != null) {
+      capture.close();
+      capture = null;
+    }
   }
 
   // Implemented for LaserCut.OutputDevice
@@ -61,88 +68,58 @@ class ZingLaser implements LaserCut.OutputDevice {
         laserCut.showErrorDialog("Please set the " + getName() + "'s IP Address in " + getName() + "->Zing Settings");
         return;
       }
-      if (laserCut.showWarningDialog("Press OK to Send Job to " + getName())) {
+      PowerSpeedFocusFrequencyProperty cutProperties = new PowerSpeedFocusFrequencyProperty();
+      cutProperties.setProperty("speed", laserCut.prefs.getInt("zing.speed", ZING_SPEED_DEFAUlT));
+      cutProperties.setProperty("power", laserCut.prefs.getInt("zing.power", ZING_CUT_POWER_DEFAUlT));
+      cutProperties.setProperty("frequency", laserCut.prefs.getInt("zing.freq", ZING_FREQ_DEFAUlT));
+      cutProperties.setProperty("focus", 0.0f);
+      PowerSpeedFocusFrequencyProperty engraveProperties = new PowerSpeedFocusFrequencyProperty();
+      engraveProperties.setProperty("speed", laserCut.prefs.getInt("zing.espeed", ZING_SPEED_DEFAUlT));
+      engraveProperties.setProperty("power", laserCut.prefs.getInt("zing.epower", ZING_ENGRAVE_POWER_DEFAUlT));
+      engraveProperties.setProperty("frequency", laserCut.prefs.getInt("zing.efreq", ZING_FREQ_DEFAUlT));
+      engraveProperties.setProperty("focus", 0.0f);
+      PowerSpeedFocusFrequencyProperty rasterProperties = new PowerSpeedFocusFrequencyProperty();
+      rasterProperties.setProperty("speed", laserCut.prefs.getInt("zing.rspeed", ZING_SPEED_DEFAUlT));
+      rasterProperties.setProperty("power", laserCut.prefs.getInt("zing.rpower", ZING_RASTER_POWER_DEFAUlT));
+      rasterProperties.setProperty("frequency", ZING_FREQ_DEFAUlT);
+      rasterProperties.setProperty("focus", 0.0f);
+      boolean planPath = laserCut.prefs.getBoolean("zing.pathplan", true);
+      double commonLine = laserCut.surface.getCommonLineTolerance();
+      // Reuse compiled parts if neither the design nor the settings have changed since the last send
+      String key = JobCache.getKey(laserCut.surface.getDesignChecksum(), getSettingsKey(cutProperties),
+                                   getSettingsKey(engraveProperties), getSettingsKey(rasterProperties), planPath,
+                                   commonLine);
+      List<JobPart> parts = jobCache.get(key);
+      if (parts == null) {
+        parts = new ArrayList<>(compileJob(laserCut.surface.getDesign(), cutProperties, engraveProperties,
+                                           rasterProperties, planPath, commonLine).getParts());
+        jobCache.put(key, parts);
+      }
+      // Note: sendJob() empties the job's list of parts, so always send a new LaserJob
+      LaserJob job = newJob(parts);
+      if (laserCut.showWarningDialog("Press OK to Send Job to " + getName() + "\nJob size: " + getJobSize(job))) {
         EpilogZing lasercutter = new EpilogZing(zingIpAddress);
-        // Set Properties for Materials, such as for 3 mm birch plywood, Set: 60% speed, 80% power, 0 focus, 500 Hz.
-        PowerSpeedFocusFrequencyProperty cutProperties = new PowerSpeedFocusFrequencyProperty();
-        cutProperties.setProperty("speed", laserCut.prefs.getInt("zing.speed", ZING_SPEED_DEFAUlT));
-        cutProperties.setProperty("power", laserCut.prefs.getInt("zing.power", ZING_CUT_POWER_DEFAUlT));
-        cutProperties.setProperty("frequency", laserCut.prefs.getInt("zing.freq", ZING_FREQ_DEFAUlT));
-        cutProperties.setProperty("focus", 0.0f);
-        PowerSpeedFocusFrequencyProperty engraveProperties = new PowerSpeedFocusFrequencyProperty();
-        engraveProperties.setProperty("speed", laserCut.prefs.getInt("zing.espeed", ZING_SPEED_DEFAUlT));
-        engraveProperties.setProperty("power", laserCut.prefs.getInt("zing.epower", ZING_ENGRAVE_POWER_DEFAUlT));
-        engraveProperties.setProperty("frequency", laserCut.prefs.getInt("zing.efreq", ZING_FREQ_DEFAUlT));
-        engraveProperties.setProperty("focus", 0.0f);
-        PowerSpeedFocusFrequencyProperty rasterProperties = new PowerSpeedFocusFrequencyProperty();
-        rasterProperties.setProperty("speed", laserCut.prefs.getInt("zing.rspeed", ZING_SPEED_DEFAUlT));
-        rasterProperties.setProperty("power", laserCut.prefs.getInt("zing.rpower", ZING_RASTER_POWER_DEFAUlT));
-        rasterProperties.setProperty("frequency", ZING_FREQ_DEFAUlT);
-        rasterProperties.setProperty("focus", 0.0f);
-        boolean planPath = laserCut.prefs.getBoolean("zing.pathplan", true);
-        LaserJob job = new LaserJob("laserCut", "laserCut", "laserCut");   // title, name, user
-        // Process raster engrave passes, if any
-        for (LaserCut.CADShape shape : laserCut.surface.getDesign()) {
-          if (shape instanceof LaserCut.CADRasterImage && shape.engrave) {
-            LaserCut.CADRasterImage raster = (LaserCut.CADRasterImage) shape;
-            double[] scale = raster.getScale(ZING_PPI);
-            Rectangle2D bb = raster.getScaledRotatedBounds(scale);
-            AffineTransform at = raster.getScaledRotatedTransform(bb, scale);
-            BufferedImage scaledImg = raster.getScaledRotatedImage(at, bb, scale);
-            Point2D.Double offset = raster.getScaledRotatedOrigin(at, bb);
-            int xLoc = (int) Math.round(shape.xLoc * ZING_PPI - offset.x);
-            int yLoc = (int) Math.round(shape.yLoc * ZING_PPI - offset.y);
-            com.t_oster.liblasercut.platform.Point loc = new com.t_oster.liblasercut.platform.Point(xLoc, yLoc);
-            if (raster.engrave3D) {
-              Raster3dPart rp = new Raster3dPart(new BufferedImageAdapter(scaledImg),
-                  rasterProperties, new com.t_oster.liblasercut.platform.Point(xLoc, yLoc), ZING_PPI);
-              job.addPart(rp);
-            } else {
-              RasterPart rp = new RasterPart(new BlackWhiteRaster(new BufferedImageAdapter(scaledImg),
-                  BlackWhiteRaster.DitherAlgorithm.AVERAGE), new PowerSpeedFocusProperty(), loc, ZING_PPI);
-              job.addPart(rp);
-            }
-          }
-        }
-        // Process cut and vector engrave passes
-        for (int ii = 0; ii < 2; ii++) {
-          boolean doCut = ii == 1;
-          // Transform all the shapesInGroup into a series of line segments
-          int lastX = 0, lastY = 0;
-          VectorPart vp = new VectorPart(doCut ? cutProperties : engraveProperties, ZING_PPI);
-          // Loop detects pen up/pen down based on start and end points of line segments
-          boolean hasVector = false;
-          List<LaserCut.CADShape> shapes = laserCut.surface.selectLaserItems(doCut, planPath);
-          for (LaserCut.CADShape shape : shapes) {
-            for (Line2D.Double[] lines : shape.getListOfScaledLines(ZING_PPI, .001)) {
-              if (lines.length > 0) {
-                hasVector = true;
-                boolean first = true;
-                for (Line2D.Double line : lines) {
-                  Point p1 = new Point((int) Math.round(line.x1), (int) Math.round(line.y1));
-                  Point p2 = new Point((int) Math.round(line.x2), (int) Math.round(line.y2));
-                  if (first) {
-                    vp.moveto(p1.x, p1.y);
-                    vp.lineto(lastX = p2.x, lastY = p2.y);
-                  } else {
-                    if (lastX != p1.x || lastY != p1.y) {
-                      vp.moveto(p1.x, p1.y);
-                    }
-                    vp.lineto(lastX = p2.x, lastY = p2.y);
-                  }
-                  first = false;
-                }
-              }
-            }
-            if (hasVector) {
-              job.addPart(vp);
+        if (laserCut.prefs.getBoolean("zing.capture", false)) {
+          // Send to local capture server instead of the Zing
+          try {
+            if (capture == null) {
+              capture = new ZingCapture(ZingCapture.DEFAULT_PORT, new File(System.getProperty("user.home"), "zing-capture"));
             }
+            lasercutter.setHostname("127.0.0.1");
+            lasercutter.setPort(capture.getPort());
+          } catch (IOException ex) {
+            laserCut.showErrorDialog("Unable to start local capture server\n" + ex.getMessage());
+            return;
           }
         }
         new ZingSender(laserCut, lasercutter, job);
       }
     });
     zingMenu.add(sendToZing);
+    // Add "Send to Local Capture Server" Submenu Item (for testing and benchmarking without a Zing)
+    JCheckBoxMenuItem captureJobs = new JCheckBoxMenuItem("Send to Local Capture Server", laserCut.prefs.getBoolean("zing.capture", false));
+    captureJobs.addActionListener(ev -> laserCut.prefs.putBoolean("zing.capture", captureJobs.getState()));
+    zingMenu.add(captureJobs);
 
     // Build JComboBox List of Materials for "Zing Settings" parameters dialog
     String[] materials = LaserCut.getResourceFile("/materials/zing.materials").split("===");
@@ -224,6 +201,223 @@ class ZingLaser implements LaserCut.OutputDevice {
     return zingMenu;
   }
 
+  /**
+   * Compile a design into a LaserJob with raster engrave parts first, then one VectorPart for vector engraving
+   * followed by one VectorPart for cutting
+   * @param design List of CADShape objects in the design
+   * @param cutProperties LaserProperty used for cut paths
+   * @param engraveProperties LaserProperty used for vector engraved paths
+   * @param rasterProperties LaserProperty used for 3D raster engraving
+   * @param planPath if true, use PathPlanner to order the vector paths
+   * @param commonLine max distance between edges of cut paths that are cut only once, or 0 to cut all edges
+   * @return LaserJob ready to send
+   */
+  static LaserJob compileJob (List<LaserCut.CADShape> design, LaserProperty cutProperties, LaserProperty engraveProperties,
+                              LaserProperty rasterProperties, boolean planPath, double commonLine) {
+    LaserJob job = newJob(Collections.emptyList());
+    // Process raster engrave passes, if any
+    for (LaserCut.CADShape shape : design) {
+      if (shape instanceof LaserCut.CADRasterImage && shape.engrave) {
+        LaserCut.CADRasterImage raster = (LaserCut.CADRasterImage) shape;
+        double[] scale = raster.getScale(ZING_PPI);
+        Rectangle2D bb = raster.getScaledRotatedBounds(scale);
+        AffineTransform at = raster.getScaledRotatedTransform(bb, scale);
+        BufferedImage scaledImg = raster.getScaledRotatedImage(at, bb, scale);
+        Point2D.Double offset = raster.getScaledRotatedOrigin(at, bb);
+        int xLoc = (int) Math.round(shape.xLoc * ZING_PPI - offset.x);
+        int yLoc = (int) Math.round(shape.yLoc * ZING_PPI - offset.y);
+        com.t_oster.liblasercut.platform.Point loc = new com.t_oster.liblasercut.platform.Point(xLoc, yLoc);
+        if (raster.engrave3D) {
+          Raster3dPart rp = new Raster3dPart(new BufferedImageAdapter(scaledImg), rasterProperties, loc, ZING_PPI);
+          job.addPart(rp);
+        } else {
+          RasterPart rp = new RasterPart(new BlackWhiteRaster(new BufferedImageAdapter(scaledImg),
+              BlackWhiteRaster.DitherAlgorithm.AVERAGE), new PowerSpeedFocusProperty(), loc, ZING_PPI);
+          job.addPart(rp);
+        }
+      }
+    }
+    // Process vector engrave, then cut passes (engraved raster images were handled by the raster pass)
+    for (int ii = 0; ii < 2; ii++) {
+      boolean doCut = ii == 1;
+      VectorBuilder builder = new VectorBuilder(doCut ? cutProperties : engraveProperties);
+      for (LaserCut.CADShape shape : DrawSurface.selectLaserItems(design, doCut, planPath, commonLine)) {
+        if (shape instanceof LaserCut.CADShapeArray) {
+          LaserCut.CADShapeArray array = (LaserCut.CADShapeArray) shape;
+          builder.addRepeatedShape(array.getSourceShape(), array.getOffsets(), ZING_PPI, ZING_FLATNESS);
+        } else if (doCut || !(shape instanceof LaserCut.CADRasterImage)) {
+          builder.addShape(shape.getWorkspaceTranslatedShape(), ZING_PPI, ZING_FLATNESS);
+        }
+      }
+      VectorPart vp = builder.getVectorPart();
+      if (vp != null) {
+        job.addPart(vp);
+      }
+    }
+    return job;
+  }
+
+  /**
+   * Create a LaserJob from previously compiled parts
+   * @param parts List of JobPart objects (not modified)
+   * @return LaserJob
+   */
+  static LaserJob newJob (List<JobPart> parts) {
+    LaserJob job = new LaserJob("laserCut", "laserCut", "laserCut");   // title, name, user
+    for (JobPart part : parts) {
+      job.addPart(part);
+    }
+    return job;
+  }
+
+  /**
+   * Convert the values of a LaserProperty into a String for use in a JobCache key
+   * @param prop LaserProperty
+   * @return String of name=value pairs
+   */
+  static String getSettingsKey (LaserProperty prop) {
+    StringBuilder buf = new StringBuilder();
+    for (String name : prop.getPropertyKeys()) {
+      buf.append(name);
+      buf.append('=');
+      buf.append(prop.getProperty(name));
+      buf.append(',');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Summarize the size of a compiled job
+   * @param job LaserJob to summarize
+   * @return Text description of the number of moves and lines in the vector parts, and the number of raster parts
+   */
+  static String getJobSize (LaserJob job) {
+    int moves = 0, lines = 0, rasters = 0;
+    for (JobPart part : job.getParts()) {
+      if (part instanceof VectorPart) {
+        for (VectorCommand cmd : ((VectorPart) part).getCommandList()) {
+          if (cmd.getType() == VectorCommand.CmdType.MOVETO) {
+            moves++;
+          } else if (cmd.getType() == VectorCommand.CmdType.LINETO) {
+            lines++;
+          }
+        }
+      } else {
+        rasters++;
+      }
+    }
+    return moves + " moves, " + lines + " lines, " + rasters + " raster part" + (rasters != 1 ? "s" : "");
+  }
+
+  /**
+   * Builds a single VectorPart from the polylines of one or more Shapes.  Points are rounded to ZING_PPI as
+   * they're added, which lets the builder drop zero length segments and duplicate points, merge runs of
+   * collinear points into a single lineto and skip the moveto when a path starts where the last one ended.
+   */
+  static class VectorBuilder {
+    private final VectorPart  vp;
+    private boolean           hasMove, hasLine;   // true if a moveto, or a lineto is pending
+    private int               curX, curY;         // Last point sent to the VectorPart
+    private int               moveX, moveY;       // Pending moveto point
+    private int               endX, endY;         // Pending lineto point (line from curX, curY)
+    private int               lines;
+
+    VectorBuilder (LaserProperty property) {
+      vp = new VectorPart(property, ZING_PPI);
+    }
+
+    /**
+     * Flatten a Shape and add its paths
+     * @param shape Shape in inches
+     * @param scale scale factor from inches to VectorPart units (usually ZING_PPI)
+     * @param flatten max distance between curves and their line segments (VectorPart units)
+     */
+    void addShape (Shape shape, double scale, double flatten) {
+      addRepeatedShape(shape, new double[] {0, 0}, scale, flatten);
+    }
+
+    /**
+     * Flatten a Shape once, then add translated copies of its paths
+     * @param shape Shape in inches
+     * @param offsets x/y offset pairs (inches) for each copy
+     * @param scale scale factor from inches to VectorPart units (usually ZING_PPI)
+     * @param flatten max distance between curves and their line segments (VectorPart units)
+     */
+    void addRepeatedShape (Shape shape, double[] offsets, double scale, double flatten) {
+      PolylineSet lines = PolylineSet.fromShape(shape, scale, flatten);
+      for (int ii = 0; ii < offsets.length; ii += 2) {
+        double dx = offsets[ii] * scale;
+        double dy = offsets[ii + 1] * scale;
+        for (int pp = 0; pp < lines.size(); pp++) {
+          int start = lines.getStart(pp);
+          moveTo(lines.getX(start) + dx, lines.getY(start) + dy);
+          for (int jj = start + 1; jj < lines.getEnd(pp); jj++) {
+            lineTo(lines.getX(jj) + dx, lines.getY(jj) + dy);
+          }
+        }
+      }
+    }
+
+    void moveTo (double x, double y) {
+      int ix = (int) Math.round(x);
+      int iy = (int) Math.round(y);
+      if (hasLine ? ix == endX && iy == endY : !hasMove && lines > 0 && ix == curX && iy == curY) {
+        return;                                   // Already at this point, so just continue the path from here
+      }
+      flush();
+      hasMove = true;
+      moveX = ix;
+      moveY = iy;
+    }
+
+    void lineTo (double x, double y) {
+      int ix = (int) Math.round(x);
+      int iy = (int) Math.round(y);
+      if (hasMove) {
+        if (ix != moveX || iy != moveY) {
+          vp.moveto(curX = moveX, curY = moveY);
+          hasMove = false;
+          hasLine = true;
+          endX = ix;
+          endY = iy;
+        }
+      } else if (hasLine) {
+        if (ix != endX || iy != endY) {
+          long dx1 = endX - curX, dy1 = endY - curY;
+          long dx2 = ix - endX, dy2 = iy - endY;
+          if (dx1 * dy2 - dy1 * dx2 != 0 || dx1 * dx2 + dy1 * dy2 < 0) {
+            // Not a continuation of pending line in the same direction, so send pending line
+            flush();
+            hasLine = true;
+          }
+          endX = ix;
+          endY = iy;
+        }
+      } else if (ix != curX || iy != curY) {
+        hasLine = true;
+        endX = ix;
+        endY = iy;
+      }
+    }
+
+    private void flush () {
+      if (hasLine) {
+        vp.lineto(curX = endX, curY = endY);
+        lines++;
+        hasLine = false;
+      }
+    }
+
+    /**
+     * Get the completed VectorPart
+     * @return VectorPart, or null if no lines were added
+     */
+    VectorPart getVectorPart () {
+      flush();
+      return lines > 0 ? vp : null;
+    }
+  }
+
   class ZingSender extends JDialog implements Runnable {
     EpilogZing              lasercutter;
     LaserJob                job;
@@ -268,6 +462,10 @@ class ZingLaser implements LaserCut.OutputDevice {
             // setProgress(i);
           }
         }, warnings);
+        if (capture != null && "127.0.0.1".equals(lasercutter.getHostname())) {
+          ZingCapture.Capture result = capture.waitForCapture(5000);
+          warnings.add(result != null ? result.toString() : "No job received by local capture server");
+        }
       } catch (Exception ex) {
         hadError = true;
         errMsg = ex.getMessage();
@@ -291,4 +489,42 @@ class ZingLaser implements LaserCut.OutputDevice {
       }
     }
   }
+
+  /**
+   * Generate a design for benchmarking: a grid of rounded rectangles, each with a round hole
+   * @param count number of shapes
+   * @return List of CADShape objects
+   */
+  static List<LaserCut.CADShape> getBenchmarkDesign (int count) {
+    List<LaserCut.CADShape> design = new ArrayList<>();
+    int cols = (int) Math.ceil(Math.sqrt(count / 2.0));
+    for (int ii = 0; ii < count / 2; ii++) {
+      double x = (ii % cols) * .3;
+      double y = (ii / cols) * .3;
+      design.add(new LaserCut.CADRectangle(x, y, .25, .25, .05, 0, false));
+      design.add(new LaserCut.CADOval(x + .125, y + .125, .1, .1, 0, true));
+    }
+    return design;
+  }
+
+  /**
+   * Benchmark of job compile time on a 10,000 shape design (a grid of rounded rectangles, each with a round hole).
+   * Optional argument sets the number of shapes.
+   */
+  public static void main (String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    List<LaserCut.CADShape> design = getBenchmarkDesign(count);
+    PowerSpeedFocusFrequencyProperty props = new PowerSpeedFocusFrequencyProperty();
+    for (boolean planPath : new boolean[] {false, true}) {
+      long best = Long.MAX_VALUE;
+      LaserJob job = null;
+      for (int ii = 0; ii < 5; ii++) {
+        long start = System.nanoTime();
+        job = compileJob(design, props, props, props, planPath, 0);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.println(design.size() + " shapes, planPath: " + planPath + ", compile: " + best / 1000000 + " ms, " +
+                         getJobSize(job));
+    }
+  }
 }